@@ -0,0 +1,28 @@
+package net.jirasystems.webulizor.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import net.jirasystems.webulizor.interfaces.Action;
+
+/**
+ * Indicates that a single instance of an {@link Action} should be reused for
+ * all requests, rather than a new instance being created for each request.
+ * <p>
+ * The instance is shared between request threads and the setters on
+ * {@link Action} are still called for every request, so the action must keep
+ * request state per-thread. Only subclasses of
+ * {@link net.jirasystems.webulizor.base.StatelessAction} can be singletons,
+ * and not if they implement
+ * {@link net.jirasystems.webulizor.interfaces.NotFoundAware} or
+ * {@link net.jirasystems.webulizor.interfaces.ExceptionAware}. Otherwise the
+ * app fails to start. The instance is created at startup, so singletons
+ * are listed in the route index even if they're not routed.
+ * 
+ * @author David Carboni
+ * 
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Singleton {
+	// No properties.
+}
@@ -40,7 +40,7 @@ public class FormAction extends ViewAction {
 	public Action perform() throws IOException {
 
 		put("submitTo",
-				new Link(this.getServletContext(), this.getRequest())
+				Link.forRequest(this.getServletContext(), this.getRequest())
 						.resolve(submitTo));
 		return super.perform();
 	}
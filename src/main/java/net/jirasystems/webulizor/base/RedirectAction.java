@@ -2,6 +2,10 @@ package net.jirasystems.webulizor.base;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletResponse;
 
 import net.jirasystems.webulizor.annotations.DatabaseConnection;
 import net.jirasystems.webulizor.annotations.Route;
@@ -12,10 +16,12 @@ import net.jirasystems.webulizor.interfaces.Action;
 import net.jirasystems.webulizor.interfaces.Get;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.utils.URIBuilder;
 
 /**
  * Simple redirect implementation.
+ * <p>
+ * Relative locations are made absolute using the application URL from
+ * {@link Link}, so no additional parsing or logging is done per redirect.
  * 
  * @author David Carboni
  * 
@@ -23,8 +29,30 @@ import org.apache.http.client.utils.URIBuilder;
 @DatabaseConnection(required = false)
 public class RedirectAction extends AbstractAction {
 
-	private int statusCode = 302;
+	/**
+	 * 308 Permanent Redirect, which isn't defined by the Servlet API. Like
+	 * 301, but the method and body must not change.
+	 */
+	public static final int SC_PERMANENT_REDIRECT = 308;
+
+	/**
+	 * The {@link javax.servlet.ServletContext} attribute holding the status
+	 * code, as an {@link Integer}, for redirects that don't set one. This is
+	 * set by {@link net.jirasystems.webulizor.framework.App} from its
+	 * <code>redirectStatus</code> init-param. If it isn't set, 302 is used.
+	 * For POST-redirect-GET, {@link HttpServletResponse#SC_SEE_OTHER} (303) is
+	 * explicit that the redirect should be a GET. To keep the method, use
+	 * {@link HttpServletResponse#SC_TEMPORARY_REDIRECT} (307) or
+	 * {@link #SC_PERMANENT_REDIRECT} (308).
+	 */
+	public static final String STATUS_CODE_ATTRIBUTE = RedirectAction.class
+			.getName() + ".statusCode";
+
+	private static final Map<Class<? extends Get>, URI> locations = new ConcurrentHashMap<Class<? extends Get>, URI>();
+
+	private int statusCode;
 	private URI location;
+	private Class<? extends Get> action;
 	private QueryString queryString;
 	private String fragment;
 
@@ -73,12 +101,12 @@ public class RedirectAction extends AbstractAction {
 	 */
 	public RedirectAction(Class<? extends Get> action, QueryString queryString) {
 		this.queryString = queryString;
-		location = URI.create(Path.getPath(action));
+		setLocation(action);
 	}
 
 	@Override
 	public Action perform() {
-		getResponse().setStatus(statusCode);
+		getResponse().setStatus(getStatusCode());
 		getResponse().setHeader("Location", absoluteLocation().toString());
 		return null;
 	}
@@ -92,68 +120,94 @@ public class RedirectAction extends AbstractAction {
 	 */
 	public URI absoluteLocation() {
 
-		URI absoluteLocation = location;
+		// Already a full URL:
+		if (action == null
+				&& (location.isOpaque() || StringUtils.isNotEmpty(location
+						.getHost()))) {
+			return location;
+		}
 
 		// Update to a full URL on the current host:
-		if (StringUtils.isEmpty(location.getHost())) {
-
-			// Get request URI information:
-			Link link = new Link(getServletContext(), getRequest());
-			URI url = link.url();
-			String scheme = url.getScheme();
-			String host = url.getHost();
-			int port = url.getPort();
-			String path = location.getPath();
-			String query;
-			if (queryString != null) {
-				query = queryString.toQueryString();
-			} else {
-				query = location.getQuery();
-			}
-			// String fragment = location.getFragment();
-
-			// Adjust for default ports:
-			if (port == 80 || port == 443) {
-				port = -1;
+		Link link = Link.forRequest(getServletContext(), getRequest());
+		URI result;
+		if (action != null) {
+			result = link.url(action, query(queryString));
+		} else if (queryString != null) {
+			result = link.url(location.getPath(), query(queryString));
+		} else {
+			result = link.url(location.getPath(), null);
+			if (location.getRawQuery() != null) {
+				// Keep the caller's query exactly as it is:
+				result = URI.create(result + "?" + location.getRawQuery());
 			}
+		}
 
-			// Sort out the path:
-			path = getRequest().getContextPath() + path;
-
-			// Build the URI:
+		if (fragment != null) {
 			try {
-				URIBuilder uriBuilder = new URIBuilder();
-				uriBuilder.setScheme(scheme);
-				uriBuilder.setHost(host);
-				uriBuilder.setPort(port);
-				uriBuilder.setPath(path);
-				uriBuilder.setQuery(query);
-				uriBuilder.setFragment(fragment);
-				absoluteLocation = uriBuilder.build();
-				getServletContext().log(
-						"Updated redirect URI to an absolute URL: "
-								+ absoluteLocation);
+				String encoded = new URI(null, null, fragment).toASCIIString();
+				result = URI.create(result + encoded);
 			} catch (URISyntaxException e) {
 				throw new RuntimeException("Error adjusting redirect URI", e);
 			}
 		}
+		return result;
+	}
 
-		return absoluteLocation;
+	/**
+	 * @return The given {@link QueryString}, or null if it is empty, so that
+	 *         no '?' is added.
+	 */
+	private static QueryString query(QueryString queryString) {
+		if (queryString == null || queryString.isEmpty()) {
+			return null;
+		}
+		return queryString;
 	}
 
 	/**
-	 * @return the statusCode
+	 * @return the statusCode, or if none has been set, the one in the
+	 *         {@link #STATUS_CODE_ATTRIBUTE} attribute, or 302.
 	 */
 	public int getStatusCode() {
-		return statusCode;
+		if (statusCode != 0) {
+			return statusCode;
+		}
+		Object result = getServletContext() == null ? null
+				: getServletContext().getAttribute(STATUS_CODE_ATTRIBUTE);
+		if (result instanceof Integer) {
+			return ((Integer) result).intValue();
+		}
+		return HttpServletResponse.SC_MOVED_TEMPORARILY;
 	}
 
 	/**
 	 * @param statusCode
-	 *            the statusCode to set
+	 *            the statusCode to set. See {@link #checkStatusCode(int)}.
 	 */
 	public void setStatusCode(int statusCode) {
-		this.statusCode = statusCode;
+		this.statusCode = checkStatusCode(statusCode);
+	}
+
+	/**
+	 * @param statusCode
+	 *            A status code.
+	 * @return The given status code.
+	 * @throws IllegalArgumentException
+	 *             If the status code is not one that redirects to the
+	 *             <code>Location</code>: 301, 302, 303, 307 or 308.
+	 */
+	public static int checkStatusCode(int statusCode) {
+		switch (statusCode) {
+		case HttpServletResponse.SC_MOVED_PERMANENTLY:
+		case HttpServletResponse.SC_MOVED_TEMPORARILY:
+		case HttpServletResponse.SC_SEE_OTHER:
+		case HttpServletResponse.SC_TEMPORARY_REDIRECT:
+		case SC_PERMANENT_REDIRECT:
+			return statusCode;
+		default:
+			throw new IllegalArgumentException("Not a redirect status code: "
+					+ statusCode);
+		}
 	}
 
 	/**
@@ -169,6 +223,7 @@ public class RedirectAction extends AbstractAction {
 	 */
 	public void setLocation(URI location) {
 		this.location = location;
+		action = null;
 	}
 
 	/**
@@ -176,7 +231,19 @@ public class RedirectAction extends AbstractAction {
 	 *            the {@link Get} action to redirect to.
 	 */
 	public void setLocation(Class<? extends Get> location) {
-		this.location = URI.create(Path.getPath(location));
+		URI uri = locations.get(location);
+		if (uri == null) {
+			String path = Path.getPath(location);
+			try {
+				uri = new URI(null, null, path, null);
+			} catch (URISyntaxException e) {
+				throw new RuntimeException("Error creating redirect URI for "
+						+ path, e);
+			}
+			locations.put(location, uri);
+		}
+		this.location = uri;
+		action = location;
 	}
 
 	/**
@@ -0,0 +1,151 @@
+package net.jirasystems.webulizor.base;
+
+import java.sql.Connection;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jirasystems.webulizor.annotations.Singleton;
+import net.jirasystems.webulizor.interfaces.Action;
+
+/**
+ * Implements the basic requirements of the {@link Action} interface for
+ * actions annotated with {@link Singleton}.
+ * <p>
+ * Request state is held per-thread rather than in instance fields, so one
+ * instance can safely process concurrent requests. The state is cleared when
+ * {@link #process()} returns. Subclasses must not keep request state in
+ * fields of their own.
+ *
+ * @author David Carboni
+ *
+ */
+public abstract class StatelessAction implements Action {
+
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	/**
+	 * Calls {@link #process()}, then clears the request state for this thread.
+	 */
+	@Override
+	public final Action perform() throws Exception {
+		try {
+			return process();
+		} finally {
+			state.remove();
+		}
+	}
+
+	/**
+	 * Triggers the logic of this action, returning the next action.
+	 *
+	 * @return The next action in the path, or null if request processing is
+	 *         complete.
+	 * @throws Exception
+	 *             Allows implementations to throw a wide range of exceptions.
+	 */
+	protected abstract Action process() throws Exception;
+
+	/**
+	 * @return the servletContext
+	 */
+	@Override
+	public ServletContext getServletContext() {
+		return state.get().servletContext;
+	}
+
+	/**
+	 * @param servletContext
+	 *            the servletContext to set
+	 */
+	@Override
+	public void setServletContext(ServletContext servletContext) {
+		state.get().servletContext = servletContext;
+	}
+
+	/**
+	 * @return the request
+	 */
+	@Override
+	public HttpServletRequest getRequest() {
+		return state.get().request;
+	}
+
+	/**
+	 * @param request
+	 *            the request to set
+	 */
+	@Override
+	public void setRequest(HttpServletRequest request) {
+		state.get().request = request;
+	}
+
+	/**
+	 * @return the response
+	 */
+	@Override
+	public HttpServletResponse getResponse() {
+		return state.get().response;
+	}
+
+	/**
+	 * @param response
+	 *            the response to set
+	 */
+	@Override
+	public void setResponse(HttpServletResponse response) {
+		state.get().response = response;
+	}
+
+	/**
+	 * @return the connection
+	 */
+	@Override
+	public Connection getConnection() {
+		return state.get().connection;
+	}
+
+	/**
+	 * @param connection
+	 *            the connection to set
+	 */
+	@Override
+	public void setConnection(Connection connection) {
+		state.get().connection = connection;
+	}
+
+	/**
+	 * @return the context
+	 */
+	@Override
+	public Map<String, Object> getContext() {
+		return state.get().context;
+	}
+
+	/**
+	 * @param context
+	 *            the context to set
+	 */
+	@Override
+	public void setContext(Map<String, Object> context) {
+		state.get().context = context;
+	}
+
+	/**
+	 * Request state for one thread.
+	 */
+	private static class State {
+		ServletContext servletContext;
+		HttpServletRequest request;
+		HttpServletResponse response;
+		Connection connection;
+		Map<String, Object> context;
+	}
+}
@@ -78,13 +78,34 @@ public class ViewAction extends AbstractAction {
 		getData().put(name, value);
 	}
 
+	/**
+	 * @return The request context, if one has been set, so that template data
+	 *         is not copied. Otherwise a map local to this action.
+	 */
 	Map<String, Object> getData() {
+		Map<String, Object> context = getContext();
+		if (context != null) {
+			return context;
+		}
 		if (data == null) {
 			data = new HashMap<String, Object>();
 		}
 		return data;
 	}
 
+	/**
+	 * Sets the request context, moving into it any data added before it was
+	 * set.
+	 */
+	@Override
+	public void setContext(Map<String, Object> context) {
+		super.setContext(context);
+		if (context != null && data != null) {
+			context.putAll(data);
+			data = null;
+		}
+	}
+
 	/**
 	 * @return the templatePath
 	 */
@@ -105,7 +126,7 @@ public class ViewAction extends AbstractAction {
 	 */
 	public Link getLink() {
 		if (link == null) {
-			link = new Link(this.getServletContext(), this.getRequest());
+			link = Link.forRequest(this.getServletContext(), this.getRequest());
 		}
 		return link;
 	}
@@ -0,0 +1,264 @@
+package net.jirasystems.webulizor.framework;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jirasystems.webulizor.annotations.DatabaseConnection;
+import net.jirasystems.webulizor.annotations.HomeAction;
+import net.jirasystems.webulizor.annotations.Route;
+import net.jirasystems.webulizor.annotations.Singleton;
+import net.jirasystems.webulizor.base.StatelessAction;
+import net.jirasystems.webulizor.helpers.Path;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.interfaces.ExceptionAware;
+import net.jirasystems.webulizor.interfaces.NotFoundAware;
+
+/**
+ * Immutable metadata about an {@link Action} class, computed once so that
+ * request processing doesn't need to re-read annotations or look up
+ * constructors.
+ *
+ * @author David Carboni
+ *
+ */
+public final class ActionDescriptor {
+
+	private static final ConcurrentMap<Class<? extends Action>, ActionDescriptor> descriptors = new ConcurrentHashMap<Class<? extends Action>, ActionDescriptor>();
+
+	private final Class<? extends Action> actionClass;
+	private final String path;
+	private final boolean connectionRequired;
+	private final boolean transaction;
+	private final boolean notFoundAware;
+	private final boolean exceptionAware;
+	private final boolean singleton;
+	private final ActionFactory factory;
+
+	private ActionDescriptor(Class<? extends Action> actionClass) {
+		this.actionClass = actionClass;
+
+		// Path, if the class is routable:
+		if (actionClass.getAnnotation(Route.class) != null
+				|| actionClass.getAnnotation(HomeAction.class) != null) {
+			path = Path.getPath(actionClass);
+		} else {
+			path = null;
+		}
+
+		// Default to provide a connection, with a transaction:
+		DatabaseConnection databaseConnection = actionClass
+				.getAnnotation(DatabaseConnection.class);
+		connectionRequired = databaseConnection == null
+				|| databaseConnection.required();
+		transaction = databaseConnection == null
+				|| databaseConnection.transaction();
+
+		// Interfaces:
+		notFoundAware = NotFoundAware.class.isAssignableFrom(actionClass);
+		exceptionAware = ExceptionAware.class.isAssignableFrom(actionClass);
+
+		// Instantiation:
+		singleton = actionClass.getAnnotation(Singleton.class) != null;
+		if (singleton) {
+			checkSingleton(actionClass);
+		}
+		factory = newFactory(actionClass, singleton);
+	}
+
+	/**
+	 * A singleton is shared between request threads, so it must keep request
+	 * state per-thread, as {@link StatelessAction} does. The framework sets
+	 * fields of its own on {@link NotFoundAware} and {@link ExceptionAware}
+	 * actions, so those can't be singletons.
+	 *
+	 * @throws AppException
+	 *             If the class can't safely be a singleton.
+	 */
+	private void checkSingleton(Class<? extends Action> actionClass) {
+		if (!StatelessAction.class.isAssignableFrom(actionClass)) {
+			throw new AppException("Unable to use " + actionClass.getName()
+					+ " as a @" + Singleton.class.getSimpleName()
+					+ " because it doesn't extend "
+					+ StatelessAction.class.getSimpleName());
+		}
+		if (notFoundAware || exceptionAware) {
+			throw new AppException("Unable to use " + actionClass.getName()
+					+ " as a @" + Singleton.class.getSimpleName()
+					+ " because it implements "
+					+ (notFoundAware ? NotFoundAware.class : ExceptionAware.class)
+							.getSimpleName());
+		}
+	}
+
+	/**
+	 * Builds a factory for the given class. Not all actions have a default
+	 * constructor (e.g. RedirectAction), but only those that are instantiated
+	 * by the framework need one, so a missing constructor is only reported
+	 * when an instance is requested.
+	 */
+	private static ActionFactory newFactory(
+			final Class<? extends Action> actionClass, boolean singleton) {
+
+		// Look up the constructor once:
+		Constructor<? extends Action> defaultConstructor;
+		try {
+			defaultConstructor = actionClass.getDeclaredConstructor();
+			defaultConstructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			defaultConstructor = null;
+		} catch (SecurityException e) {
+			defaultConstructor = null;
+		}
+
+		if (defaultConstructor == null) {
+			return new ActionFactory() {
+				@Override
+				public Action newInstance() {
+					throw new AppException("Unable to instantiate "
+							+ actionClass.getSimpleName()
+							+ ": no default constructor.");
+				}
+			};
+		}
+
+		final ConstructorFactory constructorFactory = new ConstructorFactory(
+				defaultConstructor);
+		if (!singleton) {
+			return constructorFactory;
+		}
+
+		// Create the shared instance now, so any problem shows up early:
+		final Action instance = constructorFactory.newInstance();
+		return new ActionFactory() {
+			@Override
+			public Action newInstance() {
+				return instance;
+			}
+		};
+	}
+
+	/**
+	 * Gets the descriptor for the given class, computing it if necessary.
+	 * {@link App} describes the classes it finds at startup, so this
+	 * normally only computes descriptors for unannotated actions returned
+	 * part-way through a request.
+	 *
+	 * @param actionClass
+	 *            The {@link Action} class.
+	 * @return The {@link ActionDescriptor} for the class.
+	 * @throws AppException
+	 *             If the class is a {@link Singleton} that can't safely be
+	 *             shared between requests.
+	 */
+	public static ActionDescriptor forClass(Class<? extends Action> actionClass) {
+		ActionDescriptor result = descriptors.get(actionClass);
+		if (result == null) {
+			// In a race, only the first descriptor (and so the first
+			// singleton instance) is used:
+			result = new ActionDescriptor(actionClass);
+			ActionDescriptor existing = descriptors.putIfAbsent(actionClass,
+					result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Provides an instance of the {@link Action} class. This is a new instance
+	 * unless the class is annotated with {@link Singleton}.
+	 *
+	 * @return An {@link Action} instance.
+	 * @throws AppException
+	 *             If the class cannot be instantiated.
+	 */
+	public Action newInstance() {
+		return factory.newInstance();
+	}
+
+	/**
+	 * @return the actionClass
+	 */
+	public Class<? extends Action> getActionClass() {
+		return actionClass;
+	}
+
+	/**
+	 * @return The path to the action, or null if the class has neither a
+	 *         {@link Route} nor a {@link HomeAction} annotation.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return Whether the action requires a database connection.
+	 * @see DatabaseConnection#required()
+	 */
+	public boolean isConnectionRequired() {
+		return connectionRequired;
+	}
+
+	/**
+	 * @return Whether the action requires a transaction.
+	 * @see DatabaseConnection#transaction()
+	 */
+	public boolean isTransaction() {
+		return transaction;
+	}
+
+	/**
+	 * @return Whether the action implements {@link NotFoundAware}.
+	 */
+	public boolean isNotFoundAware() {
+		return notFoundAware;
+	}
+
+	/**
+	 * @return Whether the action implements {@link ExceptionAware}.
+	 */
+	public boolean isExceptionAware() {
+		return exceptionAware;
+	}
+
+	/**
+	 * @return Whether the action is annotated with {@link Singleton}.
+	 */
+	public boolean isSingleton() {
+		return singleton;
+	}
+
+	/**
+	 * Instantiates using a constructor which has been made accessible up
+	 * front, so there is no access check per instance.
+	 */
+	private static class ConstructorFactory implements ActionFactory {
+
+		private final Constructor<? extends Action> constructor;
+
+		ConstructorFactory(Constructor<? extends Action> constructor) {
+			this.constructor = constructor;
+		}
+
+		@Override
+		public Action newInstance() {
+			try {
+				return constructor.newInstance();
+			} catch (InstantiationException e) {
+				throw new AppException("Unable to instantiate "
+						+ constructor.getDeclaringClass().getSimpleName(), e);
+			} catch (IllegalAccessException e) {
+				throw new AppException("Unable to instantiate "
+						+ constructor.getDeclaringClass().getSimpleName(), e);
+			} catch (InvocationTargetException e) {
+				throw new AppException("Unable to instantiate "
+						+ constructor.getDeclaringClass().getSimpleName(),
+						e.getCause());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package net.jirasystems.webulizor.framework;
+
+import net.jirasystems.webulizor.interfaces.Action;
+
+/**
+ * Provides {@link Action} instances for request processing. Factories are
+ * created once per class, when the class is first described, so that
+ * providing an instance involves no reflective lookups.
+ * 
+ * @author David Carboni
+ * 
+ */
+public interface ActionFactory {
+
+	/**
+	 * @return An {@link Action} instance to process a request.
+	 * @throws AppException
+	 *             If an instance cannot be provided.
+	 */
+	Action newInstance();
+}
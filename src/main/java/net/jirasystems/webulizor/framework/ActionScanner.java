@@ -0,0 +1,380 @@
+package net.jirasystems.webulizor.framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.ServletContext;
+
+import net.jirasystems.resourceutil.ResourceUtil;
+import net.jirasystems.webulizor.interfaces.Action;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.reflections.Reflections;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans <code>WEB-INF/classes</code> and the jars in <code>WEB-INF/lib</code>
+ * that have no {@link RouteIndex} for {@link Action} classes.
+ * <p>
+ * Scanning can be limited to named packages and jars, set by the
+ * <code>scanPackages</code> and <code>scanJars</code> init-params or, failing
+ * that, in {@value #PROPERTIES}. Both are comma-separated. Jar names can
+ * include <code>*</code> wildcards, e.g. <code>myapp-*.jar</code>.
+ * <p>
+ * The result is cached in the container's temporary directory, keyed on a
+ * checksum of the jars and classes scanned, so an unchanged application
+ * doesn't need to be scanned again on restart.
+ *
+ * @author David Carboni
+ *
+ */
+class ActionScanner {
+
+	static final Logger log = LoggerFactory.getLogger(ActionScanner.class);
+
+	/** Optional scanning configuration on the classpath. */
+	static final String PROPERTIES = "/webulizor.properties";
+
+	/** The name of the cache file in the container's temporary directory. */
+	static final String CACHE = "webulizor-actions.cache";
+
+	/** Webulizor's own actions and base classes are always scanned. */
+	private static final String WEBULIZOR_PACKAGE = "net.jirasystems.webulizor";
+
+	private final ServletContext servletContext;
+	private final String[] packages;
+	private final String[] jars;
+	private final RouteIndex index;
+
+	/**
+	 * @param servletContext
+	 *            The {@link ServletContext}.
+	 * @param packages
+	 *            Comma-separated package names to scan. If blank,
+	 *            {@value #PROPERTIES} is checked, otherwise all packages are
+	 *            scanned.
+	 * @param jars
+	 *            Comma-separated jar names to scan. If blank,
+	 *            {@value #PROPERTIES} is checked, otherwise all jars are
+	 *            scanned.
+	 * @param index
+	 *            Locations with an index are not scanned. Can be null.
+	 */
+	ActionScanner(ServletContext servletContext, String packages,
+			String jars, RouteIndex index) {
+		this.servletContext = servletContext;
+		this.index = index;
+		if (StringUtils.isBlank(packages) || StringUtils.isBlank(jars)) {
+			Properties properties = null;
+			try {
+				properties = ResourceUtil.getProperties(PROPERTIES);
+			} catch (IOException e) {
+				// No configuration.
+			}
+			if (properties != null) {
+				packages = StringUtils.isNotBlank(packages) ? packages
+						: properties.getProperty("scanPackages");
+				jars = StringUtils.isNotBlank(jars) ? jars : properties
+						.getProperty("scanJars");
+			}
+		}
+		this.packages = split(packages);
+		this.jars = split(jars);
+	}
+
+	/**
+	 * @return The {@link Action} classes, from the cache if nothing has
+	 *         changed, otherwise by scanning.
+	 */
+	Set<Class<? extends Action>> scan() {
+
+		Set<URL> urls = urls();
+		if (urls.isEmpty()) {
+			return new HashSet<Class<? extends Action>>();
+		}
+		String key = key(urls);
+		File cache = cacheFile();
+
+		Set<Class<? extends Action>> result = readCache(cache, key);
+		if (result != null) {
+			log.info("Loaded " + result.size() + " actions from " + cache);
+			return result;
+		}
+
+		// Scan the jars in parallel, using our own threads so that they can
+		// be shut down:
+		int threads = Math.max(1, Math.min(urls.size(), Runtime.getRuntime()
+				.availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ConfigurationBuilder configuration = new ConfigurationBuilder()
+					.setUrls(urls).setExecutorService(executor);
+			if (packages.length > 0) {
+				FilterBuilder filter = new FilterBuilder();
+				filter.include(FilterBuilder.prefix(WEBULIZOR_PACKAGE));
+				for (String name : packages) {
+					filter.include(FilterBuilder.prefix(name));
+				}
+				configuration.filterInputsBy(filter);
+			}
+			result = new Reflections(configuration).getSubTypesOf(Action.class);
+		} finally {
+			executor.shutdown();
+		}
+
+		writeCache(cache, key, result);
+		return result;
+	}
+
+	/**
+	 * @return <code>WEB-INF/classes</code>, the Webulizor jar and the jars
+	 *         in <code>WEB-INF/lib</code> that match the configured names,
+	 *         excluding any that have an index.
+	 */
+	private Set<URL> urls() {
+		Set<URL> result = new HashSet<URL>();
+		for (URL url : ClasspathHelper.forWebInfLib(servletContext)) {
+			if (url != null && (jars.length == 0 || matches(url))) {
+				result.add(url);
+			}
+		}
+		URL classes = ClasspathHelper.forWebInfClasses(servletContext);
+		if (classes != null) {
+			result.add(classes);
+		}
+		if (jars.length > 0) {
+			URL webulizor = ClasspathHelper.forClass(Action.class);
+			if (webulizor != null) {
+				result.add(webulizor);
+			}
+		}
+		if (index != null) {
+			for (Iterator<URL> iterator = result.iterator(); iterator
+					.hasNext();) {
+				if (index.isIndexed(iterator.next())) {
+					iterator.remove();
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean matches(URL url) {
+		String name = FilenameUtils.getName(url.getPath());
+		for (String jar : jars) {
+			if (FilenameUtils.wildcardMatch(name, jar)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes a checksum of the configuration and the content of each jar.
+	 * For directories, file names, sizes and modification times are used.
+	 *
+	 * @return A hex SHA-1 digest.
+	 */
+	private String key(Set<URL> urls) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+		digest.update(Arrays.toString(packages).getBytes());
+		digest.update(Arrays.toString(jars).getBytes());
+
+		List<String> sorted = new ArrayList<String>();
+		for (URL url : urls) {
+			sorted.add(url.toString());
+		}
+		Collections.sort(sorted);
+		byte[] buffer = new byte[8192];
+		for (String url : sorted) {
+			digest.update(url.getBytes());
+			File file = toFile(url);
+			if (file == null) {
+				// Can't checksum this, so don't cache:
+				return null;
+			}
+			try {
+				update(digest, file, buffer);
+			} catch (IOException e) {
+				log.warn("Unable to checksum " + file + ": " + e);
+				return null;
+			}
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	private static void update(MessageDigest digest, File file, byte[] buffer)
+			throws IOException {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children) {
+					digest.update(child.getName().getBytes());
+					update(digest, child, buffer);
+				}
+			}
+		} else if (file.isFile()) {
+			if (file.getName().endsWith(".jar")) {
+				InputStream input = new FileInputStream(file);
+				try {
+					int read;
+					while ((read = input.read(buffer)) != -1) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					IOUtils.closeQuietly(input);
+				}
+			} else {
+				digest.update(String.valueOf(file.length()).getBytes());
+				digest.update(String.valueOf(file.lastModified()).getBytes());
+			}
+		}
+	}
+
+	private static File toFile(String url) {
+		try {
+			URL parsed = new URL(url);
+			if ("file".equals(parsed.getProtocol())) {
+				return new File(parsed.toURI());
+			}
+		} catch (IOException e) {
+			// Not a file.
+		} catch (URISyntaxException e) {
+			// Not a file.
+		} catch (IllegalArgumentException e) {
+			// Not a file.
+		}
+		return null;
+	}
+
+	private File cacheFile() {
+		Object tempDir = servletContext
+				.getAttribute("javax.servlet.context.tempdir");
+		if (tempDir instanceof File) {
+			return new File((File) tempDir, CACHE);
+		}
+		return null;
+	}
+
+	/**
+	 * @return The cached classes, or null if the cache is missing, out of date
+	 *         or lists a class that can't be loaded.
+	 */
+	private Set<Class<? extends Action>> readCache(File cache, String key) {
+		if (cache == null || key == null || !cache.isFile()) {
+			return null;
+		}
+		ClassLoader classLoader = Thread.currentThread()
+				.getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = ActionScanner.class.getClassLoader();
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(cache), "UTF-8"));
+			try {
+				if (!key.equals(reader.readLine())) {
+					return null;
+				}
+				Set<Class<? extends Action>> result = new HashSet<Class<? extends Action>>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.length() > 0) {
+						result.add(Class.forName(line, false, classLoader)
+								.asSubclass(Action.class));
+					}
+				}
+				return result;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read " + cache + ": " + e);
+		} catch (ClassNotFoundException e) {
+			log.info("Rescanning: " + e.getMessage() + " not found");
+		} catch (ClassCastException e) {
+			log.info("Rescanning: " + e.getMessage());
+		}
+		return null;
+	}
+
+	private static void writeCache(File cache, String key,
+			Set<Class<? extends Action>> actions) {
+		if (cache == null || key == null) {
+			return;
+		}
+		Set<String> names = new TreeSet<String>();
+		for (Class<? extends Action> action : actions) {
+			names.add(action.getName());
+		}
+		File temp = new File(cache.getParentFile(), cache.getName() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temp),
+					"UTF-8");
+			try {
+				writer.write(key);
+				writer.write('\n');
+				for (String name : names) {
+					writer.write(name);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			if (!cache.delete() && cache.exists() || !temp.renameTo(cache)) {
+				log.warn("Unable to update " + cache);
+				temp.delete();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to write " + cache + ": " + e);
+			temp.delete();
+		}
+	}
+
+	private static String[] split(String value) {
+		if (StringUtils.isBlank(value)) {
+			return new String[0];
+		}
+		return StringUtils.stripAll(StringUtils.split(value, ','));
+	}
+}
@@ -1,13 +1,14 @@
 package net.jirasystems.webulizor.framework;
 
 import java.io.IOException;
-import java.net.URL;
+import java.lang.reflect.Modifier;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.servlet.ServletContext;
@@ -16,28 +17,29 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import net.jirasystems.webulizor.annotations.DatabaseConnection;
 import net.jirasystems.webulizor.annotations.ExceptionAction;
 import net.jirasystems.webulizor.annotations.HomeAction;
 import net.jirasystems.webulizor.annotations.NotFoundAction;
 import net.jirasystems.webulizor.annotations.Route;
+import net.jirasystems.webulizor.base.RedirectAction;
+import net.jirasystems.webulizor.base.ViewAction;
+import net.jirasystems.webulizor.helpers.ConnectionPool;
 import net.jirasystems.webulizor.helpers.Database;
 import net.jirasystems.webulizor.helpers.ForwardedRequest;
-import net.jirasystems.webulizor.helpers.Path;
+import net.jirasystems.webulizor.helpers.LazyConnection;
 import net.jirasystems.webulizor.helpers.Velocity;
 import net.jirasystems.webulizor.interfaces.Action;
 import net.jirasystems.webulizor.interfaces.ExceptionAware;
 import net.jirasystems.webulizor.interfaces.Get;
 import net.jirasystems.webulizor.interfaces.NotFoundAware;
 import net.jirasystems.webulizor.interfaces.Post;
+import net.jirasystems.webulizor.metrics.MetricsAction;
+import net.jirasystems.webulizor.metrics.RouteMetrics;
 import net.jirasystems.webulizor.metrics.UserJourney;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.http.HttpStatus;
-import org.reflections.Reflections;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
 
 /**
  * This is the framework controller.
@@ -52,66 +54,299 @@ public class App extends HttpServlet {
 	 */
 	private static final long serialVersionUID = -8124528033609567276L;
 
-	private Map<String, Class<? extends Action>> get = new HashMap<String, Class<? extends Action>>();
-	private Map<String, Class<? extends Action>> post = new HashMap<String, Class<? extends Action>>();
+	/**
+	 * The {@link ServletContext} attribute under which the initialised
+	 * instance is registered, so that {@link Filter} can call
+	 * {@link #dispatch(HttpServletRequest, HttpServletResponse, String)}.
+	 */
+	public static final String ATTRIBUTE = App.class.getName();
+
+	/**
+	 * The {@link ServletContext} attribute set to {@link Boolean#TRUE} once
+	 * {@link #init()} has completed. See
+	 * {@link #isReady(ServletContext)}.
+	 */
+	public static final String READY = App.class.getName() + ".ready";
+
+	private Map<String, ActionDescriptor> get = new HashMap<String, ActionDescriptor>();
+	private Map<String, ActionDescriptor> post = new HashMap<String, ActionDescriptor>();
 
-	private Class<? extends Action> homeAction;
-	private Class<? extends Action> exceptionAction;
-	private Class<? extends Action> notFoundAction;
+	// Compiled from the maps above once all routes are known:
+	private RouteTable<ActionDescriptor> getRoutes;
+	private RouteTable<ActionDescriptor> postRoutes;
+
+	private ActionDescriptor homeAction;
+	private ActionDescriptor exceptionAction;
+	private ActionDescriptor notFoundAction;
 
 	@Override
 	public void init() throws ServletException {
 
-		// Set up reflections:
+		// Get action classes from the build-time indexes, and by scanning
+		// anything not indexed:
 		ServletContext servletContext = getServletContext();
-		Set<URL> urls = new HashSet<URL>(
-				ClasspathHelper.forWebInfLib(servletContext));
-		urls.add(ClasspathHelper.forWebInfClasses(servletContext));
-		Reflections reflections = new Reflections(
-				new ConfigurationBuilder().setUrls(urls));
-
-		// Get annotated classes:
-		Set<Class<? extends Action>> actionClasses = reflections
-				.getSubTypesOf(Action.class);
+		Set<Class<? extends Action>> actionClasses = findActionClasses(servletContext);
 
 		// Configure the classes:
 		for (Class<? extends Action> actionClass : actionClasses) {
 
+			// Precompute metadata for request processing, which also checks
+			// and creates singletons, including any reached mid-chain:
+			ActionDescriptor descriptor = ActionDescriptor
+					.forClass(actionClass);
+
 			// Check the action for its possible uses.
 			// NB error and not found actions need
 			// not necessarily be routable:
-			setRoute(actionClass);
-			setHomeAction(actionClass);
-			setErrorAction(actionClass);
-			setNotFoundAction(actionClass);
+			setRoute(descriptor);
+			setHomeAction(descriptor);
+			setErrorAction(descriptor);
+			setNotFoundAction(descriptor);
 		}
-		log("Found " + get.size() + " GET actions.");
-		log("Found " + post.size() + " POST actions.");
+
+		// Latency by route, optionally published at a path of our choosing:
+		configureRouteMetrics(servletContext);
+
+		getRoutes = RouteTable.compile(get);
+		postRoutes = RouteTable.compile(post);
+		log("Found " + getRoutes.size() + " GET actions.");
+		log("Found " + postRoutes.size() + " POST actions.");
 
 		// Attempt to use WEB-INF as a log location.
 		// If we're running from a WAR this will be null and no Velocity log
 		// will be generated. TODO: Allow a log path to be set from .properties
 		String webInfPath = servletContext.getRealPath("WEB-INF");
+		Velocity.DEVELOPMENT = StringUtils.equalsIgnoreCase("development",
+				getInitParameter("templateMode"));
+		String templateCacheSize = getInitParameter("templateCacheSize");
+		if (StringUtils.isNotBlank(templateCacheSize)) {
+			Velocity.CACHE_SIZE = Integer.parseInt(templateCacheSize.trim());
+		}
 		Velocity.initialise(webInfPath);
+
+		// Bound the recording of user journeys:
+		configureUserJourney();
+
+		// Status code for redirects, e.g. 303 for POST-redirect-GET:
+		String redirectStatus = getInitParameter("redirectStatus");
+		if (StringUtils.isNotBlank(redirectStatus)) {
+			servletContext.setAttribute(RedirectAction.STATUS_CODE_ATTRIBUTE,
+					Integer.valueOf(RedirectAction.checkStatusCode(Integer
+							.parseInt(redirectStatus.trim()))));
+		}
+
+		// Optionally parse view templates now, rather than on first use:
+		if (Boolean.parseBoolean(getInitParameter("warmUpTemplates"))) {
+			warmUpTemplates(actionClasses);
+		}
+
+		// Open database connections now, rather than in the first request:
+		warmUpDatabase();
+
+		// Available for direct dispatch:
+		servletContext.setAttribute(ATTRIBUTE, this);
+		servletContext.setAttribute(READY, Boolean.TRUE);
+	}
+
+	@Override
+	public void destroy() {
+		getServletContext().removeAttribute(READY);
+		getServletContext().removeAttribute(ATTRIBUTE);
+		getServletContext().removeAttribute(
+				RedirectAction.STATUS_CODE_ATTRIBUTE);
+		RouteMetrics.reset();
+		super.destroy();
+	}
+
+	/**
+	 * Determines whether the app can serve requests without delay: routes
+	 * have been registered, the template engine has been initialised and, if
+	 * a database has been initialised, a connection can be opened.
+	 * 
+	 * @param servletContext
+	 *            The {@link ServletContext}.
+	 * @return If the app is ready, true.
+	 */
+	public static boolean isReady(ServletContext servletContext) {
+		if (!Boolean.TRUE.equals(servletContext.getAttribute(READY))) {
+			return false;
+		}
+		ConnectionPool pool = Database.getConnectionPool();
+		return pool == null || pool.getTotal() > 0 || checkConnection(pool);
+	}
+
+	/**
+	 * Borrows and returns a connection so that the pool has at least one open
+	 * connection. This is done at init so that the first request doesn't
+	 * wait for the database.
+	 */
+	private void warmUpDatabase() {
+		ConnectionPool pool = Database.getConnectionPool();
+		if (pool != null && !checkConnection(pool)) {
+			log("Unable to open a database connection. "
+					+ "The app will not report as ready until it can.");
+		}
+	}
+
+	private static boolean checkConnection(ConnectionPool pool) {
+		try {
+			pool.getConnection().close();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Processes a request without going through a
+	 * {@link javax.servlet.RequestDispatcher}. The request is handled as
+	 * though it had been forwarded to <code>/app</code> + path, so the
+	 * request URI, e.g. as given to
+	 * {@link NotFoundAware#setRequestUri(String)}, is the same either way.
+	 * <p>
+	 * NB filters mapped to the FORWARD dispatcher are not applied, and the
+	 * path info is not decoded.
+	 * 
+	 * @param request
+	 *            {@link HttpServletRequest}
+	 * @param response
+	 *            {@link HttpServletResponse}
+	 * @param path
+	 *            The request path within the app, e.g. <code>/page</code>.
+	 * @throws ServletException
+	 *             If an error occurs.
+	 * @throws IOException
+	 *             If an error occurs.
+	 */
+	public void dispatch(HttpServletRequest request,
+			HttpServletResponse response, String path)
+			throws ServletException, IOException {
+		String pathInfo = StringUtils.isEmpty(path) ? null : path;
+		service(new ForwardedRequest(request, "/app", pathInfo), response);
+	}
+
+	/**
+	 * Finds {@link Action} classes. If the application was compiled with
+	 * {@link net.jirasystems.webulizor.processor.RouteIndexProcessor} on the
+	 * classpath, the generated indexes are used. <code>WEB-INF/classes</code>
+	 * and any jars in <code>WEB-INF/lib</code> without an index are scanned by
+	 * {@link ActionScanner}, so a library that ships an index doesn't hide
+	 * unindexed actions.
+	 * 
+	 * @param servletContext
+	 *            The {@link ServletContext}.
+	 * @return The {@link Action} classes.
+	 */
+	private Set<Class<? extends Action>> findActionClasses(
+			ServletContext servletContext) {
+
+		ClassLoader classLoader = Thread.currentThread()
+				.getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = App.class.getClassLoader();
+		}
+		RouteIndex index = RouteIndex.load(classLoader);
+		Set<Class<? extends Action>> result = new HashSet<Class<? extends Action>>(
+				index.getActions());
+		if (!index.isEmpty()) {
+			log("Loaded " + result.size() + " actions from the route index.");
+		}
+
+		// Scan anything not indexed, limited to the configured packages and
+		// jars, if any:
+		ActionScanner scanner = new ActionScanner(servletContext,
+				getInitParameter("scanPackages"),
+				getInitParameter("scanJars"), index);
+		result.addAll(scanner.scan());
+		return result;
+	}
+
+	/**
+	 * Configures {@link UserJourney} from the <code>journeySampleEvery</code>,
+	 * <code>journeySessionLimit</code>, <code>journeyHeaders</code> (comma
+	 * separated) and <code>journeyCapacity</code> init-params, if present.
+	 */
+	private void configureUserJourney() {
+		String sampleEvery = getInitParameter("journeySampleEvery");
+		if (StringUtils.isNotBlank(sampleEvery)) {
+			UserJourney.SAMPLE_EVERY = Integer.parseInt(sampleEvery.trim());
+		}
+		String sessionLimit = getInitParameter("journeySessionLimit");
+		if (StringUtils.isNotBlank(sessionLimit)) {
+			UserJourney.SESSION_LIMIT = Integer.parseInt(sessionLimit.trim());
+		}
+		String headers = getInitParameter("journeyHeaders");
+		if (headers != null) {
+			UserJourney.HEADERS = StringUtils.stripAll(StringUtils.split(
+					headers, ','));
+		}
+		String capacity = getInitParameter("journeyCapacity");
+		if (StringUtils.isNotBlank(capacity)) {
+			UserJourney.initialise(Integer.parseInt(capacity.trim()));
+		}
+	}
+
+	/**
+	 * Configures {@link RouteMetrics} from the <code>routeMetrics</code>
+	 * (true or false) init-param and, if the <code>metricsPath</code>
+	 * init-param is set, routes GET requests for that path to
+	 * {@link MetricsAction}.
+	 * 
+	 * @param servletContext
+	 *            The {@link ServletContext}.
+	 */
+	private void configureRouteMetrics(ServletContext servletContext) {
+		String enabled = getInitParameter("routeMetrics");
+		if (StringUtils.isNotBlank(enabled)) {
+			RouteMetrics.ENABLED = Boolean.parseBoolean(enabled.trim());
+		}
+		RouteMetrics.initialise(servletContext.getContextPath());
+		String metricsPath = getInitParameter("metricsPath");
+		if (StringUtils.isNotBlank(metricsPath)) {
+			get.put(metricsPath.trim(),
+					ActionDescriptor.forClass(MetricsAction.class));
+		}
+	}
+
+	/**
+	 * Parses the default template (see
+	 * {@link ViewAction#getDefaultTemplatePath(Class)}) of each concrete
+	 * {@link ViewAction}, if it exists.
+	 * 
+	 * @param actionClasses
+	 *            The {@link Action} classes found on the classpath.
+	 */
+	private void warmUpTemplates(Set<Class<? extends Action>> actionClasses) {
+		List<String> templatePaths = new ArrayList<String>();
+		for (Class<? extends Action> actionClass : actionClasses) {
+			if (ViewAction.class.isAssignableFrom(actionClass)
+					&& !Modifier.isAbstract(actionClass.getModifiers())) {
+				templatePaths.add(ViewAction
+						.getDefaultTemplatePath(actionClass));
+			}
+		}
+		int count = Velocity.warmUp(templatePaths);
+		log("Parsed " + count + " view templates.");
 	}
 
 	/**
 	 * Determines if the given class is routable via one of the supported HTTP
 	 * methods.
 	 * 
-	 * @param actionClass
+	 * @param descriptor
 	 *            The class to inspect.
 	 */
-	private void setRoute(Class<? extends Action> actionClass) {
+	private void setRoute(ActionDescriptor descriptor) {
+		Class<? extends Action> actionClass = descriptor.getActionClass();
 
 		if (actionClass.getAnnotation(Route.class) != null) {
 
 			if (Get.class.isAssignableFrom(actionClass)) {
-				get.put(Path.getPath(actionClass), actionClass);
+				get.put(descriptor.getPath(), descriptor);
 			}
 
 			if (Post.class.isAssignableFrom(actionClass)) {
-				post.put(Path.getPath(actionClass), actionClass);
+				post.put(descriptor.getPath(), descriptor);
 			}
 		}
 	}
@@ -120,23 +355,24 @@ public class App extends HttpServlet {
 	 * Determines if the given {@link Action} class is the {@link HomeAction}
 	 * action.
 	 * 
-	 * @param actionClass
+	 * @param descriptor
 	 *            The class to inspect.
 	 * @return If the given class was set as the {@link HomeAction}, true.
 	 * @throws ServletException
 	 *             If a {@link HomeAction} {@link Action} is already defined.
 	 */
-	private boolean setHomeAction(Class<? extends Action> actionClass)
+	private boolean setHomeAction(ActionDescriptor descriptor)
 			throws ServletException {
+		Class<? extends Action> actionClass = descriptor.getActionClass();
 		if (actionClass.getAnnotation(HomeAction.class) != null) {
 			if (homeAction != null) {
 				// Only one home action can be supported:
 				throw new ServletException("Could not configure "
 						+ HomeAction.class + " as " + actionClass.getName()
 						+ " because it is already configured as "
-						+ homeAction.getName());
+						+ homeAction.getActionClass().getName());
 			}
-			homeAction = actionClass;
+			homeAction = descriptor;
 			return true;
 		}
 		return false;
@@ -146,14 +382,15 @@ public class App extends HttpServlet {
 	 * Determines if the given {@link Action} class is the
 	 * {@link ExceptionAction}.
 	 * 
-	 * @param actionClass
+	 * @param descriptor
 	 *            The class to inspect.
 	 * @return If the given class was set as the {@link ExceptionAction}, true.
 	 * @throws ServletException
 	 *             If an {@link ExceptionAction} is already defined.
 	 */
-	private boolean setErrorAction(Class<? extends Action> actionClass)
+	private boolean setErrorAction(ActionDescriptor descriptor)
 			throws ServletException {
+		Class<? extends Action> actionClass = descriptor.getActionClass();
 		if (actionClass.getAnnotation(ExceptionAction.class) != null) {
 			if (exceptionAction != null) {
 				// Only one error action can be supported:
@@ -161,9 +398,9 @@ public class App extends HttpServlet {
 						+ ExceptionAction.class + " as "
 						+ actionClass.getName()
 						+ " because it is already configured as "
-						+ exceptionAction.getName());
+						+ exceptionAction.getActionClass().getName());
 			}
-			exceptionAction = actionClass;
+			exceptionAction = descriptor;
 			return true;
 		}
 		return false;
@@ -173,23 +410,24 @@ public class App extends HttpServlet {
 	 * Determines if the given {@link Action} class is the
 	 * {@link NotFoundAction}.
 	 * 
-	 * @param actionClass
+	 * @param descriptor
 	 *            The class to inspect.
 	 * @return If the given class was set as the {@link NotFoundAction}, true.
 	 * @throws ServletException
 	 *             If an {@link NotFoundAction} is already defined.
 	 */
-	private boolean setNotFoundAction(Class<? extends Action> actionClass)
+	private boolean setNotFoundAction(ActionDescriptor descriptor)
 			throws ServletException {
+		Class<? extends Action> actionClass = descriptor.getActionClass();
 		if (actionClass.getAnnotation(NotFoundAction.class) != null) {
 			if (notFoundAction != null) {
 				// Only one error action can be supported:
 				throw new ServletException("Could not configure "
 						+ NotFoundAction.class + " as " + actionClass.getName()
 						+ " because it is already configured as "
-						+ notFoundAction.getName());
+						+ notFoundAction.getActionClass().getName());
 			}
-			notFoundAction = actionClass;
+			notFoundAction = descriptor;
 			return true;
 		}
 		return false;
@@ -199,7 +437,8 @@ public class App extends HttpServlet {
 	protected void doGet(HttpServletRequest request,
 			HttpServletResponse response) throws ServletException {
 		try {
-			doMethod(this.get, ForwardedRequest.newInstance(request), response);
+			doMethod("GET", this.getRoutes,
+					ForwardedRequest.newInstance(request), response);
 		} catch (Throwable t) {
 			doError(request, response, t);
 		}
@@ -209,7 +448,8 @@ public class App extends HttpServlet {
 	protected void doPost(HttpServletRequest request,
 			HttpServletResponse response) throws ServletException {
 		try {
-			doMethod(this.post, ForwardedRequest.newInstance(request), response);
+			doMethod("POST", this.postRoutes,
+					ForwardedRequest.newInstance(request), response);
 		} catch (Throwable t) {
 			doError(request, response, t);
 		}
@@ -234,7 +474,7 @@ public class App extends HttpServlet {
 
 			// Set up the error action:
 			Action errorAction = instantiate(this.exceptionAction, request);
-			if (ExceptionAware.class.isAssignableFrom(this.exceptionAction)) {
+			if (this.exceptionAction.isExceptionAware()) {
 				((ExceptionAware) errorAction).setException(t);
 			}
 
@@ -242,9 +482,10 @@ public class App extends HttpServlet {
 			Connection connection = null;
 			try {
 				connection = setupConnection(request.getRequestURI(),
-						errorAction, null);
-				Map<String, Object> context = new HashMap<String, Object>();
-				setup(errorAction, request, response, connection, context);
+						this.exceptionAction, null);
+				Map<String, Object> context = new RequestContext();
+				setup(errorAction, this.exceptionAction, request, response,
+						connection, context);
 				errorAction.perform();
 				commitConnection(connection);
 			} catch (Exception e) {
@@ -264,10 +505,13 @@ public class App extends HttpServlet {
 	}
 
 	/**
-	 * Follows a path of Actions.
+	 * Follows a path of Actions, recording the time taken in
+	 * {@link RouteMetrics}.
 	 * 
+	 * @param method
+	 *            The HTTP method, for {@link RouteMetrics}.
 	 * @param actions
-	 *            The map of actions to match to the reqest path.
+	 *            The route table of actions to match to the reqest path.
 	 * @param request
 	 *            {@link HttpServletRequest}
 	 * @param response
@@ -277,7 +521,7 @@ public class App extends HttpServlet {
 	 * @throws IOException
 	 *             If an error occurs in one of the Actions.
 	 */
-	private void doMethod(Map<String, Class<? extends Action>> actions,
+	private void doMethod(String method, RouteTable<ActionDescriptor> actions,
 			HttpServletRequest request, HttpServletResponse response)
 			throws Throwable {
 
@@ -285,73 +529,110 @@ public class App extends HttpServlet {
 		UserJourney.addRequest(request);
 
 		// Variables for this request path:
-		Map<String, Object> context = new HashMap<String, Object>();
+		Map<String, Object> context = new RequestContext();
 		Connection connection = null;
 
 		// Map the request path to an action:
-		Action action = mapRequestPath(actions, request);
+		long start = System.nanoTime();
+		ActionDescriptor route = mapRequestPath(actions, request);
+		long time = System.nanoTime();
+		Action action = instantiate(route, request);
+		RouteMetrics metrics = RouteMetrics.forRoute(method, routeName(route));
+		if (metrics != null) {
+			metrics.getLookup().record(time - start);
+			RouteMetrics.setCurrent(metrics);
+		}
 
 		// Follow the [path of] Actions:
+		ActionDescriptor descriptor = route;
 		try {
 			while (action != null) {
-				connection = setupConnection(request.getRequestURI(), action,
-						connection);
-				setup(action, request, response, connection, context);
-				action = action.perform();
+				connection = setupConnection(request.getRequestURI(),
+						descriptor, connection);
+				setup(action, descriptor, request, response, connection,
+						context);
+				time = System.nanoTime();
+				Action next = action.perform();
+				if (metrics != null) {
+					metrics.recordPerform(action.getClass(), System.nanoTime()
+							- time);
+				}
+				action = next;
+				if (action != null) {
+					descriptor = ActionDescriptor.forClass(action.getClass());
+				}
 			}
+			time = System.nanoTime();
 			commitConnection(connection);
+			if (metrics != null && connection != null) {
+				metrics.getCommit().record(System.nanoTime() - time);
+			}
 		} catch (Throwable t) {
+			time = System.nanoTime();
 			rollbackConnection(connection);
+			if (metrics != null && connection != null) {
+				metrics.getRollback().record(System.nanoTime() - time);
+			}
 			throw t;
 		} finally {
 			closeConnection(connection);
+			if (metrics != null) {
+				RouteMetrics.setCurrent(null);
+				metrics.getTotal().record(System.nanoTime() - start);
+			}
 		}
 	}
 
+	/**
+	 * @param descriptor
+	 *            The route matched for a request.
+	 * @return The route, or the class name if the action isn't routed, e.g.
+	 *         a {@link NotFoundAction}, so that metrics aren't recorded for
+	 *         every distinct path requested.
+	 */
+	private static String routeName(ActionDescriptor descriptor) {
+		String path = descriptor.getPath();
+		return path != null ? path : descriptor.getActionClass().getName();
+	}
+
 	/**
 	 * Sets up a database connection if the given {@link Action} requires one
 	 * (but does not set it in the action - that is done by
-	 * {@link #setup(Action, HttpServletRequest, HttpServletResponse, Connection, Map)}
+	 * {@link #setup(Action, ActionDescriptor, HttpServletRequest,
+	 * HttpServletResponse, Connection, Map)}
 	 * ). This enables the same {@link Connection} to be shared by all actions
 	 * in a path if/when any of the actions requires one, and that a transaction
 	 * is started only if/when needed.
+	 * <p>
+	 * The connection is a {@link LazyConnection}, so nothing is taken from
+	 * the pool unless an action actually uses it.
 	 * 
-	 * @param action
-	 *            The action to be provided with a database {@link Connection}
-	 *            if it requires one.
+	 * @param descriptor
+	 *            Describes the action to be provided with a database
+	 *            {@link Connection} if it requires one.
 	 * @return The database connection, because the connection passed in may be
 	 *         null if no connection has been started yet.
 	 * @throws SQLException
 	 *             If a database error occurs.
 	 */
-	private Connection setupConnection(String name, Action action,
-			Connection connection) throws SQLException {
+	private Connection setupConnection(String name,
+			ActionDescriptor descriptor, Connection connection)
+			throws SQLException {
 		Connection result = connection;
 
-		if (action != null) {
-			// Does the current action in the path need a database connection?
-			DatabaseConnection databaseConnection = action.getClass()
-					.getAnnotation(DatabaseConnection.class);
-
-			// Default to provide a connection, with a transaction:
-			boolean required = databaseConnection == null
-					|| databaseConnection.required();
-			boolean transaction = databaseConnection == null
-					|| databaseConnection.transaction();
+		// Does the current action in the path need a database connection?
+		if (descriptor.isConnectionRequired()) {
 
-			if (required) {
-
-				// Get a connection if we haven't already:
-				if (result == null) {
-					result = Database.getConnection(name);
-				}
+			// Get a connection if we haven't already:
+			if (result == null) {
+				result = LazyConnection.create(name);
+			}
 
-				// If this action requires a transaction and
-				// no other action in the chain has started one
-				// then start one now:
-				if (transaction && result.getAutoCommit()) {
-					result.setAutoCommit(false);
-				}
+			// If this action requires a transaction and
+			// no other action in the chain has started one
+			// then start one now:
+			if (descriptor.isTransaction() && result.getAutoCommit()) {
+				result.setAutoCommit(false);
 			}
 		}
 
@@ -410,30 +691,25 @@ public class App extends HttpServlet {
 	 * 
 	 * @param action
 	 *            The instance to be set up.
+	 * @param descriptor
+	 *            Describes the action.
 	 * @param request
 	 *            {@link HttpServletRequest}.
 	 * @param response
 	 *            {@link HttpServletResponse}.
 	 */
-	private void setup(Action action, HttpServletRequest request,
-			HttpServletResponse response, Connection connection,
-			Map<String, Object> context) {
-		if (action != null) {
-			action.setRequest(request);
-			action.setResponse(response);
-			action.setServletContext(getServletContext());
-			action.setContext(context);
-
-			// Does this action need a database connection?
-			// Default is to provide a connection:
-			DatabaseConnection databaseConnection = action.getClass()
-					.getAnnotation(DatabaseConnection.class);
-			boolean required = databaseConnection == null
-					|| databaseConnection.required();
-			if (required) {
-				action.setConnection(connection);
-			}
-
+	private void setup(Action action, ActionDescriptor descriptor,
+			HttpServletRequest request, HttpServletResponse response,
+			Connection connection, Map<String, Object> context) {
+		action.setRequest(request);
+		action.setResponse(response);
+		action.setServletContext(getServletContext());
+		action.setContext(context);
+
+		// Does this action need a database connection?
+		// Default is to provide a connection:
+		if (descriptor.isConnectionRequired()) {
+			action.setConnection(connection);
 		}
 	}
 
@@ -441,54 +717,49 @@ public class App extends HttpServlet {
 	 * Locates a {@link Get} or {@link Post} for the request.
 	 * 
 	 * @param actions
-	 *            The map of {@link Get} or {@link Post} actions.
+	 *            The route table of {@link Get} or {@link Post} actions.
 	 * @param request
 	 *            The request.
-	 * @return An {@link Action} for this request, or null if no match is found.
-	 * @throws AppException
-	 *             If an error occurs.
+	 * @return The {@link ActionDescriptor} for this request, falling back to
+	 *         the {@link NotFoundAction} if no match is found, or null if
+	 *         there is none.
 	 */
-	private Action mapRequestPath(Map<String, Class<? extends Action>> actions,
-			HttpServletRequest request) throws AppException {
+	private ActionDescriptor mapRequestPath(
+			RouteTable<ActionDescriptor> actions, HttpServletRequest request) {
 
-		// Find a class:
-		Class<? extends Action> actionClass = null;
-		String actionKey = null;
+		// Find a class, looking for the longest match:
+		ActionDescriptor descriptor;
 		if (StringUtils.equals("/", request.getPathInfo())) {
-			actionClass = homeAction;
+			descriptor = homeAction;
 		} else {
-			for (Entry<String, Class<? extends Action>> action : actions
-					.entrySet()) {
-				if (StringUtils.startsWithIgnoreCase(request.getPathInfo(),
-						action.getKey())) {
-					if (actionClass == null) {
-						actionClass = action.getValue();
-						actionKey = action.getKey();
-					} else {
-						// We're looking for the longest match:
-						if (action.getKey().length() > actionKey.length()) {
-							actionClass = action.getValue();
-							actionKey = action.getKey();
-						}
-					}
-				}
-			}
+			descriptor = actions.lookup(request.getPathInfo());
 		}
 
-		return instantiate(actionClass, request);
+		if (descriptor == null) {
+			// Fall back to notFoundAction:
+			descriptor = notFoundAction;
+		}
+
+		return descriptor;
 	}
 
-	private Action instantiate(Class<? extends Action> actionClass,
+	/**
+	 * Instantiates the given {@link Action}.
+	 * 
+	 * @param descriptor
+	 *            Describes the {@link Action} to instantiate. Can be null.
+	 * @param request
+	 *            The request.
+	 * @return A new {@link Action} instance.
+	 * @throws AppException
+	 *             If no action was matched.
+	 */
+	private Action instantiate(ActionDescriptor descriptor,
 			HttpServletRequest request) {
 
-		Class<? extends Action> clazz = actionClass;
+		ActionDescriptor result = descriptor;
 
-		if (clazz == null) {
-			// Fall back to notFoundAction:
-			clazz = notFoundAction;
-		}
-
-		if (clazz == null) {
+		if (result == null) {
 
 			// Not found and no notFoundAction configured:
 			throw new AppException("Unable to match " + request.getMethod()
@@ -498,25 +769,11 @@ public class App extends HttpServlet {
 		}
 
 		// Instantiate:
-		Action result = null;
-		try {
-			result = clazz.newInstance();
-
-			if (NotFoundAware.class.isAssignableFrom(clazz)) {
-				((NotFoundAware) result).setRequestUri(request.getRequestURI());
-			}
-
-		} catch (InstantiationException e) {
-			throw new AppException("Unable to instantiate "
-					+ clazz.getSimpleName(), e);
-		} catch (IllegalAccessException e) {
-			throw new AppException("Unable to instantiate "
-					+ clazz.getSimpleName(), e);
-		} catch (NullPointerException e) {
-			throw new AppException("No " + Action.class.getSimpleName()
-					+ " found for path " + request.getPathTranslated(), e);
+		Action action = result.newInstance();
+		if (result.isNotFoundAware()) {
+			((NotFoundAware) action).setRequestUri(request.getRequestURI());
 		}
-		return result;
+		return action;
 
 	}
 
@@ -4,6 +4,7 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import net.jirasystems.webulizor.helpers.Database;
+import net.jirasystems.webulizor.helpers.Mailer;
 
 public class ContextListner implements ServletContextListener {
 
@@ -14,6 +15,8 @@ public class ContextListner implements ServletContextListener {
 
 	@Override
 	public void contextDestroyed(ServletContextEvent arg0) {
+		// Stop sending mail before the outbox database goes away:
+		Mailer.shutdown();
 		Database.shutdown();
 	}
 }
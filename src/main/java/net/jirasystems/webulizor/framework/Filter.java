@@ -4,25 +4,75 @@ import java.io.IOException;
 
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 
 /**
  * This {@link javax.servlet.Filter} enables the app to run without a servlet context path.
+ * <p>
+ * Init parameters:
+ * <ul>
+ * <li><code>staticExtensions</code>: a comma-separated list of file extensions (e.g.
+ * <code>css,js,png</code>) to be served as static content. If not set, any path with an extension
+ * is treated as static.</li>
+ * <li><code>dispatch</code>: <code>forward</code> (the default) to forward page requests to
+ * <code>/app</code>, or <code>direct</code> to call {@link App} without going through a
+ * {@link javax.servlet.RequestDispatcher}. Direct dispatch falls back to forwarding until the app
+ * servlet has been initialised.</li>
+ * <li><code>serveStatic</code>: if <code>true</code>, static files are served by
+ * {@link StaticContent} rather than the container's default servlet. Only files with one of the
+ * <code>staticExtensions</code> are served this way or, if that's not set, any file except
+ * server-side resources such as JSPs.
+ * <code>staticCacheControl</code> and <code>staticMemoryLimit</code> configure it.</li>
+ * <li><code>readinessPath</code>: if set, a path, e.g. <code>/ready</code>, that responds with 200
+ * once {@link App#isReady(ServletContext)} and 503 until then, for load balancer health checks.
+ * This takes precedence over any route with the same path. Not set by default.</li>
+ * </ul>
  * 
  * @author David Carboni
  * 
  */
 public class Filter implements javax.servlet.Filter {
 
+	private ServletContext servletContext;
+	private String[] staticExtensions;
+	private boolean direct;
+	private StaticContent staticContent;
+	private String readinessPath;
+
 	@Override
 	public void init(FilterConfig filterConfig) {
-		// No implementation.
+		servletContext = filterConfig.getServletContext();
+
+		String extensions = filterConfig.getInitParameter("staticExtensions");
+		if (StringUtils.isNotBlank(extensions)) {
+			staticExtensions = StringUtils.stripAll(StringUtils.split(extensions, ", "));
+		}
+
+		direct = StringUtils.equalsIgnoreCase("direct", filterConfig.getInitParameter("dispatch"));
+
+		if (Boolean.parseBoolean(filterConfig.getInitParameter("serveStatic"))) {
+			String cacheControl = filterConfig.getInitParameter("staticCacheControl");
+			if (StringUtils.isNotBlank(cacheControl)) {
+				StaticContent.CACHE_CONTROL = cacheControl.trim();
+			}
+			String memoryLimit = filterConfig.getInitParameter("staticMemoryLimit");
+			if (StringUtils.isNotBlank(memoryLimit)) {
+				StaticContent.MEMORY_LIMIT = Integer.parseInt(memoryLimit.trim());
+			}
+			staticContent = StaticContent.index(servletContext, staticExtensions);
+		}
+
+		String readiness = filterConfig.getInitParameter("readinessPath");
+		if (StringUtils.isNotBlank(readiness)) {
+			readinessPath = readiness.trim();
+		}
 	}
 
 	@Override
@@ -31,17 +81,77 @@ public class Filter implements javax.servlet.Filter {
 
 		// Determine if this is a static content request:
 		HttpServletRequest req = (HttpServletRequest) request;
-		String path = req.getRequestURI().substring(req.getContextPath().length());
-		String extension = FilenameUtils.getExtension(path);
-		boolean isStaticContent = StringUtils.isNotBlank(extension);
+		String uri = req.getRequestURI();
+		int contextPathLength = req.getContextPath().length();
 
-		if (isStaticContent) {
-			// Static content goes to default servlet:
-			chain.doFilter(request, response);
+		if (readinessPath != null && uri.length() - contextPathLength == readinessPath.length()
+				&& uri.startsWith(readinessPath, contextPathLength)) {
+			ready((HttpServletResponse) response);
+		} else if (isStaticContent(uri, contextPathLength)) {
+			// Static content is served from the index if enabled, otherwise by the default servlet:
+			if (staticContent == null
+					|| !staticContent.serve(req, (HttpServletResponse) response, uri.substring(contextPathLength))) {
+				chain.doFilter(request, response);
+			}
 		} else {
 			// Page requests to Webulizor:
-			request.getRequestDispatcher("/app" + path).forward(request, response);
+			String path = uri.substring(contextPathLength);
+			App app = direct ? (App) servletContext.getAttribute(App.ATTRIBUTE) : null;
+			if (app != null) {
+				app.dispatch(req, (HttpServletResponse) response, path);
+			} else {
+				request.getRequestDispatcher("/app" + path).forward(request, response);
+			}
+		}
+	}
+
+	/**
+	 * Responds to a readiness check.
+	 * 
+	 * @param response
+	 *            {@link HttpServletResponse}
+	 * @throws IOException
+	 *             If an error occurs.
+	 */
+	private void ready(HttpServletResponse response) throws IOException {
+		response.setHeader("Cache-Control", "no-store");
+		response.setContentType("text/plain");
+		if (App.isReady(servletContext)) {
+			response.getWriter().write("ready");
+		} else {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader("Retry-After", "5");
+			response.getWriter().write("starting");
+		}
+	}
+
+	/**
+	 * Checks the extension of the last path segment, without creating any strings.
+	 * 
+	 * @param uri
+	 *            The request URI.
+	 * @param start
+	 *            The index at which the path within the context starts.
+	 * @return If the extension is one of {@link #staticExtensions} or, if that's not set, if there
+	 *         is an extension, true.
+	 */
+	boolean isStaticContent(String uri, int start) {
+
+		int dot = uri.lastIndexOf('.');
+		if (dot < start || dot < uri.lastIndexOf('/') || dot == uri.length() - 1) {
+			return false;
+		}
+
+		if (staticExtensions == null) {
+			return true;
+		}
+		int length = uri.length() - dot - 1;
+		for (String extension : staticExtensions) {
+			if (extension.length() == length && uri.regionMatches(true, dot + 1, extension, 0, length)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	@Override
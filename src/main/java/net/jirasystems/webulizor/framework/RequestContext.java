@@ -0,0 +1,234 @@
+package net.jirasystems.webulizor.framework;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import net.jirasystems.webulizor.interfaces.Action;
+
+/**
+ * The context shared by the {@link Action}s processing a request. Velocity
+ * reads through to it when rendering, so view data is not copied.
+ * <p>
+ * Well-known keys, such as <code>link</code> and <code>submitTo</code>, are
+ * held in fixed slots. Any other keys go into a map which is only created
+ * when first needed. Like the rest of the request, this is not thread-safe.
+ *
+ * @author David Carboni
+ *
+ */
+public class RequestContext extends AbstractMap<String, Object> {
+
+	/** Keys held in slots rather than the overflow map. */
+	private static final String[] KEYS = { "link", "submitTo" };
+
+	private final Object[] values = new Object[KEYS.length];
+	private int present;
+	private Map<String, Object> overflow;
+
+	/**
+	 * @return The slot index for the key, or -1 if the key has no slot.
+	 */
+	private static int slot(Object key) {
+		for (int i = 0; i < KEYS.length; i++) {
+			if (KEYS[i] == key || KEYS[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isPresent(int slot) {
+		return (present & (1 << slot)) != 0;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int slot = slot(key);
+		if (slot >= 0) {
+			Object result = values[slot];
+			values[slot] = value;
+			present |= 1 << slot;
+			return result;
+		}
+		if (overflow == null) {
+			overflow = new HashMap<String, Object>();
+		}
+		return overflow.put(key, value);
+	}
+
+	@Override
+	public Object get(Object key) {
+		int slot = slot(key);
+		if (slot >= 0) {
+			return values[slot];
+		}
+		return overflow == null ? null : overflow.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int slot = slot(key);
+		if (slot >= 0) {
+			return isPresent(slot);
+		}
+		return overflow != null && overflow.containsKey(key);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int slot = slot(key);
+		if (slot >= 0) {
+			Object result = values[slot];
+			values[slot] = null;
+			present &= ~(1 << slot);
+			return result;
+		}
+		return overflow == null ? null : overflow.remove(key);
+	}
+
+	@Override
+	public int size() {
+		return Integer.bitCount(present)
+				+ (overflow == null ? 0 : overflow.size());
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		present = 0;
+		overflow = null;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new AbstractSet<Entry<String, Object>>() {
+
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return RequestContext.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterates the slots, then the overflow map.
+	 */
+	private class EntryIterator implements Iterator<Entry<String, Object>> {
+
+		private int next = nextSlot(0);
+		private int last = -1;
+		private Iterator<Entry<String, Object>> overflowIterator;
+
+		private int nextSlot(int from) {
+			int slot = from;
+			while (slot < KEYS.length && !isPresent(slot)) {
+				slot++;
+			}
+			return slot;
+		}
+
+		private Iterator<Entry<String, Object>> overflowIterator() {
+			if (overflowIterator == null) {
+				Map<String, Object> map = overflow;
+				if (map == null) {
+					map = new HashMap<String, Object>(0);
+				}
+				overflowIterator = map.entrySet().iterator();
+			}
+			return overflowIterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < KEYS.length || overflowIterator().hasNext();
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			if (next < KEYS.length) {
+				last = next;
+				next = nextSlot(next + 1);
+				return new SlotEntry(last);
+			}
+			if (!overflowIterator().hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = -1;
+			return overflowIterator().next();
+		}
+
+		@Override
+		public void remove() {
+			if (last >= 0) {
+				RequestContext.this.remove(KEYS[last]);
+				last = -1;
+			} else {
+				overflowIterator().remove();
+			}
+		}
+	}
+
+	/**
+	 * An entry that reads and writes a slot.
+	 */
+	private class SlotEntry implements Entry<String, Object> {
+
+		private final int slot;
+
+		SlotEntry(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public String getKey() {
+			return KEYS[slot];
+		}
+
+		@Override
+		public Object getValue() {
+			return values[slot];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object result = values[slot];
+			values[slot] = value;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> other = (Entry<?, ?>) o;
+			Object value = getValue();
+			return getKey().equals(other.getKey())
+					&& (value == null ? other.getValue() == null : value
+							.equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package net.jirasystems.webulizor.framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.processor.RouteIndexProcessor;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the {@link Action} classes listed in the index files generated by
+ * {@link RouteIndexProcessor}. There can be one index per jar, plus one for
+ * <code>WEB-INF/classes</code>.
+ * <p>
+ * The classpath locations that have an index are recorded, so that
+ * {@link ActionScanner} only needs to scan the ones that don't.
+ *
+ * @author David Carboni
+ *
+ */
+class RouteIndex {
+
+	static final Logger log = LoggerFactory.getLogger(RouteIndex.class);
+
+	private final Set<Class<? extends Action>> actions;
+	private final Set<String> locations;
+
+	private RouteIndex(Set<Class<? extends Action>> actions,
+			Set<String> locations) {
+		this.actions = actions;
+		this.locations = locations;
+	}
+
+	/**
+	 * @param classLoader
+	 *            The {@link ClassLoader} to read the index files from and load
+	 *            the classes with.
+	 * @return The indexes found, which may be none.
+	 */
+	static RouteIndex load(ClassLoader classLoader) {
+
+		Enumeration<URL> indexes;
+		try {
+			indexes = classLoader.getResources(RouteIndexProcessor.INDEX);
+		} catch (IOException e) {
+			throw new AppException("Error locating route indexes", e);
+		}
+
+		Set<Class<? extends Action>> actions = new HashSet<Class<? extends Action>>();
+		Set<String> locations = new HashSet<String>();
+		while (indexes.hasMoreElements()) {
+			URL index = indexes.nextElement();
+			locations.add(location(index));
+			for (String name : read(index)) {
+				try {
+					Class<?> type = Class.forName(name, false, classLoader);
+					if (Action.class.isAssignableFrom(type)) {
+						actions.add(type.asSubclass(Action.class));
+					} else {
+						log.warn("Not an Action: " + name + " in " + index);
+					}
+				} catch (ClassNotFoundException e) {
+					// A stale entry:
+					log.warn("Class not found: " + name + " in " + index);
+				}
+			}
+		}
+		return new RouteIndex(Collections.unmodifiableSet(actions),
+				Collections.unmodifiableSet(locations));
+	}
+
+	/**
+	 * @return The indexed {@link Action} classes.
+	 */
+	Set<Class<? extends Action>> getActions() {
+		return actions;
+	}
+
+	/**
+	 * @param url
+	 *            A jar or directory on the classpath.
+	 * @return Whether the location has an index. Locations that can't be
+	 *         matched to an index, e.g. because the container gives a
+	 *         different URL for them, are treated as having none, so they
+	 *         are scanned rather than missed.
+	 */
+	boolean isIndexed(URL url) {
+		return locations.contains(location(url));
+	}
+
+	/**
+	 * @return Whether no index was found.
+	 */
+	boolean isEmpty() {
+		return locations.isEmpty();
+	}
+
+	/**
+	 * Normalises the URL of an index file, or of a jar or directory, to the
+	 * jar or directory, so they can be compared.
+	 */
+	static String location(URL url) {
+		String result = url.toString();
+		if (result.startsWith("jar:")) {
+			result = StringUtils.substringBefore(result.substring(4), "!/");
+		} else if (result.endsWith(RouteIndexProcessor.INDEX)) {
+			result = result.substring(0, result.length()
+					- RouteIndexProcessor.INDEX.length());
+		}
+		try {
+			URL location = new URL(result);
+			if ("file".equals(location.getProtocol())) {
+				return new File(location.toURI()).getAbsolutePath();
+			}
+		} catch (IOException e) {
+			// Compare as a string.
+		} catch (URISyntaxException e) {
+			// Compare as a string.
+		} catch (IllegalArgumentException e) {
+			// Compare as a string.
+		}
+		return StringUtils.removeEnd(result, "/");
+	}
+
+	private static Set<String> read(URL index) {
+		Set<String> result = new HashSet<String>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					index.openStream(), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#")) {
+						result.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new AppException("Error reading route index " + index, e);
+		}
+		return result;
+	}
+}
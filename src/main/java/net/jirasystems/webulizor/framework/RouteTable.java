@@ -0,0 +1,154 @@
+package net.jirasystems.webulizor.framework;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Immutable longest-prefix lookup table for request paths.
+ * <p>
+ * Routes are compiled into a case-folded character trie, so a lookup costs
+ * O(path length) regardless of how many routes are registered, and allocates
+ * nothing. Matching has the same semantics as
+ * {@link org.apache.commons.lang.StringUtils#startsWithIgnoreCase(String, String)}
+ * : the longest registered route which is a case-insensitive prefix of the
+ * path wins.
+ *
+ * @author David Carboni
+ *
+ * @param <T>
+ *            The type of value mapped to each route.
+ */
+public final class RouteTable<T> {
+
+	private final Node<T> root;
+	private final int size;
+
+	private RouteTable(Node<T> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Compiles the given routes into a lookup table.
+	 *
+	 * @param routes
+	 *            The routes, keyed by path. The map is copied, so later
+	 *            changes to it are not reflected in the table.
+	 * @return A new {@link RouteTable}.
+	 */
+	public static <T> RouteTable<T> compile(Map<String, T> routes) {
+
+		// Build a mutable trie:
+		Builder<T> builder = new Builder<T>();
+		int size = 0;
+		for (Entry<String, T> route : routes.entrySet()) {
+			Builder<T> node = builder;
+			String path = route.getKey();
+			for (int i = 0; i < path.length(); i++) {
+				node = node.child(fold(path.charAt(i)));
+			}
+			if (!node.route) {
+				// Routes that differ only by case share a node:
+				node.route = true;
+				size++;
+			}
+			node.value = route.getValue();
+		}
+
+		// Freeze it:
+		return new RouteTable<T>(builder.build(), size);
+	}
+
+	/**
+	 * Finds the value mapped to the longest route which is a case-insensitive
+	 * prefix of the given path.
+	 *
+	 * @param path
+	 *            The request path.
+	 * @return The matching value, or null if no route matches.
+	 */
+	public T lookup(String path) {
+		if (path == null) {
+			return null;
+		}
+
+		Node<T> node = root;
+		T result = node.value;
+		for (int i = 0; i < path.length(); i++) {
+			int index = Arrays.binarySearch(node.keys, fold(path.charAt(i)));
+			if (index < 0) {
+				break;
+			}
+			node = node.children[index];
+			if (node.value != null) {
+				result = node.value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of routes in this table, counting routes that differ
+	 *         only by case once.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Folds case in the same way as
+	 * {@link String#regionMatches(boolean, int, String, int, int)}.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * A frozen trie node. Children are held in parallel arrays, sorted by
+	 * character, for binary search.
+	 */
+	private static final class Node<T> {
+		final char[] keys;
+		final Node<T>[] children;
+		final T value;
+
+		Node(char[] keys, Node<T>[] children, T value) {
+			this.keys = keys;
+			this.children = children;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A mutable trie node, used during compilation.
+	 */
+	private static final class Builder<T> {
+		final TreeMap<Character, Builder<T>> children = new TreeMap<Character, Builder<T>>();
+		T value;
+		boolean route;
+
+		Builder<T> child(char c) {
+			Builder<T> result = children.get(Character.valueOf(c));
+			if (result == null) {
+				result = new Builder<T>();
+				children.put(Character.valueOf(c), result);
+			}
+			return result;
+		}
+
+		Node<T> build() {
+			char[] keys = new char[children.size()];
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			Node<T>[] nodes = new Node[children.size()];
+			int i = 0;
+			for (Entry<Character, Builder<T>> child : children.entrySet()) {
+				keys[i] = child.getKey().charValue();
+				nodes[i] = child.getValue().build();
+				i++;
+			}
+			return new Node<T>(keys, nodes, value);
+		}
+	}
+}
@@ -0,0 +1,503 @@
+package net.jirasystems.webulizor.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jirasystems.webulizor.helpers.AssetManifest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves static files from the webapp directory, as an alternative to the
+ * container's default servlet.
+ * <p>
+ * Files are indexed once, at startup, so each has a strong ETag computed from
+ * its content. Conditional requests (<code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>) are answered with 304 Not Modified. Where a
+ * precompressed <code>.br</code> or <code>.gz</code> file sits alongside the
+ * original, it is sent to clients that accept that encoding. Small files are
+ * held in memory; larger ones are sent with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Range
+ * requests are left to the default servlet.
+ * <p>
+ * Only files with one of the given extensions are indexed. If no extensions
+ * are given, any file with an extension is indexed except server-side
+ * resources such as JSPs, which must go to the servlets mapped to them rather
+ * than being sent as source. Files under <code>WEB-INF</code> and
+ * <code>META-INF</code>, and hidden files, are never served. Changes to files
+ * after startup are not picked up.
+ *
+ * @author David Carboni
+ *
+ */
+public class StaticContent {
+
+	static final Logger log = LoggerFactory.getLogger(StaticContent.class);
+
+	/**
+	 * Files up to this many bytes are held in memory. Set this before calling
+	 * {@link #index(ServletContext)}.
+	 */
+	public static int MEMORY_LIMIT = 64 * 1024;
+
+	/** The Cache-Control header for ordinary files. */
+	public static String CACHE_CONTROL = "public, max-age=300";
+
+	/**
+	 * The Cache-Control header for fingerprinted paths generated by the
+	 * {@link AssetManifest}, which change whenever the content does.
+	 */
+	public static String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 * Extensions that are never indexed when no extensions are specified,
+	 * because the container maps them to servlets.
+	 */
+	private static final String[] SERVER_EXTENSIONS = { "jsp", "jspx",
+			"jspf", "tag", "tagx" };
+
+	private final Map<String, Asset> assets;
+	private final Map<String, Asset> fingerprinted;
+
+	private StaticContent(Map<String, Asset> assets,
+			Map<String, Asset> fingerprinted) {
+		this.assets = assets;
+		this.fingerprinted = fingerprinted;
+	}
+
+	/**
+	 * Indexes the files in the webapp directory, other than server-side
+	 * resources, as for {@link #index(ServletContext, String[])} with no
+	 * extensions.
+	 *
+	 * @param servletContext
+	 *            Used to locate the webapp directory and determine content
+	 *            types.
+	 * @return The index, or null if the webapp is not deployed as a directory.
+	 */
+	public static StaticContent index(ServletContext servletContext) {
+		return index(servletContext, null);
+	}
+
+	/**
+	 * Indexes the files in the webapp directory and initialises the
+	 * {@link AssetManifest} so that fingerprinted paths can be served.
+	 *
+	 * @param servletContext
+	 *            Used to locate the webapp directory and determine content
+	 *            types.
+	 * @param extensions
+	 *            The extensions of files to index, e.g. <code>css</code>. If
+	 *            null, any extension other than those of server-side
+	 *            resources such as JSPs.
+	 * @return The index, or null if the webapp is not deployed as a directory.
+	 */
+	public static StaticContent index(ServletContext servletContext,
+			String[] extensions) {
+		String root = servletContext.getRealPath("/");
+		if (root == null) {
+			return null;
+		}
+
+		Map<String, Asset> assets = new HashMap<String, Asset>();
+		index(new File(root), "", servletContext, extensions, assets);
+
+		// Only paths we generate are known to change with the content, so
+		// only those are cached as immutable:
+		Map<String, Asset> fingerprinted = new HashMap<String, Asset>();
+		Map<String, String> manifest = new HashMap<String, String>();
+		for (Map.Entry<String, Asset> entry : assets.entrySet()) {
+			Asset asset = entry.getValue();
+			String path = AssetManifest.fingerprint(entry.getKey(), asset.hash);
+			fingerprinted.put(path, asset);
+			manifest.put(entry.getKey(), path);
+		}
+		AssetManifest.initialise(manifest);
+
+		log.info("Indexed " + assets.size() + " static files.");
+		return new StaticContent(assets, fingerprinted);
+	}
+
+	private static void index(File directory, String path,
+			ServletContext servletContext, String[] extensions,
+			Map<String, Asset> assets) {
+
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String filePath = path + "/" + file.getName();
+			if (file.getName().startsWith(".")) {
+				continue;
+			} else if (file.isDirectory()) {
+				if (!StringUtils.equalsIgnoreCase("/WEB-INF", filePath)
+						&& !StringUtils.equalsIgnoreCase("/META-INF", filePath)) {
+					index(file, filePath, servletContext, extensions, assets);
+				}
+			} else if (isServed(file.getName(), extensions)
+					&& !isVariant(file)) {
+				try {
+					assets.put(filePath, new Asset(file, servletContext
+							.getMimeType(file.getName())));
+				} catch (IOException e) {
+					log.warn("Unable to index " + filePath, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Whether the file has one of the given extensions or, if none
+	 *         are given, has an extension that isn't a server-side one.
+	 */
+	private static boolean isServed(String name, String[] extensions) {
+		String extension = StringUtils.substringAfterLast(name, ".");
+		if (extension.length() == 0) {
+			return false;
+		}
+		if (extensions == null) {
+			for (String serverExtension : SERVER_EXTENSIONS) {
+				if (serverExtension.equalsIgnoreCase(extension)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (String staticExtension : extensions) {
+			if (staticExtension.equalsIgnoreCase(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether the file is a precompressed copy of another file.
+	 */
+	private static boolean isVariant(File file) {
+		String name = file.getName();
+		String original;
+		if (name.endsWith(".gz")) {
+			original = name.substring(0, name.length() - 3);
+		} else if (name.endsWith(".br")) {
+			original = name.substring(0, name.length() - 3);
+		} else {
+			return false;
+		}
+		return new File(file.getParentFile(), original).isFile();
+	}
+
+	/**
+	 * Serves the file at the given path, if it has been indexed. Fingerprinted
+	 * paths from the {@link AssetManifest} are served with
+	 * {@link #IMMUTABLE_CACHE_CONTROL}.
+	 *
+	 * @param request
+	 *            {@link HttpServletRequest}
+	 * @param response
+	 *            {@link HttpServletResponse}
+	 * @param path
+	 *            The path within the webapp, e.g. <code>/css/site.css</code>,
+	 *            encoded as in the request URI.
+	 * @return If the request has been handled, true. If the path is not
+	 *         indexed, the method is not GET or HEAD, or a range is requested,
+	 *         false.
+	 * @throws IOException
+	 *             If an error occurs in sending the file.
+	 */
+	public boolean serve(HttpServletRequest request,
+			HttpServletResponse response, String path) throws IOException {
+
+		String method = request.getMethod();
+		boolean head = "HEAD".equals(method);
+		if (!head && !"GET".equals(method)) {
+			return false;
+		}
+
+		// Leave partial content, e.g. media seeking, to the default servlet:
+		if (request.getHeader("Range") != null) {
+			return false;
+		}
+
+		// The index is keyed by file name, so decode e.g. %20:
+		path = decode(path);
+		if (path == null) {
+			return false;
+		}
+
+		Asset asset = assets.get(path);
+		boolean immutable = false;
+		if (asset == null) {
+			asset = fingerprinted.get(path);
+			if (asset == null) {
+				return false;
+			}
+			immutable = true;
+		}
+		Representation representation = asset.select(request
+				.getHeader("Accept-Encoding"));
+
+		// Validation and caching headers:
+		response.setHeader("ETag", representation.etag);
+		response.setDateHeader("Last-Modified", asset.lastModified);
+		response.setHeader("Cache-Control",
+				immutable ? IMMUTABLE_CACHE_CONTROL : CACHE_CONTROL);
+		if (asset.gzip != null || asset.brotli != null) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+
+		if (isNotModified(request, representation.etag, asset.lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+
+		// Entity headers:
+		if (asset.contentType != null) {
+			response.setContentType(asset.contentType);
+		}
+		if (representation.encoding != null) {
+			response.setHeader("Content-Encoding", representation.encoding);
+		}
+		if (representation.length <= Integer.MAX_VALUE) {
+			response.setContentLength((int) representation.length);
+		} else {
+			response.setHeader("Content-Length",
+					Long.toString(representation.length));
+		}
+
+		if (!head) {
+			representation.write(response);
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes percent-escapes in a URI path. Unlike a query string, a plus
+	 * sign is not a space.
+	 *
+	 * @return The decoded path, or null if it is malformed.
+	 */
+	static String decode(String path) {
+		if (path.indexOf('%') < 0) {
+			return path;
+		}
+		try {
+			return URLDecoder.decode(StringUtils.replace(path, "+", "%2B"),
+					"UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not available", e);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Whether the client's copy is current. If-None-Match takes
+	 *         precedence over If-Modified-Since.
+	 */
+	private static boolean isNotModified(HttpServletRequest request,
+			String etag, long lastModified) {
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : StringUtils.split(ifNoneMatch, ',')) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince >= 0 && ifModifiedSince >= lastModified;
+		} catch (IllegalArgumentException e) {
+			// Unparseable date:
+			return false;
+		}
+	}
+
+	/**
+	 * @return Whether the Accept-Encoding header accepts the given encoding
+	 *         with a non-zero quality.
+	 */
+	private static boolean accepts(String acceptEncoding, String encoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String part : StringUtils.split(acceptEncoding, ',')) {
+			String[] parameters = StringUtils.split(part, ';');
+			if (parameters.length > 0
+					&& parameters[0].trim().equalsIgnoreCase(encoding)) {
+				for (int i = 1; i < parameters.length; i++) {
+					String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							return Float.parseFloat(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes a hex SHA-1 hash of the file content.
+	 */
+	static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * An indexed file, with any precompressed variants.
+	 */
+	private static class Asset {
+
+		final String contentType;
+		final long lastModified;
+		final String hash;
+		final Representation identity;
+		final Representation gzip;
+		final Representation brotli;
+
+		Asset(File file, String contentType) throws IOException {
+			this.contentType = contentType;
+
+			// HTTP dates have a resolution of one second:
+			lastModified = file.lastModified() / 1000 * 1000;
+
+			// Variants are assumed to match the original:
+			hash = hash(file);
+			identity = new Representation(file, null, hash);
+			gzip = variant(file, ".gz", "gzip", hash);
+			brotli = variant(file, ".br", "br", hash);
+		}
+
+		private static Representation variant(File file, String suffix,
+				String encoding, String hash) throws IOException {
+			File variant = new File(file.getPath() + suffix);
+			return variant.isFile() ? new Representation(variant, encoding,
+					hash) : null;
+		}
+
+		/**
+		 * Chooses the smallest representation the client accepts.
+		 */
+		Representation select(String acceptEncoding) {
+			if (brotli != null && accepts(acceptEncoding, "br")) {
+				return brotli;
+			}
+			if (gzip != null && accepts(acceptEncoding, "gzip")) {
+				return gzip;
+			}
+			return identity;
+		}
+	}
+
+	/**
+	 * The bytes of one encoding of a file.
+	 */
+	private static class Representation {
+
+		final File file;
+		final String encoding;
+		final long length;
+		final String etag;
+		final byte[] content;
+
+		Representation(File file, String encoding, String hash)
+				throws IOException {
+			this.file = file;
+			this.encoding = encoding;
+			length = file.length();
+
+			// Each encoding needs its own strong ETag:
+			etag = "\"" + hash + (encoding == null ? "" : "-" + encoding)
+					+ "\"";
+
+			if (length <= MEMORY_LIMIT) {
+				content = FileUtils.readFileToByteArray(file);
+			} else {
+				content = null;
+			}
+		}
+
+		void write(HttpServletResponse response) throws IOException {
+			if (content != null) {
+				response.getOutputStream().write(content);
+				return;
+			}
+
+			FileInputStream input = new FileInputStream(file);
+			try {
+				FileChannel channel = input.getChannel();
+				WritableByteChannel output = Channels.newChannel(response
+						.getOutputStream());
+				long position = 0;
+				while (position < length) {
+					long sent = channel.transferTo(position, length
+							- position, output);
+					if (sent <= 0) {
+						// The file has been truncated since it was indexed:
+						break;
+					}
+					position += sent;
+				}
+			} finally {
+				IOUtils.closeQuietly(input);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps asset paths to fingerprinted paths, which include a hash of the file
+ * content (e.g. <code>/css/site.css</code> to
+ * <code>/css/site.3f9a1c0b2d.css</code>). Because the name changes whenever
+ * the content does, browsers can cache fingerprinted files indefinitely.
+ * <p>
+ * The manifest is populated at startup by
+ * {@link net.jirasystems.webulizor.framework.StaticContent}, which also serves
+ * the fingerprinted paths. Until then, or if static content is served by the
+ * container, paths are returned unchanged.
+ *
+ * @author David Carboni
+ *
+ */
+public class AssetManifest {
+
+	/** The number of hex characters of the hash used in a fingerprint. */
+	public static final int FINGERPRINT_LENGTH = 10;
+
+	private static volatile Map<String, String> fingerprints = Collections
+			.emptyMap();
+
+	/**
+	 * Replaces the manifest.
+	 *
+	 * @param fingerprints
+	 *            A map of asset paths to fingerprinted paths.
+	 */
+	public static void initialise(Map<String, String> fingerprints) {
+		AssetManifest.fingerprints = Collections
+				.unmodifiableMap(new HashMap<String, String>(fingerprints));
+	}
+
+	/**
+	 * @param path
+	 *            An asset path within the app context.
+	 * @return The fingerprinted path, or the given path if there is no entry
+	 *         in the manifest.
+	 */
+	public static String get(String path) {
+		String result = fingerprints.get(path);
+		return result == null ? path : result;
+	}
+
+	/**
+	 * Inserts a hash into a path, before the extension of the file name if
+	 * there is one.
+	 *
+	 * @param path
+	 *            The path, e.g. <code>/css/site.css</code>.
+	 * @param hash
+	 *            A hex hash of the file content. Only the first
+	 *            {@link #FINGERPRINT_LENGTH} characters are used.
+	 * @return The fingerprinted path, e.g.
+	 *         <code>/css/site.3f9a1c0b2d.css</code>.
+	 */
+	public static String fingerprint(String path, String hash) {
+		String fingerprint = hash.length() > FINGERPRINT_LENGTH ? hash
+				.substring(0, FINGERPRINT_LENGTH) : hash;
+		int dot = path.lastIndexOf('.');
+		if (dot <= path.lastIndexOf('/') + 1) {
+			// No extension (or a dot file):
+			return path + "." + fingerprint;
+		}
+		return path.substring(0, dot) + "." + fingerprint
+				+ path.substring(dot);
+	}
+}
@@ -0,0 +1,372 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded JDBC connection pool.
+ * <p>
+ * Connections are handed out as dynamic proxies. Calling
+ * {@link Connection#close()} returns the underlying connection to the pool,
+ * rolling back any uncommitted transaction. Idle connections are validated
+ * before being handed out again, and connections idle for longer than the idle
+ * timeout are closed, down to the minimum pool size.
+ *
+ * @author David Carboni
+ *
+ */
+public class ConnectionPool {
+
+	static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+	/** Seconds to wait for {@link Connection#isValid(int)} on borrow. */
+	private static final int VALIDATION_TIMEOUT = 2;
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int minSize;
+	private final int maxSize;
+	private final long acquireTimeout;
+	private final long idleTimeout;
+
+	// Bounds the number of connections leased at any one time:
+	private final Semaphore leases;
+
+	// Most recently returned connections are at the head:
+	private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<Idle>();
+
+	// Leased plus idle:
+	private final AtomicInteger total = new AtomicInteger();
+
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pool and opens the minimum number of connections. If the
+	 * database can't be reached, this is logged and connections will be
+	 * opened on demand instead.
+	 *
+	 * @param url
+	 *            The JDBC URL.
+	 * @param username
+	 *            The database username.
+	 * @param password
+	 *            The database password.
+	 * @param minSize
+	 *            The number of connections to keep open, even when idle.
+	 * @param maxSize
+	 *            The maximum number of connections that can be leased at once.
+	 * @param acquireTimeout
+	 *            Milliseconds to wait for a connection when the pool is
+	 *            exhausted.
+	 * @param idleTimeout
+	 *            Milliseconds after which an idle connection is closed. Zero
+	 *            or less disables idle eviction.
+	 */
+	public ConnectionPool(String url, String username, String password,
+			int minSize, int maxSize, long acquireTimeout, long idleTimeout) {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min="
+					+ minSize + ", max=" + maxSize);
+		}
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.acquireTimeout = acquireTimeout;
+		this.idleTimeout = idleTimeout;
+		leases = new Semaphore(maxSize, true);
+
+		// Warm up:
+		fill();
+
+		// Schedule idle eviction:
+		if (idleTimeout > 0) {
+			evictor = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"webulizor-connection-pool");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			long period = Math.max(1000, idleTimeout / 2);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evict();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			evictor = null;
+		}
+	}
+
+	/**
+	 * Borrows a connection from the pool. The caller is responsible for
+	 * closing the connection, which returns it to the pool.
+	 *
+	 * @return A pooled {@link Connection}.
+	 * @throws SQLException
+	 *             If the pool is shut down, no connection becomes available
+	 *             within the acquire timeout, or a new connection can't be
+	 *             opened.
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool has been shut down.");
+		}
+
+		// Wait for a lease:
+		boolean acquired;
+		try {
+			acquired = leases.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection.", e);
+		}
+		if (!acquired) {
+			throw new SQLException("Timed out after " + acquireTimeout
+					+ "ms waiting for a connection: all " + maxSize
+					+ " connections are in use.");
+		}
+
+		// Reuse a valid idle connection, or open a new one:
+		try {
+			Connection connection = null;
+			Idle candidate;
+			while (connection == null && (candidate = idle.pollFirst()) != null) {
+				if (isValid(candidate.connection)) {
+					connection = candidate.connection;
+				} else {
+					discard(candidate.connection);
+				}
+			}
+			if (connection == null) {
+				connection = open();
+			}
+			return lease(connection);
+		} catch (SQLException e) {
+			leases.release();
+			throw e;
+		} catch (RuntimeException e) {
+			leases.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops idle eviction. Connections that
+	 * are currently leased are closed when they are returned.
+	 */
+	public void shutdown() {
+		closed = true;
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+		drain();
+	}
+
+	/**
+	 * @return The number of connections currently open, leased or idle.
+	 */
+	public int getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return The number of idle connections.
+	 */
+	public int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * @return The number of leased connections.
+	 */
+	public int getLeased() {
+		return maxSize - leases.availablePermits();
+	}
+
+	/**
+	 * Returns a physical connection to the pool. Called when a leased
+	 * connection is closed.
+	 */
+	private void release(Connection connection) {
+		try {
+			boolean reusable = !closed;
+			try {
+				if (reusable && !connection.getAutoCommit()) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				log.warn("Discarding connection that could not be reset", e);
+				reusable = false;
+			}
+
+			if (reusable) {
+				idle.offerFirst(new Idle(connection));
+				// Guard against a shutdown while we were returning:
+				if (closed) {
+					drain();
+				}
+			} else {
+				discard(connection);
+			}
+		} finally {
+			leases.release();
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout,
+	 * keeping at least the minimum number open.
+	 */
+	private void evict() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+
+		// Oldest connections are at the tail:
+		Iterator<Idle> iterator = idle.descendingIterator();
+		while (iterator.hasNext() && total.get() > minSize) {
+			Idle candidate = iterator.next();
+			if (candidate.since < cutoff
+					&& idle.removeFirstOccurrence(candidate)) {
+				discard(candidate.connection);
+			}
+		}
+
+		fill();
+	}
+
+	/**
+	 * Opens connections up to the minimum pool size.
+	 */
+	private void fill() {
+		try {
+			while (!closed && total.get() < minSize) {
+				idle.offerLast(new Idle(open()));
+			}
+		} catch (SQLException e) {
+			log.warn("Unable to open " + minSize + " idle connections to "
+					+ url, e);
+		}
+	}
+
+	/**
+	 * Closes all idle connections.
+	 */
+	private void drain() {
+		Idle candidate;
+		while ((candidate = idle.pollFirst()) != null) {
+			discard(candidate.connection);
+		}
+	}
+
+	private Connection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, username,
+				password);
+		total.incrementAndGet();
+		return connection;
+	}
+
+	private void discard(Connection connection) {
+		total.decrementAndGet();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("Error closing discarded connection", e);
+		}
+	}
+
+	private static boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Wraps a physical connection so that closing it returns it to the pool.
+	 */
+	private Connection lease(final Connection connection) {
+
+		InvocationHandler handler = new InvocationHandler() {
+
+			private final AtomicBoolean returned = new AtomicBoolean();
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String name = method.getName();
+
+				// Identity, rather than that of the physical connection:
+				if (method.getDeclaringClass() == Object.class) {
+					if ("equals".equals(name)) {
+						return Boolean.valueOf(proxy == args[0]);
+					} else if ("hashCode".equals(name)) {
+						return Integer.valueOf(System.identityHashCode(proxy));
+					}
+					return "Pooled " + connection;
+				}
+
+				// Return to the pool rather than closing:
+				if ("close".equals(name)) {
+					if (returned.compareAndSet(false, true)) {
+						release(connection);
+					}
+					return null;
+				} else if ("isClosed".equals(name) && returned.get()) {
+					return Boolean.TRUE;
+				} else if (returned.get()) {
+					throw new SQLException(
+							"Connection has been returned to the pool.");
+				}
+
+				try {
+					return method.invoke(connection, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		};
+
+		return (Connection) Proxy.newProxyInstance(
+				ConnectionPool.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+	}
+
+	/**
+	 * An idle connection and the time it was returned to the pool.
+	 */
+	private static class Idle {
+		final Connection connection;
+		final long since = System.currentTimeMillis();
+
+		Idle(Connection connection) {
+			this.connection = connection;
+		}
+	}
+}
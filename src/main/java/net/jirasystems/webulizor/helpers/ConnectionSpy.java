@@ -1,13 +1,12 @@
 package net.jirasystems.webulizor.helpers;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.util.Arrays;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -31,14 +30,11 @@ public class ConnectionSpy {
 	public static Connection spy(final String name, final Connection connection) {
 
 		// Watchdog for unclosed connection:
-		final Timer t = new Timer(true);
-		final Exception e = new Exception();
-		e.fillInStackTrace();
+		final LeakDetector.Watch watch = LeakDetector.watch(name);
 
 		InvocationHandler handler = new InvocationHandler() {
 
 			private Connection c = connection;
-			final Timer timer = t;
 
 			@Override
 			public Object invoke(Object proxy, Method method, Object[] args)
@@ -46,11 +42,16 @@ public class ConnectionSpy {
 
 				// Log
 				if (StringUtils.equals("close", method.getName())) {
-					timer.cancel();
+					watch.close();
 				}
 
 				// Invoke the method
-				Object result = method.invoke(c, args);
+				Object result;
+				try {
+					result = method.invoke(c, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
 
 				// // If the result is a PreparedStatement, spy that too:
 				// if (result != null &&
@@ -66,19 +67,6 @@ public class ConnectionSpy {
 				ConnectionSpy.class.getClassLoader(),
 				new Class[] { Connection.class }, handler);
 
-		// Set up a connection close watchdog:
-		final int timeout = 5000;
-		TimerTask task = new TimerTask() {
-			private String identifier = name;
-
-			@Override
-			public void run() {
-				System.out.println("Connection unclosed after "
-						+ (timeout / 1000) + " seconds: " + identifier);
-			}
-		};
-		t.schedule(task, timeout);
-
 		return (Connection) proxy;
 	}
 
@@ -2,12 +2,13 @@ package net.jirasystems.webulizor.helpers;
 
 import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import javax.servlet.ServletContext;
 
 import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Provides access to the
@@ -17,6 +18,8 @@ import org.apache.commons.io.FilenameUtils;
  */
 public class Database {
 
+	static final Logger log = LoggerFactory.getLogger(Database.class);
+
 	/** The default HSQL driver class. */
 	public static final String HSQL_DRIVER = "org.hsqldb.jdbcDriver";
 
@@ -24,7 +27,7 @@ public class Database {
 	private static String username;
 	private static String password;
 
-	// private static BoneCP connectionPool;
+	private static volatile ConnectionPool connectionPool;
 
 	/**
 	 * Initialises HSQLDB, using an in-memory database.
@@ -42,7 +45,7 @@ public class Database {
 		url = "jdbc:hsqldb:mem:aname";
 		username = "sa";
 		password = "";
-		initialiseConnectionPool();
+		initialiseConnectionPool(PoolSettings.DEFAULT);
 	}
 
 	/**
@@ -61,7 +64,7 @@ public class Database {
 		setHsqldbPath(servletContext.getRealPath("WEB-INF/database"));
 		username = "sa";
 		password = "";
-		initialiseConnectionPool();
+		initialiseConnectionPool(PoolSettings.DEFAULT);
 	}
 
 	/**
@@ -73,12 +76,25 @@ public class Database {
 	 *            Used to set the path for the HSQLDB database files.
 	 */
 	public static void initialiseHsql(String path) {
+		initialiseHsql(path, PoolSettings.DEFAULT);
+	}
+
+	/**
+	 * Initialises HSQLDB, storing the database under the given path, with the
+	 * given pool settings.
+	 * 
+	 * @param path
+	 *            The filesystem path for the HSQLDB database files.
+	 * @param poolSettings
+	 *            Sizes and timeouts for the connection pool.
+	 */
+	public static void initialiseHsql(String path, PoolSettings poolSettings) {
 
 		initialiseDriver(HSQL_DRIVER);
 		setHsqldbPath(path);
 		username = "sa";
 		password = "";
-		initialiseConnectionPool();
+		initialiseConnectionPool(poolSettings);
 	}
 
 	/**
@@ -93,12 +109,24 @@ public class Database {
 	 */
 	public static void initialise(String driverClass, String url,
 			String username, String password) {
+		initialise(driverClass, url, username, password, PoolSettings.DEFAULT);
+	}
+
+	/**
+	 * Initialises JDBC with the given values and pool settings. See
+	 * {@link #initialise(String, String, String, String)}.
+	 * 
+	 * @param poolSettings
+	 *            Sizes and timeouts for the connection pool.
+	 */
+	public static void initialise(String driverClass, String url,
+			String username, String password, PoolSettings poolSettings) {
 
 		initialiseDriver(driverClass);
 		Database.url = url;
 		Database.username = username;
 		Database.password = password;
-		initialiseConnectionPool();
+		initialiseConnectionPool(poolSettings);
 	}
 
 	/**
@@ -134,62 +162,77 @@ public class Database {
 				+ ";shutdown=true;hsqldb.write_delay=false";
 	}
 
-	private static void initialiseConnectionPool() {
+	/**
+	 * Replaces any existing connection pool with one for the current
+	 * connection details.
+	 * 
+	 * @param poolSettings
+	 *            Sizes and timeouts for the new pool.
+	 */
+	private static void initialiseConnectionPool(PoolSettings poolSettings) {
 
-		// // Configure the connection pool:
-		// BoneCPConfig boneCPConfig = new BoneCPConfig();
-		// boneCPConfig.setJdbcUrl(url);
-		// boneCPConfig.setUsername(username);
-		// boneCPConfig.setPassword(password);
-		// boneCPConfig.setMinConnectionsPerPartition(5);
-		// boneCPConfig.setMaxConnectionsPerPartition(1);
-		// boneCPConfig.setPartitionCount(1);
-		//
-		// // Instantiate the connection pool:
-		// try {
-		// connectionPool = new BoneCP(boneCPConfig);
-		// } catch (SQLException e) {
-		// throw new RuntimeException("Error initialising connection pool", e);
-		// }
+		ConnectionPool pool = new ConnectionPool(url, username, password,
+				poolSettings.getMinSize(), poolSettings.getMaxSize(),
+				poolSettings.getAcquireTimeout(),
+				poolSettings.getIdleTimeout());
+		shutdownConnectionPool();
+		connectionPool = pool;
 
-		System.out.println("Database is at " + url);
+		log.info("Database is at " + url);
 	}
 
 	/**
-	 * Shuts down the connection pool.
+	 * Shuts down the connection pool and stops the {@link LeakDetector}
+	 * thread, which is restarted if a connection is used again.
 	 */
 	public static void shutdown() {
-		// if (connectionPool != null) {
-		// System.out.println("Shutting down connection pool..");
-		// connectionPool.shutdown();
-		// System.out.println("Connection pool shut down.");
-		// }
+		shutdownConnectionPool();
+		LeakDetector.shutdown();
+	}
+
+	/**
+	 * Shuts down the connection pool, if there is one. Connections currently
+	 * leased from it are closed when they're returned.
+	 */
+	private static void shutdownConnectionPool() {
+		ConnectionPool pool = connectionPool;
+		if (pool != null) {
+			connectionPool = null;
+			log.debug("Shutting down connection pool..");
+			pool.shutdown();
+			log.info("Connection pool shut down.");
+		}
 	}
 
 	/**
-	 * Gets a new connection. The caller is responsible for closing the
-	 * connection.
+	 * Gets a connection from the pool. The caller is responsible for closing
+	 * the connection, which returns it to the pool.
 	 * 
-	 * @return A new connection to the database.
+	 * @return A connection to the database.
 	 */
 	public static Connection getConnection(String name) {
 		try {
-			// System.out.println("Connection pool has "
-			// + connectionPool.getTotalLeased()
-			// + " connections in use and "
-			// + connectionPool.getTotalFree() + " free connections.");
-			// Connection connection = connectionPool.getConnection();
-			Connection connection = DriverManager.getConnection(url, username,
-					password);
+			ConnectionPool pool = connectionPool;
+			if (pool == null) {
+				throw new SQLException("Database has not been initialised.");
+			}
+			Connection connection = pool.getConnection();
 			connection = ConnectionSpy.spy(name, connection);
 			connection.setAutoCommit(false);
-			// return ConnectionSpy.spy(connection);
 			return connection;
 		} catch (SQLException e) {
 			throw new RuntimeException("Error getting a database connection", e);
 		}
 	}
 
+	/**
+	 * @return The connection pool, or null if the database has not been
+	 *         initialised.
+	 */
+	public static ConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
 	/**
 	 * @return the url
 	 */
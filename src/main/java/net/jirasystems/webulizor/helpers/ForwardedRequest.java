@@ -1,127 +1,230 @@
 package net.jirasystems.webulizor.helpers;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps a request so that the server name, scheme, port and client reflect
+ * any <code>X-Forwarded-*</code> headers set by a proxy.
+ * <p>
+ * Only the forwarded values are overridden. The headers are read the first
+ * time one of them is needed, and every other call is passed directly to the
+ * wrapped request.
+ *
+ * @author David Carboni
+ *
+ */
+public class ForwardedRequest extends HttpServletRequestWrapper {
+
+	static final Logger log = LoggerFactory.getLogger(ForwardedRequest.class);
+
+	private int serverPort;
+	private boolean secure;
+	private String scheme;
+	private String host;
+	private String client;
+	private boolean initialised;
+
+	private static final String FORWARD = "javax.servlet.forward.";
+
+	private final boolean dispatched;
+	private final String servletPath;
+	private final String pathInfo;
 
-public class ForwardedRequest {
+	/**
+	 * @param request
+	 *            The {@link HttpServletRequest} to be wrapped.
+	 */
+	public ForwardedRequest(HttpServletRequest request) {
+		super(request);
+		dispatched = false;
+		servletPath = null;
+		pathInfo = null;
+	}
 
-	private static boolean spoken;
+	/**
+	 * For a request passed to a servlet directly, rather than through a
+	 * {@link javax.servlet.RequestDispatcher}, this reports the request URI,
+	 * servlet path and path info that a forward would have set, and the
+	 * original values as the <code>javax.servlet.forward.*</code> request
+	 * attributes.
+	 * <p>
+	 * NB unlike a forward, the path info is not decoded.
+	 *
+	 * @param request
+	 *            The {@link HttpServletRequest} to be wrapped.
+	 * @param servletPath
+	 *            The servlet path.
+	 * @param pathInfo
+	 *            The path info.
+	 */
+	public ForwardedRequest(HttpServletRequest request, String servletPath,
+			String pathInfo) {
+		super(request);
+		dispatched = true;
+		this.servletPath = servletPath;
+		this.pathInfo = pathInfo;
+	}
 
 	/**
-	 * Wraps the given {@link PreparedStatement} in a Java dynamic proxy which
-	 * will log method calls.
-	 * 
-	 * @param connection
-	 *            The {@link Connection} to be spied.
-	 * @return The wrapped {@link PreparedStatement}
+	 * Wraps the given {@link HttpServletRequest} so that it reflects any
+	 * <code>X-Forwarded-*</code> headers.
+	 *
+	 * @param httpServletRequest
+	 *            The {@link HttpServletRequest} to be wrapped.
+	 * @return The wrapped {@link HttpServletRequest}, or the given request if
+	 *         it is already wrapped.
 	 */
 	public static HttpServletRequest newInstance(
 			final HttpServletRequest httpServletRequest) {
+		if (httpServletRequest instanceof ForwardedRequest) {
+			return httpServletRequest;
+		}
+		return new ForwardedRequest(httpServletRequest);
+	}
+
+	@Override
+	public String getRequestURI() {
+		if (!dispatched) {
+			return super.getRequestURI();
+		}
+		StringBuilder result = new StringBuilder(getContextPath());
+		result.append(servletPath);
+		if (pathInfo != null) {
+			result.append(pathInfo);
+		}
+		return result.toString();
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		StringBuffer result = super.getRequestURL();
+		if (dispatched) {
+			String requestURI = super.getRequestURI();
+			if (result.toString().endsWith(requestURI)) {
+				result.setLength(result.length() - requestURI.length());
+				result.append(getRequestURI());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		Object result = super.getAttribute(name);
+		if (result == null && dispatched && name.startsWith(FORWARD)) {
+			String attribute = name.substring(FORWARD.length());
+			if ("request_uri".equals(attribute)) {
+				result = super.getRequestURI();
+			} else if ("context_path".equals(attribute)) {
+				result = super.getContextPath();
+			} else if ("servlet_path".equals(attribute)) {
+				result = super.getServletPath();
+			} else if ("path_info".equals(attribute)) {
+				result = super.getPathInfo();
+			} else if ("query_string".equals(attribute)) {
+				result = super.getQueryString();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String getServletPath() {
+		return dispatched ? servletPath : super.getServletPath();
+	}
+
+	@Override
+	public String getPathInfo() {
+		return dispatched ? pathInfo : super.getPathInfo();
+	}
 
-		InvocationHandler handler = new InvocationHandler() {
-
-			private HttpServletRequest request = httpServletRequest;
-			private int serverPort;
-			private boolean secure;
-			private String scheme;
-			private String host;
-			private String client;
-			private boolean initialised;
-
-			@Override
-			public Object invoke(Object proxy, Method method, Object[] args)
-					throws Throwable {
-
-				getRequestInformation();
-				String methodName = method.getName();
-				if (StringUtils.equals("getServerPort", methodName)) {
-					return serverPort;
-				} else if (StringUtils.equals("isSecure", methodName)) {
-					return secure;
-				} else if (StringUtils.equals("getScheme", methodName)) {
-					return scheme;
-				} else if (StringUtils.equals("getServerName", methodName)) {
-					return host;
-				} else if (StringUtils.equals("getRemoteHost", methodName)) {
-					return client;
+	@Override
+	public int getServerPort() {
+		getRequestInformation();
+		return serverPort;
+	}
+
+	@Override
+	public boolean isSecure() {
+		getRequestInformation();
+		return secure;
+	}
+
+	@Override
+	public String getScheme() {
+		getRequestInformation();
+		return scheme;
+	}
+
+	@Override
+	public String getServerName() {
+		getRequestInformation();
+		return host;
+	}
+
+	@Override
+	public String getRemoteHost() {
+		getRequestInformation();
+		return client;
+	}
+
+	private void getRequestInformation() {
+
+		if (!initialised) {
+
+			HttpServletRequest request = (HttpServletRequest) getRequest();
+
+			// URL components:
+			serverPort = request.getServerPort();
+			secure = request.isSecure();
+			scheme = request.getScheme();
+			host = request.getServerName();
+			client = request.getRemoteHost();
+
+			// Do we need to consider X-Forwarded-* headers?
+
+			String forwardedHost = request.getHeader("X-Forwarded-Host");
+			String forwardedScheme = request.getHeader("X-Forwarded-Proto");
+			String forwardedClient = request.getHeader("X-Forwarded-For");
+
+			// Update server name:
+			if (forwardedHost != null
+					&& !StringUtils.equals(forwardedHost, host)) {
+				host = forwardedHost;
+				log.debug("Host updated to: {}", host);
+			}
+
+			// Update request scheme and port:
+			if (forwardedScheme != null
+					&& !StringUtils.equals(forwardedScheme, scheme)) {
+				scheme = forwardedScheme;
+				// Assume standard https or http ports if it's been
+				// forwarded:
+				if (StringUtils.equalsIgnoreCase("https", scheme)) {
+					serverPort = 443;
+					secure = true;
 				} else {
-					// Invoke the method
-					return method.invoke(request, args);
+					serverPort = 80;
+					secure = false;
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Secure/Scheme/Port updated to: " + scheme + "/"
+							+ secure + "/" + serverPort);
 				}
 			}
 
-			private void getRequestInformation() {
-
-				if (!initialised) {
-
-					// URL components:
-					serverPort = request.getServerPort();
-					secure = request.isSecure();
-					scheme = request.getScheme();
-					host = request.getServerName();
-					client = request.getRemoteHost();
-
-					// Do we need to consider X-Forwarded-* headers?
-
-					String forwardedHost = request
-							.getHeader("X-Forwarded-Host");
-					String forwardedScheme = request
-							.getHeader("X-Forwarded-Proto");
-					String forwardedClient = request
-							.getHeader("X-Forwarded-For");
-
-					// Update server name:
-					if (forwardedHost != null
-							&& !StringUtils.equals(forwardedHost, host)) {
-						host = forwardedHost;
-						if (!ForwardedRequest.spoken) {
-							System.out.println("Host updated to: " + host);
-						}
-					}
-
-					// Update request scheme and port:
-					if (forwardedScheme != null
-							&& !StringUtils.equals(forwardedScheme, scheme)) {
-						scheme = forwardedScheme;
-						// Assume standard https or http ports if it's been
-						// forwarded:
-						if (StringUtils.equalsIgnoreCase("https", scheme)) {
-							serverPort = 443;
-							secure = true;
-						} else {
-							serverPort = 80;
-							secure = false;
-						}
-						if (!ForwardedRequest.spoken) {
-							System.out
-									.println("Secure/Scheme/Port updated to: "
-											+ scheme + "/" + secure + "/"
-											+ serverPort);
-						}
-					}
-
-					// Update client:
-					if (forwardedClient != null
-							&& !StringUtils.equals(forwardedClient, client)) {
-						client = forwardedClient;
-					}
-
-					ForwardedRequest.spoken = true;
-					initialised = true;
-				}
+			// Update client:
+			if (forwardedClient != null
+					&& !StringUtils.equals(forwardedClient, client)) {
+				client = forwardedClient;
 			}
 
-		};
-		Object proxy = Proxy.newProxyInstance(
-				ForwardedRequest.class.getClassLoader(),
-				new Class[] { HttpServletRequest.class }, handler);
-		return (HttpServletRequest) proxy;
+			initialised = true;
+		}
 	}
 }
@@ -0,0 +1,102 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import net.jirasystems.webulizor.metrics.RouteMetrics;
+
+/**
+ * {@link Connection} implementation that only gets a connection from
+ * {@link Database} when it's first used, so that actions which don't use
+ * the database don't cost a trip to the pool or the driver.
+ * <p>
+ * Until then, auto-commit is tracked locally and {@link Connection#commit()},
+ * {@link Connection#rollback()} and {@link Connection#close()} do nothing.
+ * Any other method gets a connection, applies the auto-commit setting and
+ * then calls the method on it.
+ *
+ * @author David Carboni
+ *
+ */
+public class LazyConnection {
+
+	/**
+	 * Creates a {@link Connection} which calls
+	 * {@link Database#getConnection(String)} on first use. As with that
+	 * method, auto-commit is initially off.
+	 *
+	 * @param name
+	 *            Identifies the connection if it isn't closed.
+	 * @return The lazy {@link Connection}.
+	 */
+	public static Connection create(final String name) {
+
+		InvocationHandler handler = new InvocationHandler() {
+
+			private Connection connection;
+			private boolean autoCommit;
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String methodName = method.getName();
+
+				// Identity, rather than that of the physical connection:
+				if (method.getDeclaringClass() == Object.class) {
+					if ("equals".equals(methodName)) {
+						return Boolean.valueOf(proxy == args[0]);
+					} else if ("hashCode".equals(methodName)) {
+						return Integer.valueOf(System.identityHashCode(proxy));
+					}
+					return "Lazy " + (connection == null ? name : connection);
+				}
+
+				// Nothing to do if the connection hasn't been used:
+				if (connection == null) {
+					if ("close".equals(methodName)) {
+						closed = true;
+						return null;
+					} else if ("isClosed".equals(methodName)) {
+						return Boolean.valueOf(closed);
+					} else if (closed) {
+						throw new SQLException("Connection is closed.");
+					} else if ("getAutoCommit".equals(methodName)) {
+						return Boolean.valueOf(autoCommit);
+					} else if ("setAutoCommit".equals(methodName)) {
+						autoCommit = ((Boolean) args[0]).booleanValue();
+						return null;
+					} else if ("commit".equals(methodName)
+							|| "rollback".equals(methodName)) {
+						return null;
+					}
+					connection = borrow();
+				}
+
+				try {
+					return method.invoke(connection, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+
+			private Connection borrow() throws SQLException {
+				long start = System.nanoTime();
+				Connection result = Database.getConnection(name);
+				if (autoCommit) {
+					result.setAutoCommit(true);
+				}
+				RouteMetrics.recordAcquire(System.nanoTime() - start);
+				return result;
+			}
+		};
+
+		return (Connection) Proxy.newProxyInstance(
+				LazyConnection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+	}
+}
@@ -0,0 +1,163 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warns about resources, such as database connections, that are not closed
+ * within a timeout.
+ * <p>
+ * Watches are held in a hashed timing wheel which is advanced by a single
+ * shared daemon thread, so starting and closing a watch are O(1) and create no
+ * threads. The thread is started by the first watch and stopped by
+ * {@link #shutdown()}. When a watch expires unclosed, a warning is logged along with the
+ * stack trace captured when the watch was started.
+ *
+ * @author David Carboni
+ *
+ */
+public class LeakDetector {
+
+	static final Logger log = LoggerFactory.getLogger(LeakDetector.class);
+
+	/** Milliseconds after which an unclosed resource is reported. */
+	public static final long TIMEOUT = 5000;
+
+	/** Milliseconds between wheel ticks. */
+	private static final long TICK = 500;
+
+	/** Number of ticks until a new watch expires. */
+	private static final int TIMEOUT_TICKS = (int) (TIMEOUT / TICK);
+
+	/**
+	 * Number of wheel buckets. This is larger than {@link #TIMEOUT_TICKS} so
+	 * every watch expires on the first pass over its bucket.
+	 */
+	private static final int WHEEL_SIZE = 2 * TIMEOUT_TICKS;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final ConcurrentLinkedQueue<Watch>[] wheel = new ConcurrentLinkedQueue[WHEEL_SIZE];
+	static {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<Watch>();
+		}
+	}
+
+	private static volatile long currentTick;
+
+	// Started when first needed, so it can be restarted after shutdown():
+	private static volatile ScheduledExecutorService ticker;
+
+	/**
+	 * Starts watching a resource.
+	 *
+	 * @param name
+	 *            Identifies the resource in the warning.
+	 * @return A {@link Watch}, which should be closed when the resource is
+	 *         closed.
+	 */
+	public static Watch watch(String name) {
+		if (ticker == null) {
+			start();
+		}
+		long deadline = currentTick + TIMEOUT_TICKS;
+		Watch watch = new Watch(name, deadline);
+		wheel[(int) (deadline % WHEEL_SIZE)].add(watch);
+		return watch;
+	}
+
+	/**
+	 * Stops the thread that advances the wheel and discards any current
+	 * watches. A later watch starts the thread again.
+	 */
+	public static synchronized void shutdown() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+		for (ConcurrentLinkedQueue<Watch> bucket : wheel) {
+			bucket.clear();
+		}
+	}
+
+	/**
+	 * Starts the thread that advances the wheel, unless it's already running.
+	 */
+	private static synchronized void start() {
+		if (ticker == null) {
+			ScheduledExecutorService executor = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"webulizor-leak-detector");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					tick();
+				}
+			}, TICK, TICK, TimeUnit.MILLISECONDS);
+			ticker = executor;
+		}
+	}
+
+	/**
+	 * Advances the wheel, reporting any watches in the current bucket that
+	 * have expired unclosed.
+	 */
+	private static void tick() {
+		long tick = ++currentTick;
+		ConcurrentLinkedQueue<Watch> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+
+		// Only process the watches present now. Anything added concurrently
+		// belongs to a later pass:
+		int count = bucket.size();
+		for (int i = 0; i < count; i++) {
+			Watch watch = bucket.poll();
+			if (watch == null) {
+				break;
+			} else if (watch.deadline > tick) {
+				bucket.add(watch);
+			} else if (!watch.closed) {
+				log.warn("Connection unclosed after " + (TIMEOUT / 1000)
+						+ " seconds: " + watch.name
+						+ ". It was opened here:", watch.origin);
+			}
+		}
+	}
+
+	/**
+	 * A watch on a single resource.
+	 */
+	public static class Watch {
+
+		private final String name;
+		private final long deadline;
+		private final Exception origin;
+		private volatile boolean closed;
+
+		Watch(String name, long deadline) {
+			this.name = name;
+			this.deadline = deadline;
+			origin = new Exception("Opened: " + name);
+		}
+
+		/**
+		 * Stops watching. The watch is discarded when its bucket is next
+		 * processed.
+		 */
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -2,6 +2,10 @@ package net.jirasystems.webulizor.helpers;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -10,15 +14,20 @@ import net.jirasystems.webulizor.framework.AppException;
 import net.jirasystems.webulizor.interfaces.Action;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.utils.URIBuilder;
 
 /**
  * Builds links, with an awareness of whether or not the context path should be
  * included. This makes it easier to deploy an application with a context path
  * behind a web server that uses e.g. URL rewriting to hide the context path.
- * 
+ * <p>
+ * Links are built by appending already-encoded strings, so the only parsing
+ * is a single {@link URI#create(String)} for methods that return a
+ * {@link URI}. The <code>href</code> methods return the {@link String} and
+ * skip that too. Use {@link #forRequest(ServletContext, HttpServletRequest)}
+ * to share one instance across a request.
+ *
  * @author David Carboni
- * 
+ *
  */
 public class Link {
 
@@ -31,8 +40,31 @@ public class Link {
 
 	private static final String separator = "/";
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Characters left unencoded in a path, as for URIBuilder. */
+	private static final BitSet PATH_SAFE = new BitSet(128);
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			PATH_SAFE.set(c);
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			PATH_SAFE.set(c);
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			PATH_SAFE.set(c);
+		}
+		for (char c : "_-!.~'()*,;:$&+=/@".toCharArray()) {
+			PATH_SAFE.set(c);
+		}
+	}
+
+	/** Encoded paths to actions, which are the same for every request. */
+	private static final Map<Class<? extends Action>, String> actionPaths = new ConcurrentHashMap<Class<? extends Action>, String>();
+
 	// Path information:
 	private String contextPath;
+	private final String encodedContextPath;
 
 	// URL information:
 	private int serverPort;
@@ -42,6 +74,11 @@ public class Link {
 	private String scheme;
 	private String host;
 
+	// Computed on first use:
+	private URI url;
+	private URI urlWithoutContext;
+	private String origin;
+
 	/**
 	 * @param action
 	 *            Used to determine the context path and URL information.
@@ -60,6 +97,7 @@ public class Link {
 		if (StringUtils.endsWith(contextPath, "/")) {
 			contextPath = contextPath.substring(0, contextPath.length() - 1);
 		}
+		encodedContextPath = encodePath(contextPath);
 
 		// URL information:
 		serverPort = request.getServerPort();
@@ -93,32 +131,85 @@ public class Link {
 		// }
 	}
 
+	/**
+	 * Gets a {@link Link} for the request, creating it on first use and
+	 * caching it as a request attribute.
+	 *
+	 * @param servletContext
+	 *            Used to determine the context path.
+	 * @param request
+	 *            Used to determine URL information.
+	 * @return A {@link Link} for the request.
+	 */
+	public static Link forRequest(ServletContext servletContext,
+			HttpServletRequest request) {
+		String attribute = Link.class.getName();
+		Object result = request.getAttribute(attribute);
+		if (!(result instanceof Link)) {
+			result = new Link(servletContext, request);
+			request.setAttribute(attribute, result);
+		}
+		return (Link) result;
+	}
+
+	/**
+	 * Generates an asset path as a {@link String}. See
+	 * {@link #resolve(String)}.
+	 *
+	 * @param path
+	 *            The path within the app context (i.e. excluding context path).
+	 * @return An absolute path within this host for the given context-relative
+	 *         path.
+	 */
+	public String href(String path) {
+		return path(encodePath(leadingSlash(path)), null);
+	}
+
+	/**
+	 * Generates a path to an {@link Action} as a {@link String}. See
+	 * {@link #resolve(Class)}.
+	 *
+	 * @param action
+	 *            The {@link Action} class to generate a link to.
+	 * @return An absolute path to the given {@link Action} within this host.
+	 */
+	public String href(Class<? extends Action> action) {
+		return path(actionPath(action), null);
+	}
+
+	/**
+	 * Generates a path to an {@link Action} as a {@link String}. See
+	 * {@link #resolve(Class, QueryString)}.
+	 *
+	 * @param action
+	 *            The {@link Action} class to generate a link to.
+	 * @param queryString
+	 *            A {@link QueryString} to be included in the result.
+	 * @return An absolute path to the given {@link Action} within this host.
+	 */
+	public String href(Class<? extends Action> action, QueryString queryString) {
+		return path(actionPath(action), queryString);
+	}
+
 	/**
 	 * Generates an asset path, e.g. for a CSS or image file. Allows resources
 	 * to be reliably referenced, taking into account whether
 	 * {@link #DROP_CONTEXT} is true or false.
-	 * 
+	 *
 	 * @param path
 	 *            The path within the app context (i.e. excluding context path).
 	 * @return An absolute path within this host for the given context-relative
 	 *         path.
 	 */
 	public URI resolve(String path) {
-		URIBuilder builder = new URIBuilder();
-		String fullPath = contextPath + leadingSlash(path);
-		builder.setPath(fullPath);
-		try {
-			return builder.build();
-		} catch (URISyntaxException e) {
-			throw new AppException("Unable to build URI for path " + path, e);
-		}
+		return create(href(path), path);
 	}
 
 	/**
 	 * Generates an asset path, e.g. for a CSS or image file. Allows resources
 	 * to be reliably referenced, taking into account whether
 	 * {@link #DROP_CONTEXT} is true or false.
-	 * 
+	 *
 	 * @param path
 	 *            The path within the app context (i.e. excluding context path).
 	 * @param queryString
@@ -127,45 +218,41 @@ public class Link {
 	 *         path.
 	 */
 	public URI resolve(String path, QueryString queryString) {
-		URIBuilder builder = new URIBuilder();
-		String fullPath = contextPath + leadingSlash(path);
-		builder.setPath(fullPath);
-		if (queryString != null) {
-			builder.setParameters(queryString);
-		}
-		try {
-			return builder.build();
-		} catch (URISyntaxException e) {
-			throw new AppException("Unable to build URI for path " + path, e);
-		}
+		return create(path(encodePath(leadingSlash(path)), queryString), path);
+	}
+
+	/**
+	 * Generates a fingerprinted asset path, if the asset is in the
+	 * {@link AssetManifest}, so that browsers can cache it indefinitely.
+	 * Otherwise this is the same as {@link #resolve(String)}.
+	 *
+	 * @param path
+	 *            The path within the app context (i.e. excluding context path).
+	 * @return An absolute path within this host for the given context-relative
+	 *         path.
+	 */
+	public URI asset(String path) {
+		return resolve(AssetManifest.get(leadingSlash(path)));
 	}
 
 	/**
 	 * Generates a path to an {@link Action}. Allows actions to be reliably
 	 * referenced, taking into account whether {@link #DROP_CONTEXT} is true or
 	 * false.
-	 * 
+	 *
 	 * @param action
 	 *            The {@link Action} class to generate a link to.
 	 * @return An absolute path to the given {@link Action} within this host.
 	 */
 	public URI resolve(Class<? extends Action> action) {
-		URIBuilder builder = new URIBuilder();
-		String fullPath = contextPath + leadingSlash(Path.getPath(action));
-		builder.setPath(fullPath);
-		try {
-			return builder.build();
-		} catch (URISyntaxException e) {
-			throw new AppException("Unable to build URI for "
-					+ Action.class.getSimpleName() + " " + action.getName(), e);
-		}
+		return create(href(action), action);
 	}
 
 	/**
 	 * Generates a path to an {@link Action}. Allows actions to be reliably
 	 * referenced, taking into account whether {@link #DROP_CONTEXT} is true or
 	 * false.
-	 * 
+	 *
 	 * @param action
 	 *            The {@link Action} class to generate a link to.
 	 * @param queryString
@@ -173,39 +260,27 @@ public class Link {
 	 * @return An absolute path to the given {@link Action} within this host.
 	 */
 	public URI resolve(Class<? extends Action> action, QueryString queryString) {
-		URIBuilder builder = new URIBuilder();
-		String fullPath = contextPath + leadingSlash(Path.getPath(action));
-		builder.setPath(fullPath);
-		if (queryString != null) {
-			builder.setParameters(queryString);
-		}
-		try {
-			return builder.build();
-		} catch (URISyntaxException e) {
-			throw new AppException("Unable to build URI for "
-					+ Action.class.getSimpleName() + " " + action.getName(), e);
-		}
+		return create(href(action, queryString), action);
 	}
 
 	/**
 	 * Generates an absolute URL to an {@link Action}. Allows URLs to be
 	 * reliably referenced, taking into account whether {@link #DROP_CONTEXT} is
 	 * true or false.
-	 * 
+	 *
 	 * @param action
 	 *            The {@link Action} class to generate a URL for.
 	 * @return The URL.
 	 */
 	public URI url(Class<? extends Action> action) {
-		URI path = resolve(action);
-		return url().resolve(path);
+		return url(action, null);
 	}
 
 	/**
 	 * Generates an absolute URL to an {@link Action}. Allows URLs to be
 	 * reliably referenced, taking into account whether {@link #DROP_CONTEXT} is
 	 * true or false.
-	 * 
+	 *
 	 * @param action
 	 *            The {@link Action} class to generate a URL for.
 	 * @param queryString
@@ -213,16 +288,22 @@ public class Link {
 	 * @return The URL.
 	 */
 	public URI url(Class<? extends Action> action, QueryString queryString) {
-		URIBuilder builder = new URIBuilder();
-		URI path = resolve(action, queryString);
-		builder.setPath(path.getPath());
-		builder.setParameters(queryString);
-		try {
-			return url().resolve(builder.build());
-		} catch (URISyntaxException e) {
-			throw new AppException("Error building URL: path=" + path
-					+ ", query=" + queryString.toQueryString(), e);
-		}
+		return absolute(href(action, queryString), action);
+	}
+
+	/**
+	 * Generates an absolute URL for a path within the app, taking into account
+	 * whether {@link #DROP_CONTEXT} is true or false.
+	 *
+	 * @param path
+	 *            The path within the app context (i.e. excluding context path).
+	 * @param queryString
+	 *            A query to be appended to the URL. Can be null.
+	 * @return The URL.
+	 */
+	public URI url(String path, QueryString queryString) {
+		return absolute(path(encodePath(leadingSlash(path)), queryString),
+				path);
 	}
 
 	/**
@@ -230,6 +311,36 @@ public class Link {
 	 */
 	public URI url() {
 
+		// NB DROP_CONTEXT is checked on each call:
+		if (DROP_CONTEXT) {
+			if (urlWithoutContext == null) {
+				urlWithoutContext = buildUrl(separator);
+			}
+			return urlWithoutContext;
+		}
+		if (url == null) {
+			url = buildUrl(contextPath);
+		}
+		return url;
+	}
+
+	/**
+	 * @return The scheme, host and port (if needed) of the application URL,
+	 *         e.g. <code>http://localhost:8080</code>, or null if there is no
+	 *         host.
+	 */
+	private String origin() {
+		if (origin == null) {
+			URI base = url();
+			if (base.getScheme() != null && base.getRawAuthority() != null) {
+				origin = base.getScheme() + "://" + base.getRawAuthority();
+			}
+		}
+		return origin;
+	}
+
+	private URI buildUrl(String path) {
+
 		int port;
 		if ((!secure && serverPort == 80) || (secure && serverPort == 443)) {
 			port = -1;
@@ -237,12 +348,6 @@ public class Link {
 			port = serverPort;
 		}
 		String userInfo = null;
-		String path;
-		if (DROP_CONTEXT) {
-			path = separator;
-		} else {
-			path = contextPath;
-		}
 		String query = null;
 		String fragment = null;
 
@@ -257,14 +362,113 @@ public class Link {
 		}
 	}
 
+	/**
+	 * Builds a path within this host from encoded parts.
+	 *
+	 * @param encodedPath
+	 *            The encoded path within the app context.
+	 * @param queryString
+	 *            Can be null.
+	 * @return The context path, path and query string.
+	 */
+	private String path(String encodedPath, QueryString queryString) {
+		StringBuilder result = new StringBuilder(encodedContextPath.length()
+				+ encodedPath.length() + 32);
+		result.append(encodedContextPath);
+		result.append(encodedPath);
+
+		// Collapse multiple leading slashes, as URIBuilder does:
+		int slashes = 0;
+		while (slashes < result.length() && result.charAt(slashes) == '/') {
+			slashes++;
+		}
+		if (slashes > 1) {
+			result.delete(0, slashes - 1);
+		}
+
+		if (queryString != null) {
+			result.append('?');
+			queryString.appendTo(result);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return The encoded path to the action, computed once per class.
+	 */
+	private static String actionPath(Class<? extends Action> action) {
+		String result = actionPaths.get(action);
+		if (result == null) {
+			result = encodePath(leadingSlash(Path.getPath(action)));
+			actionPaths.put(action, result);
+		}
+		return result;
+	}
+
+	private URI absolute(String path, Object source) {
+		String origin = origin();
+		if (origin == null) {
+			// No host, so let URI work out what it can:
+			return url().resolve(create(path, source));
+		}
+		return create(origin + path, source);
+	}
+
+	private static URI create(String uri, Object source) {
+		try {
+			return URI.create(uri);
+		} catch (IllegalArgumentException e) {
+			String description = source instanceof Class ? Action.class
+					.getSimpleName() + " " + ((Class<?>) source).getName()
+					: "path " + source;
+			throw new AppException("Unable to build URI for " + description, e);
+		}
+	}
+
+	/**
+	 * Percent-encodes the UTF-8 bytes of any characters that aren't safe in a
+	 * path.
+	 */
+	static String encodePath(String path) {
+
+		// Most paths need no encoding:
+		int i = 0;
+		while (i < path.length() && isPathSafe(path.charAt(i))) {
+			i++;
+		}
+		if (i == path.length()) {
+			return path;
+		}
+
+		StringBuilder result = new StringBuilder(path.length() + 16);
+		result.append(path, 0, i);
+		for (byte b : path.substring(i).getBytes(UTF8)) {
+			int c = b & 0xFF;
+			if (isPathSafe((char) c)) {
+				result.append((char) c);
+			} else {
+				result.append('%');
+				result.append(Character.toUpperCase(Character.forDigit(
+						(c >> 4) & 0xF, 16)));
+				result.append(Character.toUpperCase(Character.forDigit(
+						c & 0xF, 16)));
+			}
+		}
+		return result.toString();
+	}
+
+	private static boolean isPathSafe(char c) {
+		return c < 128 && PATH_SAFE.get(c);
+	}
+
 	/**
 	 * Ensures this path has a leading slash.
-	 * 
+	 *
 	 * @param path
 	 *            The path.
 	 * @return Either the given path, or {@value #separator}+path.
 	 */
-	private String leadingSlash(String path) {
+	private static String leadingSlash(String path) {
 		String result;
 		if (path.startsWith(separator)) {
 			result = path;
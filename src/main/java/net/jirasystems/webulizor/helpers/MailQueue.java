@@ -0,0 +1,469 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends email in the background.
+ * <p>
+ * Queued messages are sent by worker threads. Each worker takes whatever
+ * messages are due, up to {@link #BATCH_SIZE}, and sends them over a single
+ * connection to the mail server. Messages that fail are retried with an
+ * exponential backoff, starting at {@link #RETRY_DELAY}, up to
+ * {@link #MAX_ATTEMPTS} times.
+ * <p>
+ * If {@link #OUTBOX} is set and the {@link Database} has been initialised,
+ * queued messages are also stored in the {@value #OUTBOX_TABLE} table until
+ * they are sent, along with the number of attempts made, so they survive a
+ * restart. Otherwise, anything still queued at shutdown is lost.
+ * <p>
+ * NB messages are saved to the outbox using a connection of their own, which
+ * is committed straight away, so a message is sent even if the transaction
+ * of the request that queued it is rolled back. Queue messages once the work
+ * they relate to can no longer fail.
+ *
+ * @author David Carboni
+ *
+ */
+public class MailQueue {
+
+	static final Logger log = LoggerFactory.getLogger(MailQueue.class);
+
+	/** The name of the outbox table. */
+	public static final String OUTBOX_TABLE = "WEBULIZOR_OUTBOX";
+
+	/**
+	 * The number of worker threads. Set this before the queue is created.
+	 */
+	public static int WORKERS = 1;
+
+	/**
+	 * The maximum number of messages sent over one connection.
+	 */
+	public static int BATCH_SIZE = 20;
+
+	/**
+	 * The number of times a message is tried before it is abandoned.
+	 */
+	public static int MAX_ATTEMPTS = 5;
+
+	/**
+	 * Milliseconds before the first retry. This doubles for each further
+	 * retry.
+	 */
+	public static long RETRY_DELAY = 30 * 1000;
+
+	/**
+	 * Whether to keep queued messages in the database. Set this before the
+	 * queue is created.
+	 */
+	public static boolean OUTBOX = false;
+
+	private final Session session;
+	private final DelayQueue<Mail> queue = new DelayQueue<Mail>();
+	private final boolean outbox;
+	private final Thread[] workers;
+	private volatile boolean running;
+
+	/**
+	 * Creates a queue. Call {@link #start()} to begin sending.
+	 *
+	 * @param config
+	 *            JavaMail configuration, such as <code>mail.host</code>.
+	 */
+	public MailQueue(Properties config) {
+		session = Session.getInstance(config);
+		outbox = OUTBOX && Database.getConnectionPool() != null;
+		workers = new Thread[Math.max(1, WORKERS)];
+		if (outbox) {
+			createOutbox();
+			loadOutbox();
+		}
+	}
+
+	/**
+	 * Starts the worker threads.
+	 */
+	public synchronized void start() {
+		if (!running) {
+			running = true;
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						work();
+					}
+				}, "webulizor-mailer-" + i);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker threads, waiting briefly for any batch in progress.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		for (Thread worker : workers) {
+			if (worker != null) {
+				worker.interrupt();
+			}
+		}
+		for (Thread worker : workers) {
+			if (worker != null) {
+				try {
+					worker.join(5000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues an email. If there is an outbox, the message is committed to it
+	 * independently of any transaction in progress.
+	 *
+	 * @param from
+	 *            Sender.
+	 * @param to
+	 *            Recipient.
+	 * @param subject
+	 *            Message subject.
+	 * @param body
+	 *            Message text.
+	 */
+	public void enqueue(String from, String to, String subject, String body) {
+		Mail mail = new Mail(UUID.randomUUID().toString(), from, to, subject,
+				body);
+		if (outbox) {
+			save(mail);
+		}
+		queue.add(mail);
+	}
+
+	/**
+	 * @return The number of messages waiting to be sent, including those
+	 *         waiting to be retried.
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+
+	/**
+	 * Sends batches of messages until the queue is shut down.
+	 */
+	void work() {
+		while (running) {
+			List<Mail> batch = new ArrayList<Mail>();
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch, BATCH_SIZE - 1);
+			try {
+				send(batch);
+			} catch (RuntimeException e) {
+				// Keep the worker running for the rest of the queue:
+				log.error("Error sending emails", e);
+			}
+		}
+	}
+
+	/**
+	 * Sends the given messages over one connection.
+	 */
+	private void send(List<Mail> batch) {
+
+		Transport transport;
+		try {
+			transport = session.getTransport("smtp");
+			transport.connect();
+		} catch (MessagingException e) {
+			log.warn("Unable to connect to the mail server", e);
+			for (Mail mail : batch) {
+				retry(mail);
+			}
+			return;
+		}
+
+		try {
+			for (Mail mail : batch) {
+				try {
+					Message message = Mailer.newMessage(session, mail.from,
+							mail.to, mail.subject, mail.body);
+					transport.sendMessage(message, message.getAllRecipients());
+					remove(mail);
+				} catch (AddressException e) {
+					// Retrying won't help:
+					log.error("Abandoning email to " + mail.to, e);
+					remove(mail);
+				} catch (MessagingException e) {
+					log.warn("Unable to send email to " + mail.to, e);
+					retry(mail);
+				}
+			}
+		} finally {
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				log.debug("Error closing mail server connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Queues the message to be tried again later, unless it has run out of
+	 * attempts.
+	 */
+	private void retry(Mail mail) {
+		mail.attempts++;
+		if (mail.attempts >= MAX_ATTEMPTS) {
+			log.error("Abandoning email to " + mail.to + " after "
+					+ mail.attempts + " attempts.");
+			remove(mail);
+		} else {
+			updateAttempts(mail);
+			long delay = RETRY_DELAY << Math.min(mail.attempts - 1, 16);
+			mail.due = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(delay);
+			queue.add(mail);
+		}
+	}
+
+	/**
+	 * Creates the outbox table if it doesn't exist.
+	 */
+	private void createOutbox() {
+		Connection connection = null;
+		try {
+			connection = Database.getConnection("mail outbox");
+			DatabaseMetaData metaData = connection.getMetaData();
+			ResultSet tables = metaData.getTables(null, null, OUTBOX_TABLE,
+					null);
+			try {
+				if (tables.next()) {
+					return;
+				}
+			} finally {
+				tables.close();
+			}
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate("CREATE TABLE " + OUTBOX_TABLE
+						+ " (ID VARCHAR(36) PRIMARY KEY,"
+						+ " SENDER VARCHAR(320), RECIPIENT VARCHAR(320),"
+						+ " SUBJECT VARCHAR(1000), BODY LONGVARCHAR,"
+						+ " ATTEMPTS INT DEFAULT 0 NOT NULL)");
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			log.warn("Unable to create the mail outbox", e);
+		} catch (RuntimeException e) {
+			log.warn("Unable to create the mail outbox", e);
+		} finally {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Queues any messages left in the outbox, with the number of attempts
+	 * already made to send them.
+	 */
+	private void loadOutbox() {
+		Connection connection = null;
+		try {
+			connection = Database.getConnection("mail outbox");
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet resultSet = statement
+						.executeQuery("SELECT ID, SENDER, RECIPIENT, SUBJECT, BODY, ATTEMPTS FROM "
+								+ OUTBOX_TABLE);
+				int count = 0;
+				while (resultSet.next()) {
+					Mail mail = new Mail(resultSet.getString(1),
+							resultSet.getString(2), resultSet.getString(3),
+							resultSet.getString(4), resultSet.getString(5));
+					mail.attempts = resultSet.getInt(6);
+					queue.add(mail);
+					count++;
+				}
+				if (count > 0) {
+					log.info("Queued " + count + " emails from the outbox.");
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			log.warn("Unable to read the mail outbox", e);
+		} catch (RuntimeException e) {
+			log.warn("Unable to read the mail outbox", e);
+		} finally {
+			close(connection);
+		}
+	}
+
+	private void save(Mail mail) {
+		Connection connection = null;
+		try {
+			connection = Database.getConnection("mail outbox");
+			PreparedStatement statement = connection
+					.prepareStatement("INSERT INTO " + OUTBOX_TABLE
+							+ " (ID, SENDER, RECIPIENT, SUBJECT, BODY)"
+							+ " VALUES (?, ?, ?, ?, ?)");
+			try {
+				statement.setString(1, mail.id);
+				statement.setString(2, mail.from);
+				statement.setString(3, mail.to);
+				statement.setString(4, mail.subject);
+				statement.setString(5, mail.body);
+				statement.executeUpdate();
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			log.warn("Unable to save email to " + mail.to + " in the outbox",
+					e);
+		} catch (RuntimeException e) {
+			// Still queued in memory:
+			log.warn("Unable to save email to " + mail.to + " in the outbox",
+					e);
+		} finally {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Records a failed attempt in the outbox, so that {@link #MAX_ATTEMPTS}
+	 * holds across restarts.
+	 */
+	private void updateAttempts(Mail mail) {
+		if (!outbox) {
+			return;
+		}
+		Connection connection = null;
+		try {
+			connection = Database.getConnection("mail outbox");
+			PreparedStatement statement = connection
+					.prepareStatement("UPDATE " + OUTBOX_TABLE
+							+ " SET ATTEMPTS = ? WHERE ID = ?");
+			try {
+				statement.setInt(1, mail.attempts);
+				statement.setString(2, mail.id);
+				statement.executeUpdate();
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			log.warn("Unable to update email to " + mail.to
+					+ " in the outbox", e);
+		} catch (RuntimeException e) {
+			log.warn("Unable to update email to " + mail.to
+					+ " in the outbox", e);
+		} finally {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Removes a message from the outbox once it has been sent or abandoned.
+	 */
+	private void remove(Mail mail) {
+		if (!outbox) {
+			return;
+		}
+		Connection connection = null;
+		try {
+			connection = Database.getConnection("mail outbox");
+			PreparedStatement statement = connection
+					.prepareStatement("DELETE FROM " + OUTBOX_TABLE
+							+ " WHERE ID = ?");
+			try {
+				statement.setString(1, mail.id);
+				statement.executeUpdate();
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			log.warn("Unable to remove email to " + mail.to
+					+ " from the outbox", e);
+		} catch (RuntimeException e) {
+			log.warn("Unable to remove email to " + mail.to
+					+ " from the outbox", e);
+		} finally {
+			close(connection);
+		}
+	}
+
+	private static void close(Connection connection) {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.debug("Error closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * A queued message, which becomes available when it is due.
+	 */
+	private static class Mail implements Delayed {
+
+		final String id;
+		final String from;
+		final String to;
+		final String subject;
+		final String body;
+		int attempts;
+		volatile long due = System.nanoTime();
+
+		Mail(String id, String from, String to, String subject, String body) {
+			this.id = id;
+			this.from = from;
+			this.to = to;
+			this.subject = subject;
+			this.body = body;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			long difference = getDelay(TimeUnit.NANOSECONDS)
+					- other.getDelay(TimeUnit.NANOSECONDS);
+			return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+		}
+	}
+}
@@ -19,11 +19,12 @@ import com.sun.mail.smtp.SMTPMessage;
  */
 public final class Mailer {
 
-	private static Properties fMailServerConfig = new Properties();
+	private static Properties fMailServerConfig;
+	private static MailQueue queue;
 
 	/**
-	 * Send email.
-	 * 
+	 * Send email in the background, using a shared {@link MailQueue}.
+	 *
 	 * @param from
 	 *            Sender.
 	 * @param to
@@ -34,35 +35,77 @@ public final class Mailer {
 	 *            Message text.
 	 */
 	public void sendEmail(String from, String to, String subject, String body) {
-		Session session = Session.getDefaultInstance(fetchConfig(), null);
-		SMTPMessage message = new SMTPMessage(session);
+		getQueue().enqueue(from, to, subject, body);
+	}
+
+	/**
+	 * Send email now, on the calling thread.
+	 *
+	 * @param from
+	 *            Sender.
+	 * @param to
+	 *            Recipient.
+	 * @param subject
+	 *            Message subject.
+	 * @param body
+	 *            Message text.
+	 * @throws AppException
+	 *             If the message cannot be sent.
+	 */
+	public void sendEmailNow(String from, String to, String subject, String body) {
+		Session session = Session.getInstance(fetchConfig());
 		try {
-			InternetAddress fromAddress = new InternetAddress(from);
-			message.setSender(fromAddress);
-			message.setEnvelopeFrom(fromAddress.getAddress());
-			message.addRecipient(Message.RecipientType.TO, new InternetAddress(
-					to));
-			message.setSubject(subject);
-			message.setText(body);
-			Transport.send(message);
+			Transport.send(newMessage(session, from, to, subject, body));
 		} catch (MessagingException ex) {
 			throw new AppException("Cannot send email. " + ex);
 		}
 	}
 
+	/**
+	 * Builds a plain text message.
+	 */
+	static Message newMessage(Session session, String from, String to, String subject, String body)
+			throws MessagingException {
+		SMTPMessage message = new SMTPMessage(session);
+		InternetAddress fromAddress = new InternetAddress(from);
+		message.setSender(fromAddress);
+		message.setEnvelopeFrom(fromAddress.getAddress());
+		message.addRecipient(Message.RecipientType.TO, new InternetAddress(to));
+		message.setSubject(subject);
+		message.setText(body);
+		return message;
+	}
+
+	/**
+	 * @return The shared {@link MailQueue}, which is created and started on
+	 *         first use.
+	 */
+	public static synchronized MailQueue getQueue() {
+		if (queue == null) {
+			queue = new MailQueue(fetchConfig());
+			queue.start();
+		}
+		return queue;
+	}
+
+	/**
+	 * Stops the shared {@link MailQueue}, if it has been started.
+	 */
+	public static synchronized void shutdown() {
+		if (queue != null) {
+			queue.shutdown();
+			queue = null;
+		}
+	}
+
 	/**
 	 * Load <code>/mail.properties</code>.
 	 */
-	private Properties fetchConfig() {
+	private static synchronized Properties fetchConfig() {
 		if (fMailServerConfig == null) {
 			String name = "/mail.properties";
 			try {
-				fMailServerConfig = ResourceUtil
-						.getProperties("/mail.properties");
-				// Properties result = new Properties(fMailServerConfig);
-				// result.putAll(System.getProperties());
-				// result.putAll(fMailServerConfig);
-				// fMailServerConfig = result;
+				fMailServerConfig = ResourceUtil.getProperties(name);
 			} catch (IOException ex) {
 				throw new RuntimeException("Cannot open " + name);
 			}
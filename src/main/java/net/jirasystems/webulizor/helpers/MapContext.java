@@ -0,0 +1,92 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.velocity.context.Context;
+
+/**
+ * A Velocity {@link Context} that reads through to template data and a map of
+ * defaults, so that neither needs to be copied into a new context.
+ * <p>
+ * Values are looked up in the data, then in the defaults. Values set by the template (e.g.
+ * by <code>#set</code> or <code>#foreach</code>) are held locally, so the
+ * wrapped maps are never changed and can be shared between renders.
+ *
+ * @author David Carboni
+ *
+ */
+public class MapContext implements Context {
+
+	private final Map<String, Object> data;
+	private final Map<String, Object> defaults;
+	private Map<String, Object> local;
+
+	/**
+	 * @param data
+	 *            The values to read first. Can be null.
+	 * @param defaults
+	 *            The values to read if they're not in the data. Can be null.
+	 */
+	public MapContext(Map<String, Object> data, Map<String, Object> defaults) {
+		this.data = data;
+		this.defaults = defaults;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		if (local == null) {
+			local = new HashMap<String, Object>();
+		}
+		return local.put(key, value);
+	}
+
+	@Override
+	public Object get(String key) {
+		if (local != null) {
+			Object value = local.get(key);
+			if (value != null || local.containsKey(key)) {
+				return value;
+			}
+		}
+		Object value = data == null ? null : data.get(key);
+		if (value == null && defaults != null) {
+			value = defaults.get(key);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (local != null && local.containsKey(key)) {
+			return true;
+		}
+		return (data != null && data.containsKey(key))
+				|| (defaults != null && defaults.containsKey(key));
+	}
+
+	@Override
+	public Object[] getKeys() {
+		Set<Object> keys = new LinkedHashSet<Object>();
+		if (local != null) {
+			keys.addAll(local.keySet());
+		}
+		if (data != null) {
+			keys.addAll(data.keySet());
+		}
+		if (defaults != null) {
+			keys.addAll(defaults.keySet());
+		}
+		return keys.toArray();
+	}
+
+	/**
+	 * Removes a value set by the template. The wrapped maps are not changed.
+	 */
+	@Override
+	public Object remove(Object key) {
+		return local == null ? null : local.remove(key);
+	}
+}
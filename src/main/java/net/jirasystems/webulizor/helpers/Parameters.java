@@ -2,7 +2,6 @@ package net.jirasystems.webulizor.helpers;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -52,46 +51,32 @@ public class Parameters {
 
 		if (parameters != null) {
 
-			// Get the list of fields:
-			List<Field> fields = getAllFields(parameters.getClass());
+			// Get the compiled bindings and read the parameter map once:
+			Binding[] bindings = getBindings(parameters.getClass());
+			Map<?, ?> parameterMap = request.getParameterMap();
 
-			for (Field field : fields) {
-
-				// Get parameter information:
-				String name = getName(field);
-				boolean required = field.getAnnotation(Parameter.class).required();
+			for (Binding binding : bindings) {
 
-				if (request.getParameterMap().containsKey(name)) {
+				Object values = parameterMap.get(binding.name);
+				if (values != null || parameterMap.containsKey(binding.name)) {
 
 					// The parameter value:
-					String value = request.getParameter(name);
-
-					// The field type:
-					Class<?> type = field.getType();
+					String value;
+					if (values instanceof String[]) {
+						String[] array = (String[]) values;
+						value = array.length > 0 ? array[0] : null;
+					} else {
+						value = request.getParameter(binding.name);
+					}
 
 					// Populate the field:
-					field.setAccessible(true);
 					try {
-						if (String.class.isAssignableFrom(type)) {
-							result = update(required, getString(field, parameters, value));
-						} else if (Integer.class.isAssignableFrom(type) || int.class.isAssignableFrom(type)) {
-							result &= update(required, getInteger(field, parameters, value));
-						} else if (Long.class.isAssignableFrom(type) || long.class.isAssignableFrom(type)) {
-							result &= update(required, getLong(field, parameters, value));
-						} else if (Boolean.class.isAssignableFrom(type) || boolean.class.isAssignableFrom(type)) {
-							result &= update(required, getBoolean(field, parameters, value));
-						} else if (Enum.class.isAssignableFrom(type)) {
-							result &= update(required, getEnum(field, parameters, value));
-						} else {
-							throw new IllegalArgumentException("Unable to handle type " + type.getName());
-						}
+						result &= update(binding.required, binding.set(parameters, value));
 					} catch (IllegalAccessException e) {
-						log.warn("For some reason " + field.getName() + " cant' be accessed", e);
-					} finally {
-						field.setAccessible(false);
+						log.warn("For some reason " + binding.field.getName() + " cant' be accessed", e);
 					}
 
-				} else if (required) {
+				} else if (binding.required) {
 
 					// Required field not present in the request:
 					result = false;
@@ -117,145 +102,95 @@ public class Parameters {
 	}
 
 	/**
-	 * Processes the value as a {@link String}.
+	 * Selects a {@link Converter} for the given field type.
 	 * 
-	 * @param field
-	 *            The {@link Field} to be set.
-	 * @param parameters
-	 *            The instance in which the {@link Field} will be set.
-	 * @param value
-	 *            The value to set in the {@link Field}.
-	 * @return If the value is not empty, true.
-	 * @throws IllegalArgumentException
-	 *             If an error occurs in setting the {@link Field}
-	 * @throws IllegalAccessException
-	 *             If an error occurs in setting the {@link Field}
+	 * @param type
+	 *            The field type.
+	 * @return A {@link Converter}, or null if the type is not supported.
 	 */
-	private static boolean getString(Field field, Object parameters, String value) throws IllegalArgumentException,
-			IllegalAccessException {
-		boolean result;
-		if (StringUtils.isNotEmpty(value)) {
-			field.set(parameters, value);
-			result = true;
+	private static Converter getConverter(final Class<?> type) {
+		Converter result;
+
+		if (String.class.isAssignableFrom(type)) {
+			result = STRING;
+		} else if (Integer.class.isAssignableFrom(type) || int.class.isAssignableFrom(type)) {
+			result = INTEGER;
+		} else if (Long.class.isAssignableFrom(type) || long.class.isAssignableFrom(type)) {
+			result = LONG;
+		} else if (Boolean.class.isAssignableFrom(type) || boolean.class.isAssignableFrom(type)) {
+			result = BOOLEAN;
+		} else if (Enum.class.isAssignableFrom(type)) {
+			result = new Converter() {
+				@Override
+				Object convert(String value, String name) {
+					try {
+						@SuppressWarnings({"unchecked", "rawtypes"})
+						Enum<?> constant = Enum.valueOf((Class<Enum>) type, value);
+						return constant;
+					} catch (IllegalArgumentException e) {
+						log.warn("Unable to convert value [" + value + "] of parameter " + name
+								+ " into an enum constant for " + type);
+						return null;
+					}
+				}
+			};
 		} else {
-			result = false;
+			result = null;
 		}
+
 		return result;
 	}
 
 	/**
-	 * Processes the value as an {@link Integer}.
-	 * 
-	 * @param field
-	 *            The {@link Field} to be set.
-	 * @param parameters
-	 *            The instance in which the {@link Field} will be set.
-	 * @param value
-	 *            The value to set in the {@link Field}.
-	 * @return If the value can be parsed as an {@link Integer}, true.
-	 * @throws IllegalArgumentException
-	 *             If an error occurs in setting the {@link Field}
-	 * @throws IllegalAccessException
-	 *             If an error occurs in setting the {@link Field}
+	 * Processes the value as a {@link String}. Empty values are not set.
 	 */
-	private static boolean getInteger(Field field, Object parameters, String value) throws IllegalArgumentException,
-			IllegalAccessException {
-		boolean result;
-		try {
-			field.set(parameters, Integer.valueOf(value));
-			result = true;
-		} catch (NumberFormatException e) {
-			log.warn("Unable to parse value [" + value + "] of parameter " + getName(field) + " as an integer");
-			result = false;
+	private static final Converter STRING = new Converter() {
+		@Override
+		Object convert(String value, String name) {
+			return StringUtils.isNotEmpty(value) ? value : null;
 		}
-		return result;
-	}
+	};
 
 	/**
 	 * Processes the value as an {@link Integer}.
-	 * 
-	 * @param field
-	 *            The {@link Field} to be set.
-	 * @param parameters
-	 *            The instance in which the {@link Field} will be set.
-	 * @param value
-	 *            The value to set in the {@link Field}.
-	 * @return If the value can be parsed as an {@link Integer}, true.
-	 * @throws IllegalArgumentException
-	 *             If an error occurs in setting the {@link Field}
-	 * @throws IllegalAccessException
-	 *             If an error occurs in setting the {@link Field}
 	 */
-	private static boolean getLong(Field field, Object parameters, String value) throws IllegalArgumentException,
-			IllegalAccessException {
-		boolean result;
-		try {
-			field.set(parameters, Long.valueOf(value));
-			result = true;
-		} catch (NumberFormatException e) {
-			log.warn("Unable to parse value [" + value + "] of parameter " + getName(field) + " as a long");
-			result = false;
+	private static final Converter INTEGER = new Converter() {
+		@Override
+		Object convert(String value, String name) {
+			try {
+				return Integer.valueOf(value);
+			} catch (NumberFormatException e) {
+				log.warn("Unable to parse value [" + value + "] of parameter " + name + " as an integer");
+				return null;
+			}
 		}
-		return result;
-	}
+	};
 
 	/**
-	 * Processes the value as a {@link Boolean}.
-	 * 
-	 * @param field
-	 *            The {@link Field} to be set.
-	 * @param parameters
-	 *            The instance in which the {@link Field} will be set.
-	 * @param value
-	 *            The value to set in the {@link Field}.
-	 * @return If the value can be parsed as a {@link Boolean}, according to
-	 *         {@link BooleanUtils#toBooleanObject(boolean)}, true.
-	 * @throws IllegalArgumentException
-	 *             If an error occurs in setting the {@link Field}
-	 * @throws IllegalAccessException
-	 *             If an error occurs in setting the {@link Field}
+	 * Processes the value as a {@link Long}.
 	 */
-	private static boolean getBoolean(Field field, Object parameters, String value) throws IllegalArgumentException,
-			IllegalAccessException {
-		boolean result;
-		Boolean booleanValue = BooleanUtils.toBooleanObject(value);
-		if (booleanValue != null) {
-			field.set(parameters, booleanValue);
-			result = true;
-		} else {
-			result = false;
+	private static final Converter LONG = new Converter() {
+		@Override
+		Object convert(String value, String name) {
+			try {
+				return Long.valueOf(value);
+			} catch (NumberFormatException e) {
+				log.warn("Unable to parse value [" + value + "] of parameter " + name + " as a long");
+				return null;
+			}
 		}
-		return result;
-	}
+	};
 
 	/**
-	 * Processes the value as a {@link Boolean}.
-	 * 
-	 * @param field
-	 *            The {@link Field} to be set.
-	 * @param parameters
-	 *            The instance in which the {@link Field} will be set.
-	 * @param value
-	 *            The value to set in the {@link Field}.
-	 * @return If the value can be parsed as an enum constant, according to
-	 *         {@link Enum#valueOf(Class, String)}, true.
-	 * @throws IllegalAccessException
-	 *             If an error occurs in setting the {@link Field}
+	 * Processes the value as a {@link Boolean}, according to
+	 * {@link BooleanUtils#toBooleanObject(String)}.
 	 */
-	private static boolean getEnum(Field field, Object parameters, String value) throws IllegalAccessException {
-		boolean result;
-		try {
-			@SuppressWarnings({"unchecked", "rawtypes"})
-			Enum<?> constant = Enum.valueOf((Class<Enum>) field.getType(), value);
-			field.set(parameters, constant);
-			result = true;
-		} catch (IllegalArgumentException e) {
-			log.warn("Unable to convert value [" + value + "] of parameter " + getName(field)
-					+ " into an enum constant for " + field.getType());
-			result = false;
+	private static final Converter BOOLEAN = new Converter() {
+		@Override
+		Object convert(String value, String name) {
+			return BooleanUtils.toBooleanObject(value);
 		}
-		return result;
-	}
+	};
 
 	/**
 	 * Determines the parameter name for the given field.
@@ -278,19 +213,39 @@ public class Parameters {
 		return result;
 	}
 
-	private static Map<Class<?>, List<Field>> typeCache = new ConcurrentHashMap<Class<?>, List<Field>>();
+	private static Map<Class<?>, Binding[]> bindingCache = new ConcurrentHashMap<Class<?>, Binding[]>();
+
+	/**
+	 * Gets the compiled bindings for the given class. These are computed once per class, so
+	 * reading parameters requires no annotation lookups, access checks or type tests.
+	 * 
+	 * @param beanClass
+	 *            The bean class to be inspected.
+	 * @return A {@link Binding} for each field in the type hierarchy of the given class that has a
+	 *         {@link Parameter} annotation.
+	 */
+	private static Binding[] getBindings(Class<?> beanClass) {
+
+		// Attempt to return a cached value:
+		Binding[] result = bindingCache.get(beanClass);
+		if (result == null) {
+			List<Field> fields = getAllFields(beanClass);
+			result = new Binding[fields.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = new Binding(fields.get(i));
+			}
+			bindingCache.put(beanClass, result);
+		}
+
+		return result;
+	}
 
 	/**
 	 * This method returns a list of all declared fields that have an {@link Parameter} annotation,
 	 * from the bean class and all super classes, excluding Object (as no annotations can have been
 	 * added to Object).
 	 * 
-	 * The list of fields is cached, so subsequent calls to this method do not require reflection.
-	 * This is reasonable, as a class is unlikely to change at runtime.
-	 * 
-	 * NB: the returned instance is the same instance which is stored in the cache. Should it be
-	 * necessary to make alterations to the list, this can be done on the returned instance and all
-	 * other references and subsequent calls to this method will see the changes.
+	 * This is only called when compiling the {@link Binding}s for a class, which are cached.
 	 * 
 	 * @param beanClass
 	 *            The bean class to be inspected.
@@ -299,17 +254,9 @@ public class Parameters {
 	 */
 	private static List<Field> getAllFields(Class<?> beanClass) {
 
-		// Attempt to return a cached value:
-		List<Field> result = typeCache.get(beanClass);
-		if (result != null) {
-			return result;
-		}
-
-		// We don't have a cached value, so compute the list of fields.
-
 		// Recursively collect declared fields, starting with the class of the bean:
 		Class<?> hierarchyClass = beanClass;
-		result = new ArrayList<Field>();
+		List<Field> result = new ArrayList<Field>();
 		do {
 			// List all fields declared by this type
 			Field[] fields = hierarchyClass.getDeclaredFields();
@@ -327,10 +274,64 @@ public class Parameters {
 
 		} while (!hierarchyClass.equals(Object.class));
 
-		// Cache the result:
-		typeCache.put(beanClass, Collections.unmodifiableList(result));
-
 		return result;
 	}
 
+	/**
+	 * Converts a parameter value to the type of a field.
+	 */
+	private abstract static class Converter {
+
+		/**
+		 * @param value
+		 *            The parameter value.
+		 * @param name
+		 *            The parameter name, for logging.
+		 * @return The converted value, or null if the value can't be converted.
+		 */
+		abstract Object convert(String value, String name);
+	}
+
+	/**
+	 * Everything needed to populate one field, computed once per class.
+	 */
+	private static class Binding {
+
+		final Field field;
+		final String name;
+		final boolean required;
+		final Converter converter;
+
+		Binding(Field field) {
+			this.field = field;
+			name = getName(field);
+			required = field.getAnnotation(Parameter.class).required();
+			converter = getConverter(field.getType());
+
+			// Checked once here rather than on every set:
+			field.setAccessible(true);
+		}
+
+		/**
+		 * Converts the value and sets the field.
+		 * 
+		 * @return If the value could be converted and the field set, true.
+		 * @throws IllegalArgumentException
+		 *             If the field type is not supported.
+		 * @throws IllegalAccessException
+		 *             If an error occurs in setting the {@link Field}
+		 */
+		boolean set(Object parameters, String value) throws IllegalAccessException {
+			if (converter == null) {
+				throw new IllegalArgumentException("Unable to handle type " + field.getType().getName());
+			}
+			Object converted = converter.convert(value, name);
+			if (converted != null) {
+				field.set(parameters, converted);
+				return true;
+			}
+			return false;
+		}
+	}
+
 }
@@ -1,5 +1,8 @@
 package net.jirasystems.webulizor.helpers;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.jirasystems.webulizor.annotations.HomeAction;
 import net.jirasystems.webulizor.annotations.Route;
 import net.jirasystems.webulizor.framework.AppException;
@@ -15,6 +18,8 @@ import org.apache.commons.lang.StringUtils;
  */
 public class Path {
 
+	private static final Map<Class<? extends Action>, String> paths = new ConcurrentHashMap<Class<? extends Action>, String>();
+
 	/**
 	 * Resolves the path the the given {@link Action} using an instance.
 	 * 
@@ -27,17 +32,39 @@ public class Path {
 	}
 
 	/**
-	 * Resolves the path the the given {@link Action} using the Class.
+	 * Resolves the path the the given {@link Action} using the Class. Paths
+	 * are cached, so annotations are only read the first time a class is
+	 * resolved.
 	 * 
 	 * @param actionClass
 	 *            The {@link Action} class.
 	 * @return The path.
 	 */
 	public static String getPath(Class<? extends Action> actionClass) {
+		if (actionClass == null) {
+			// Link to home:
+			return "/";
+		}
+
+		String result = paths.get(actionClass);
+		if (result == null) {
+			result = resolvePath(actionClass);
+			paths.put(actionClass, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the path for the given {@link Action} class from its annotations.
+	 * 
+	 * @param actionClass
+	 *            The {@link Action} class.
+	 * @return The path.
+	 */
+	private static String resolvePath(Class<? extends Action> actionClass) {
 		String path = null;
 
-		if (actionClass == null
-				|| actionClass.getAnnotation(HomeAction.class) != null) {
+		if (actionClass.getAnnotation(HomeAction.class) != null) {
 			// Link to home:
 			path = "/";
 		} else {
@@ -0,0 +1,73 @@
+package net.jirasystems.webulizor.helpers;
+
+/**
+ * Sizes and timeouts for the {@link ConnectionPool} created by one of the
+ * {@link Database} <code>initialise</code> methods.
+ *
+ * @author David Carboni
+ *
+ */
+public class PoolSettings {
+
+	/**
+	 * One connection kept open, up to 10 leased at once, a 5 second acquire
+	 * timeout and a 10 minute idle timeout.
+	 */
+	public static final PoolSettings DEFAULT = new PoolSettings(1, 10, 5000,
+			10 * 60 * 1000);
+
+	private final int minSize;
+	private final int maxSize;
+	private final long acquireTimeout;
+	private final long idleTimeout;
+
+	/**
+	 * @param minSize
+	 *            The number of connections the pool keeps open, even when
+	 *            idle.
+	 * @param maxSize
+	 *            The maximum number of connections the pool will lease at
+	 *            once.
+	 * @param acquireTimeout
+	 *            Milliseconds to wait for a connection when the pool is
+	 *            exhausted.
+	 * @param idleTimeout
+	 *            Milliseconds after which an idle connection is closed, or 0
+	 *            to keep idle connections open.
+	 */
+	public PoolSettings(int minSize, int maxSize, long acquireTimeout,
+			long idleTimeout) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.acquireTimeout = acquireTimeout;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return the minSize
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maxSize
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the acquireTimeout
+	 */
+	public long getAcquireTimeout() {
+		return acquireTimeout;
+	}
+
+	/**
+	 * @return the idleTimeout
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+}
@@ -1,22 +1,33 @@
 package net.jirasystems.webulizor.helpers;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.LangUtils;
 
 /**
  * Utility class to wrap creation of a {@link NameValuePair} list and formatting
- * it as a query string using
- * {@link URLEncodedUtils#format(java.util.List, String)}.
- * 
+ * it as a query string. The encoding is the same as
+ * {@link org.apache.http.client.utils.URLEncodedUtils}.
+ * <p>
+ * Parameters keep their insertion order. Lookups by name go through an index,
+ * which is built on first use and rebuilt if the list changes. Building the
+ * index decodes the names of parsed parameters, but values are only decoded
+ * when they are read.
+ *
  * @author David Carboni
- * 
+ *
  */
 public class QueryString extends ArrayList<NameValuePair> {
 
@@ -25,6 +36,31 @@ public class QueryString extends ArrayList<NameValuePair> {
 	 */
 	private static final long serialVersionUID = -1273749802923951701L;
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Characters left unencoded, as for URLEncodedUtils. */
+	private static final BitSet SAFE = new BitSet(128);
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			SAFE.set(c);
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			SAFE.set(c);
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			SAFE.set(c);
+		}
+		for (char c : "_-.*".toCharArray()) {
+			SAFE.set(c);
+		}
+	}
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** The first parameter for each name. */
+	private transient Map<String, NameValuePair> index;
+	private transient int indexModCount;
+
 	/**
 	 * Default constructor.
 	 */
@@ -39,15 +75,15 @@ public class QueryString extends ArrayList<NameValuePair> {
 	 */
 	public QueryString(String queryString) {
 		if (!StringUtils.isEmpty(queryString)) {
-			URLEncodedUtils.parse(this, new Scanner(queryString), "UTF8");
+			parse(queryString);
 		}
 	}
 
 	/**
-	 * 
+	 *
 	 * Adds a single parameter. Zero or more values can be provided and a
 	 * parameter will be added for each.
-	 * 
+	 *
 	 * @param name
 	 *            The name for the parameter.
 	 * @param value
@@ -76,15 +112,17 @@ public class QueryString extends ArrayList<NameValuePair> {
 	/**
 	 * Constructor.
 	 * <p>
-	 * Construct a query string using the query portion of the given URI.
-	 * 
+	 * Construct a query string using the query portion of the given URI. As
+	 * for <code>URLEncodedUtils.parse(URI, String)</code>, parameters with an
+	 * empty name are kept.
+	 *
 	 * @param uri
 	 *            the URI
 	 */
 	public QueryString(URI uri) {
 
 		if ((uri != null) && StringUtils.isNotBlank(uri.getQuery())) {
-			this.addAll(URLEncodedUtils.parse(uri, "UTF8"));
+			parse(uri.getRawQuery());
 		}
 
 	}
@@ -97,12 +135,17 @@ public class QueryString extends ArrayList<NameValuePair> {
 	 */
 	public NameValuePair get(String paramName) {
 
-		for (NameValuePair nameValuePair : this) {
-			if (StringUtils.equals(nameValuePair.getName(), paramName)) {
-				return nameValuePair;
+		if (index == null || indexModCount != modCount) {
+			Map<String, NameValuePair> names = new HashMap<String, NameValuePair>();
+			for (NameValuePair nameValuePair : this) {
+				if (!names.containsKey(nameValuePair.getName())) {
+					names.put(nameValuePair.getName(), nameValuePair);
+				}
 			}
+			index = names;
+			indexModCount = modCount;
 		}
-		return null;
+		return index.get(paramName);
 	}
 
 	/**
@@ -124,7 +167,7 @@ public class QueryString extends ArrayList<NameValuePair> {
 	/**
 	 * Adds a parameter to the query string. Zero or more values can be provided
 	 * and a parameter will be added for each.
-	 * 
+	 *
 	 * @param name
 	 *            The parameter name. Multiple parameters of the same name can
 	 *            be added.
@@ -154,7 +197,7 @@ public class QueryString extends ArrayList<NameValuePair> {
 
 	/**
 	 * Convenience method that allows you to add a {@link URI} as a parameter.
-	 * 
+	 *
 	 * @param name
 	 *            The parameter name.
 	 * @param uri
@@ -164,26 +207,78 @@ public class QueryString extends ArrayList<NameValuePair> {
 		add(name, uri.toString());
 	}
 
+	@Override
+	public NameValuePair set(int index, NameValuePair element) {
+		// ArrayList doesn't count this as a modification:
+		this.index = null;
+		return super.set(index, element);
+	}
+
+	/**
+	 * Returns a view which, unlike the one from {@link ArrayList}, goes
+	 * through {@link #set(int, NameValuePair)}, so the index is kept up to
+	 * date.
+	 */
+	@Override
+	public List<NameValuePair> subList(final int fromIndex, int toIndex) {
+		final List<NameValuePair> subList = super.subList(fromIndex, toIndex);
+		return new AbstractList<NameValuePair>() {
+
+			@Override
+			public NameValuePair get(int index) {
+				return subList.get(index);
+			}
+
+			@Override
+			public int size() {
+				return subList.size();
+			}
+
+			@Override
+			public NameValuePair set(int index, NameValuePair element) {
+				// Range check:
+				subList.get(index);
+				return QueryString.this.set(fromIndex + index, element);
+			}
+
+			@Override
+			public void add(int index, NameValuePair element) {
+				subList.add(index, element);
+			}
+
+			@Override
+			public NameValuePair remove(int index) {
+				return subList.remove(index);
+			}
+		};
+	}
+
 	/**
 	 * Removes all parameters of the given name.
-	 * 
+	 *
 	 * @param name
 	 *            The name to remove.
 	 * @return A list of matching parameters.
 	 */
 	public List<NameValuePair> remove(String name) {
 
-		// First find the parameters to be removed:
+		// Compact the list in a single pass:
 		List<NameValuePair> result = new ArrayList<NameValuePair>();
-		for (NameValuePair parameter : this) {
+		int size = size();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			NameValuePair parameter = get(i);
 			if (parameter.getName().equalsIgnoreCase(name)) {
 				result.add(parameter);
+			} else {
+				if (kept != i) {
+					super.set(kept, parameter);
+				}
+				kept++;
 			}
 		}
-
-		// Now remove them. This avoids concurrent modification:
-		for (NameValuePair parameter : result) {
-			remove(parameter);
+		if (kept < size) {
+			removeRange(kept, size);
 		}
 
 		return result;
@@ -195,11 +290,12 @@ public class QueryString extends ArrayList<NameValuePair> {
 	 *         <code>URIUtils.createURI(...)</code>
 	 */
 	public String toQueryString() {
-		String result = URLEncodedUtils.format(this, "UTF8");
-		if (!StringUtils.isEmpty(result)) {
-			return result;
+		if (isEmpty()) {
+			return null;
 		}
-		return null;
+		StringBuilder result = new StringBuilder(size() * 16);
+		appendTo(result);
+		return result.length() > 0 ? result.toString() : null;
 	}
 
 	/**
@@ -218,4 +314,165 @@ public class QueryString extends ArrayList<NameValuePair> {
 		return result;
 	}
 
+	/**
+	 * Appends the encoded query string, without a leading '?'.
+	 *
+	 * @param builder
+	 *            The builder to append to.
+	 */
+	void appendTo(StringBuilder builder) {
+		int start = builder.length();
+		for (NameValuePair parameter : this) {
+			if (builder.length() > start) {
+				builder.append('&');
+			}
+			encode(parameter.getName(), builder);
+			if (parameter.getValue() != null) {
+				builder.append('=');
+				encode(parameter.getValue(), builder);
+			}
+		}
+	}
+
+	/**
+	 * Splits a raw query string on '&amp;' and ';'. Names and values are
+	 * decoded when they are first read. Tokens are handled as by
+	 * <code>URLEncodedUtils.parse(...)</code>, so empty tokens are kept
+	 * between separators but not at either end.
+	 */
+	private void parse(String query) {
+		int length = query.length();
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || query.charAt(i) == '&'
+					|| query.charAt(i) == ';') {
+				if (i > start || (start > 0 && i < length)) {
+					add(new Parameter(query, start, i));
+				}
+				start = i + 1;
+			}
+		}
+	}
+
+	private static void encode(String content, StringBuilder builder) {
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c < 128 && SAFE.get(c)) {
+				builder.append(c);
+			} else if (c == ' ') {
+				builder.append('+');
+			} else {
+				// Encode the rest of the string as UTF-8:
+				for (byte b : content.substring(i).getBytes(UTF8)) {
+					int octet = b & 0xFF;
+					if (octet < 128 && SAFE.get(octet)) {
+						builder.append((char) octet);
+					} else if (octet == ' ') {
+						builder.append('+');
+					} else {
+						builder.append('%');
+						builder.append(HEX[octet >> 4]);
+						builder.append(HEX[octet & 0xF]);
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decodes '+' and %XX escapes, leaving malformed escapes as they are.
+	 */
+	static String decode(String content) {
+		if (content.indexOf('%') < 0 && content.indexOf('+') < 0) {
+			return content;
+		}
+		byte[] bytes = content.getBytes(UTF8);
+		ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			byte b = bytes[i];
+			if (b == '+') {
+				result.write(' ');
+			} else if (b == '%' && i + 2 < bytes.length) {
+				int high = Character.digit(bytes[++i], 16);
+				int low = Character.digit(bytes[++i], 16);
+				if (high >= 0 && low >= 0) {
+					result.write((high << 4) + low);
+				} else {
+					result.write(bytes, i - 2, 3);
+				}
+			} else {
+				result.write(b);
+			}
+		}
+		return new String(result.toByteArray(), UTF8);
+	}
+
+	/**
+	 * A parsed parameter. The name and value are each decoded on first use.
+	 */
+	private static class Parameter implements NameValuePair, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String raw;
+		private final int separator;
+		private String name;
+		private String value;
+		private boolean valueDecoded;
+
+		Parameter(String query, int start, int end) {
+			raw = query.substring(start, end);
+			separator = raw.indexOf('=');
+		}
+
+		@Override
+		public String getName() {
+			if (name == null) {
+				name = QueryString.decode((separator < 0 ? raw : raw
+						.substring(0, separator)).trim());
+			}
+			return name;
+		}
+
+		@Override
+		public String getValue() {
+			if (!valueDecoded) {
+				if (separator >= 0) {
+					value = QueryString.decode(raw.substring(separator + 1)
+							.trim());
+				}
+				valueDecoded = true;
+			}
+			return value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof NameValuePair) {
+				NameValuePair that = (NameValuePair) obj;
+				return getName().equals(that.getName())
+						&& LangUtils.equals(getValue(), that.getValue());
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			// As for BasicNameValuePair:
+			int hash = LangUtils.HASH_SEED;
+			hash = LangUtils.hashCode(hash, getName());
+			hash = LangUtils.hashCode(hash, getValue());
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return getValue() == null ? getName() : getName() + "="
+					+ getValue();
+		}
+	}
 }
@@ -0,0 +1,180 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.ResourceCache;
+
+/**
+ * Velocity template cache with a size limit, least-recently-used eviction and
+ * counters for monitoring.
+ * <p>
+ * The size limit is read from <code>resource.manager.defaultcache.size</code>
+ * . A size of zero or less means the cache is unbounded. Counters are shared
+ * by all instances, so they cover both of the engines used by
+ * {@link Velocity}.
+ * <p>
+ * A template is counted as parsed when the engine caches it, timed from the
+ * lookup that missed it or found it modified. This includes templates
+ * reached through <code>#parse</code> and <code>#include</code> while
+ * rendering.
+ *
+ * @author David Carboni
+ *
+ */
+public class TemplateCache implements ResourceCache {
+
+	/** The default maximum number of templates to cache. */
+	public static final int DEFAULT_SIZE = 256;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong reloads = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static final AtomicLong parses = new AtomicLong();
+	private static final AtomicLong parseNanos = new AtomicLong();
+
+	// The last lookup on this thread, so that put() can time the parse:
+	private static final ThreadLocal<Lookup> lookups = new ThreadLocal<Lookup>() {
+		@Override
+		protected Lookup initialValue() {
+			return new Lookup();
+		}
+	};
+
+	private Map<Object, Resource> cache;
+
+	@Override
+	public void initialize(RuntimeServices runtimeServices) {
+		final int size = runtimeServices.getInt(
+				RuntimeConstants.RESOURCE_MANAGER_DEFAULTCACHE_SIZE,
+				DEFAULT_SIZE);
+
+		// Access-ordered, so the eldest entry is the least recently used:
+		cache = new LinkedHashMap<Object, Resource>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Resource> eldest) {
+				boolean evict = size > 0 && size() > size;
+				if (evict) {
+					evictions.incrementAndGet();
+				}
+				return evict;
+			}
+		};
+	}
+
+	@Override
+	public Resource get(Object key) {
+		Resource result;
+		synchronized (cache) {
+			result = cache.get(key);
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+
+		// A miss, or a hit that turns out to be modified, is followed by a
+		// put() once the template has been parsed:
+		Lookup lookup = lookups.get();
+		lookup.key = key;
+		lookup.start = System.nanoTime();
+		return result;
+	}
+
+	@Override
+	public Resource put(Object key, Resource value) {
+		Resource result;
+		synchronized (cache) {
+			result = cache.put(key, value);
+		}
+		if (result != null) {
+			// Replacing a modified template:
+			reloads.incrementAndGet();
+		}
+		parses.incrementAndGet();
+		Lookup lookup = lookups.get();
+		if (key.equals(lookup.key)) {
+			parseNanos.addAndGet(System.nanoTime() - lookup.start);
+			lookup.key = null;
+		}
+		return result;
+	}
+
+	@Override
+	public Resource remove(Object key) {
+		synchronized (cache) {
+			return cache.remove(key);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Iterator enumerateKeys() {
+		synchronized (cache) {
+			return new ArrayList<Object>(cache.keySet()).iterator();
+		}
+	}
+
+	/**
+	 * @return The number of lookups that found a cached template.
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of lookups that did not find a cached template.
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of cached templates replaced because they had been
+	 *         modified.
+	 */
+	public static long getReloads() {
+		return reloads.get();
+	}
+
+	/**
+	 * @return The number of templates evicted to stay within the size limit.
+	 */
+	public static long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of times a template has been parsed.
+	 */
+	public static long getParses() {
+		return parses.get();
+	}
+
+	/**
+	 * @return The total time spent loading and parsing templates, in
+	 *         milliseconds.
+	 */
+	public static long getParseTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parseNanos.get());
+	}
+
+	/**
+	 * A template lookup in progress on the current thread.
+	 */
+	private static class Lookup {
+		Object key;
+		long start;
+	}
+}
@@ -0,0 +1,116 @@
+package net.jirasystems.webulizor.helpers;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} which trims leading and trailing whitespace from the
+ * stream as it is written, in the same way as {@link String#trim()}.
+ * <p>
+ * Leading whitespace is dropped. Whitespace after the first non-whitespace
+ * character is held back until more non-whitespace arrives, so whatever is
+ * still held back when writing stops is never written.
+ *
+ * @author David Carboni
+ *
+ */
+public class TrimWriter extends FilterWriter {
+
+	private boolean started;
+	private final StringBuilder pending = new StringBuilder();
+
+	/**
+	 * @param out
+	 *            The {@link Writer} to write trimmed output to.
+	 */
+	public TrimWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (isWhitespace((char) c)) {
+			if (started) {
+				pending.append((char) c);
+			}
+		} else {
+			writePending();
+			out.write(c);
+			started = true;
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+
+		// Skip leading whitespace:
+		int start = off;
+		if (!started) {
+			while (start < end && isWhitespace(cbuf[start])) {
+				start++;
+			}
+		}
+
+		// Hold back trailing whitespace:
+		int last = end - 1;
+		while (last >= start && isWhitespace(cbuf[last])) {
+			last--;
+		}
+
+		if (last >= start) {
+			writePending();
+			out.write(cbuf, start, last + 1 - start);
+			started = true;
+		}
+		if (started) {
+			pending.append(cbuf, last + 1, end - last - 1);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+
+		// Skip leading whitespace:
+		int start = off;
+		if (!started) {
+			while (start < end && isWhitespace(str.charAt(start))) {
+				start++;
+			}
+		}
+
+		// Hold back trailing whitespace:
+		int last = end - 1;
+		while (last >= start && isWhitespace(str.charAt(last))) {
+			last--;
+		}
+
+		if (last >= start) {
+			writePending();
+			out.write(str, start, last + 1 - start);
+			started = true;
+		}
+		if (started) {
+			pending.append(str, last + 1, end);
+		}
+	}
+
+	/**
+	 * Writes whitespace that turned out not to be trailing.
+	 */
+	private void writePending() throws IOException {
+		if (pending.length() > 0) {
+			out.append(pending);
+			pending.setLength(0);
+		}
+	}
+
+	/**
+	 * @return Whether the character would be removed by {@link String#trim()}.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c <= ' ';
+	}
+}
@@ -4,21 +4,25 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletResponse;
 
 import net.jirasystems.resourceutil.ResourceUtil;
 import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.metrics.RouteMetrics;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.VelocityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Renders Velocity templates.
@@ -28,20 +32,103 @@ import org.apache.velocity.exception.VelocityException;
  */
 public class Velocity {
 
+	static final Logger log = LoggerFactory.getLogger(Velocity.class);
+
+	/**
+	 * If true, {@link #renderHtml(String, Map, Action)} merges the template
+	 * straight into the response writer, so the page is never held in memory
+	 * as a whole and output reaches the client as the response buffer fills.
+	 * Streamed output is only trimmed if {@link #TRIM} is also set.
+	 * <p>
+	 * If false (the default) the whole page is rendered to a String and
+	 * trimmed first, which means an error part-way through rendering can't
+	 * leave a partial page in the response.
+	 */
+	public static boolean STREAM = false;
+
+	/**
+	 * The response buffer size requested when streaming. Output is sent to
+	 * the client each time the buffer fills.
+	 */
+	public static int BUFFER_SIZE = 8192;
+
+	/**
+	 * If true, streamed output has leading and trailing whitespace trimmed on
+	 * the fly. Output rendered to a String is always trimmed.
+	 */
+	public static boolean TRIM = false;
+
+	/**
+	 * In production mode (false, the default) templates are parsed once and
+	 * never checked for changes. In development mode (true) cached templates
+	 * are checked for changes every {@link #CHECK_INTERVAL} seconds. Set this
+	 * before {@link #initialise(String)} is called.
+	 */
+	public static boolean DEVELOPMENT = false;
+
+	/**
+	 * Seconds between checks for modified templates in development mode.
+	 */
+	public static int CHECK_INTERVAL = 2;
+
+	/**
+	 * The maximum number of templates each engine caches, evicting the least
+	 * recently used. Zero or less means no limit. Set this before
+	 * {@link #initialise(String)} is called.
+	 * 
+	 * @see TemplateCache
+	 */
+	public static int CACHE_SIZE = TemplateCache.DEFAULT_SIZE;
+
+	private static final Map<String, Object> globals = new ConcurrentHashMap<String, Object>();
+
 	private static String velocityLog;
-	private static VelocityEngine velocityHtml;
-	private static VelocityEngine velocityText;
+	private static volatile VelocityEngine velocityHtml;
+	private static volatile VelocityEngine velocityText;
 
 	/**
-	 * Initialises the velocity log.
+	 * Initialises the velocity log and builds the template engines, so that
+	 * this isn't done during a request.
 	 * 
-	 * @param servletContext
-	 *            Used to get a path to /WEB-INF/velocity.log
+	 * @param logPath
+	 *            The directory for velocity.log. Can be null.
+	 * @throws VelocityException
+	 *             If an error occurs.
 	 */
-	public static void initialise(String logPath) {
+	public static synchronized void initialise(String logPath)
+			throws VelocityException {
 		if (StringUtils.isNotBlank(logPath)) {
 			velocityLog = new File(logPath, "velocity.log").getPath();
 		}
+		velocityHtml = newVelocityEngine(true);
+		velocityText = newVelocityEngine(false);
+	}
+
+	/**
+	 * Parses the given HTML templates ahead of time, so the first request for
+	 * each page doesn't pay the parsing cost. Paths that don't exist are
+	 * skipped and templates that fail to parse are logged.
+	 * 
+	 * @param templatePaths
+	 *            The template paths.
+	 * @return The number of templates parsed.
+	 */
+	public static int warmUp(Collection<String> templatePaths) {
+		int result = 0;
+
+		VelocityEngine velocityEngine = getVelocityHtml();
+		for (String templatePath : templatePaths) {
+			if (velocityEngine.resourceExists(templatePath)) {
+				try {
+					getTemplate(velocityEngine, templatePath);
+					result++;
+				} catch (Exception e) {
+					log.warn("Unable to parse template " + templatePath, e);
+				}
+			}
+		}
+
+		return result;
 	}
 
 	/**
@@ -99,10 +186,50 @@ public class Velocity {
 			IOException {
 
 		VelocityEngine velocityEngine = getVelocityHtml();
-		String markup = render(velocityEngine, templatePath, data);
+		HttpServletResponse response = next.getResponse();
+		long start = System.nanoTime();
+		try {
+			if (STREAM) {
 
-		next.getResponse().setContentType("text/html; charset=UTF-8");
-		next.getResponse().getWriter().append(markup);
+				// Get the template before writing anything:
+				Template template = getTemplate(velocityEngine, templatePath);
+				response.setContentType("text/html; charset=UTF-8");
+				setBufferSize(response);
+
+				// Render straight to the response:
+				Writer writer = response.getWriter();
+				if (TRIM) {
+					writer = new TrimWriter(writer);
+				}
+				merge(template, data, writer);
+
+			} else {
+
+				String markup = render(getTemplate(velocityEngine,
+						templatePath), data);
+				response.setContentType("text/html; charset=UTF-8");
+				response.getWriter().append(markup);
+			}
+		} finally {
+			RouteMetrics.recordRender(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Requests a response buffer of at least {@link #BUFFER_SIZE}, if it's not
+	 * too late to do so.
+	 * 
+	 * @param response
+	 *            The {@link HttpServletResponse}.
+	 */
+	private static void setBufferSize(HttpServletResponse response) {
+		if (!response.isCommitted() && response.getBufferSize() < BUFFER_SIZE) {
+			try {
+				response.setBufferSize(BUFFER_SIZE);
+			} catch (IllegalStateException e) {
+				// Content has already been written, so keep the current size.
+			}
+		}
 	}
 
 	/**
@@ -120,15 +247,36 @@ public class Velocity {
 			String templatePath, Map<String, Object> data)
 			throws VelocityException {
 
-		// Get the template:
+		long start = System.nanoTime();
+		try {
+			// Get the template:
+			Template template = getTemplate(velocityEngine, templatePath);
+
+			// Render:
+			return render(template, data);
+		} finally {
+			RouteMetrics.recordRender(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Gets a template from the given engine.
+	 * 
+	 * @param templatePath
+	 *            The path to the template.
+	 * @return The {@link Template}.
+	 * @throws VelocityException
+	 *             If the template can't be found or parsed.
+	 */
+	private static Template getTemplate(VelocityEngine velocityEngine,
+			String templatePath) throws VelocityException {
+
 		Template template = velocityEngine.getTemplate(templatePath);
 		if (template == null) {
 			throw new VelocityException("Unable to locate template "
 					+ templatePath);
 		}
-
-		// Render:
-		return render(template, data);
+		return template;
 	}
 
 	/**
@@ -145,26 +293,50 @@ public class Velocity {
 	private static String render(Template template, Map<String, Object> data)
 			throws VelocityException {
 
+		// Render the template
+		StringWriter writer = new StringWriter();
+		merge(template, data, writer);
+
+		// Return the result
+		return writer.toString().trim();
+	}
+
+	/**
+	 * Values available to every template, such as helper objects. Data
+	 * passed to a render method takes precedence over these. Null values
+	 * can't be added.
+	 * 
+	 * @return The global values, which can be modified.
+	 */
+	public static Map<String, Object> getGlobals() {
+		return globals;
+	}
+
+	/**
+	 * Merges the template with the given data.
+	 * 
+	 * @param template
+	 *            The {@link Template} to be rendered.
+	 * @param data
+	 *            Data to be added to the Velocity context. Can be null. This
+	 *            is read through rather than copied, and is not changed by
+	 *            the template.
+	 * @param writer
+	 *            The {@link Writer} to render to.
+	 * @throws VelocityException
+	 *             If an exception is thrown during template processing.
+	 */
+	private static void merge(Template template, Map<String, Object> data,
+			Writer writer) throws VelocityException {
+
 		try {
-			// Create a context.
 			// NB Whilst the Velocity engine is thread-safe, Contexts are not,
-			// so we need to generate a new instance locally for this thread.
-			VelocityContext context = new VelocityContext();
-
-			// Add the data to the context:
-			if (data != null) {
-				for (Entry<String, Object> entry : data.entrySet()) {
-					context.put(entry.getKey(), entry.getValue());
-				}
-			}
+			// so each render gets its own, but the data itself isn't copied:
+			MapContext context = new MapContext(data, globals);
 
 			// Now render the template
-			StringWriter writer = new StringWriter();
 			template.merge(context, writer);
 
-			// Return the result
-			return writer.toString().trim();
-
 		} catch (Exception e) {
 			throw new VelocityException("Error processing template \""
 					+ template.getName() + "\".", e);
@@ -177,13 +349,20 @@ public class Velocity {
 	 *             If an error occurs.
 	 */
 	private static VelocityEngine getVelocityText() throws VelocityException {
-
-		if (velocityText == null) {
-
-			velocityText = newVelocityEngine(false);
+		VelocityEngine result = velocityText;
+
+		// In case we're used before initialise() has been called:
+		if (result == null) {
+			synchronized (Velocity.class) {
+				result = velocityText;
+				if (result == null) {
+					result = newVelocityEngine(false);
+					velocityText = result;
+				}
+			}
 		}
 
-		return velocityText;
+		return result;
 	}
 
 	/**
@@ -192,13 +371,20 @@ public class Velocity {
 	 *             If an error occurs.
 	 */
 	private static VelocityEngine getVelocityHtml() throws VelocityException {
-
-		if (velocityHtml == null) {
-
-			velocityHtml = newVelocityEngine(true);
+		VelocityEngine result = velocityHtml;
+
+		// In case we're used before initialise() has been called:
+		if (result == null) {
+			synchronized (Velocity.class) {
+				result = velocityHtml;
+				if (result == null) {
+					result = newVelocityEngine(true);
+					velocityHtml = result;
+				}
+			}
 		}
 
-		return velocityHtml;
+		return result;
 	}
 
 	/**
@@ -221,6 +407,16 @@ public class Velocity {
 				defaults.put("runtime.log", velocityLog);
 			}
 
+			// Keep parsed templates, so they're not re-parsed for every
+			// request, only checking for changes in development mode:
+			defaults.put("resource.manager.cache.class",
+					TemplateCache.class.getName());
+			defaults.put("resource.manager.defaultcache.size",
+					Integer.toString(CACHE_SIZE));
+			defaults.put("classpath.resource.loader.cache", "true");
+			defaults.put("classpath.resource.loader.modificationCheckInterval",
+					DEVELOPMENT ? Integer.toString(CHECK_INTERVAL) : "0");
+
 			if (escapeHtml) {
 				// Ensure that all values printed to the output are
 				// correctly
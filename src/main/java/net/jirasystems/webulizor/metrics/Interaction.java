@@ -13,6 +13,8 @@ public class Interaction {
 	private String requestURI;
 	private String queryString;
 	private Map<String, String> headers;
+	private String sessionId;
+	private long time;
 
 	public Interaction(HttpServletRequest request) {
 
@@ -30,6 +32,37 @@ public class Interaction {
 			String headerName = headerNames.nextElement();
 			headers.put(headerName, request.getHeader(headerName));
 		}
+		time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records only the named headers.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @param sessionId
+	 *            The ID of the session the request belongs to.
+	 * @param headerNames
+	 *            The headers to record, if present.
+	 */
+	public Interaction(HttpServletRequest request, String sessionId, String... headerNames) {
+
+		// Basic values:
+		contentType = request.getContentType();
+		method = request.getMethod();
+		requestURI = request.getRequestURI();
+		queryString = request.getQueryString();
+		this.sessionId = sessionId;
+		time = System.currentTimeMillis();
+
+		// Headers:
+		headers = new HashMap<String, String>(headerNames.length * 2);
+		for (String headerName : headerNames) {
+			String value = request.getHeader(headerName);
+			if (value != null) {
+				headers.put(headerName, value);
+			}
+		}
 	}
 
 	/**
@@ -67,4 +100,19 @@ public class Interaction {
 		return headers;
 	}
 
+	/**
+	 * @return the sessionId, or null if not recorded.
+	 */
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @return the time the request was recorded, in milliseconds since the
+	 *         epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
 }
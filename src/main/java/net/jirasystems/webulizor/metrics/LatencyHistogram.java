@@ -0,0 +1,164 @@
+package net.jirasystems.webulizor.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram.
+ * <p>
+ * Times are recorded in microseconds. Each power of two is divided into
+ * {@value #SUB_BUCKETS} buckets, so percentiles are accurate to within about
+ * 6%, using a fixed {@value #BUCKETS} counters however many values are
+ * recorded. Recording a value is a few atomic increments and allocates
+ * nothing.
+ *
+ * @author David Carboni
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Values are capped at 2^36 microseconds, about 19 hours. */
+	private static final int MAX_BITS = 36;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+	/** The number of buckets. */
+	public static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a time.
+	 *
+	 * @param nanos
+	 *            The time in nanoseconds, e.g. the difference between two
+	 *            calls to {@link System#nanoTime()}.
+	 */
+	public void record(long nanos) {
+		long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+		buckets.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long current;
+		while (micros > (current = max.get())
+				&& !max.compareAndSet(current, micros)) {
+			// Retry.
+		}
+	}
+
+	static int index(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS
+				+ (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return The largest value counted in the given bucket.
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param percentile
+	 *            The percentile, from 0 to 100.
+	 * @return The value, in microseconds, at or below which the given
+	 *         percentage of recorded values fall, or zero if nothing has been
+	 *         recorded.
+	 */
+	public long getPercentileMicros(double percentile) {
+
+		// Take a copy, so the total matches the buckets:
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return The number of values recorded.
+	 */
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The total of the values recorded, in microseconds.
+	 */
+	public long getSumMicros() {
+		return sum.get();
+	}
+
+	/**
+	 * @return The largest value recorded, in microseconds.
+	 */
+	public long getMaxMicros() {
+		return max.get();
+	}
+
+	@Override
+	public double getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : millis(sum.get()) / count;
+	}
+
+	@Override
+	public double getMax() {
+		return millis(max.get());
+	}
+
+	@Override
+	public double getP50() {
+		return millis(getPercentileMicros(50));
+	}
+
+	@Override
+	public double getP90() {
+		return millis(getPercentileMicros(90));
+	}
+
+	@Override
+	public double getP99() {
+		return millis(getPercentileMicros(99));
+	}
+
+	@Override
+	public double getP999() {
+		return millis(getPercentileMicros(99.9));
+	}
+
+	private static double millis(long micros) {
+		return micros / (double) TimeUnit.MILLISECONDS.toMicros(1);
+	}
+}
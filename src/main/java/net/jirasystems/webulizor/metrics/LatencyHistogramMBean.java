@@ -0,0 +1,24 @@
+package net.jirasystems.webulizor.metrics;
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. Times are in milliseconds.
+ *
+ * @author David Carboni
+ *
+ */
+public interface LatencyHistogramMBean {
+
+	long getCount();
+
+	double getMean();
+
+	double getMax();
+
+	double getP50();
+
+	double getP90();
+
+	double getP99();
+
+	double getP999();
+}
@@ -0,0 +1,146 @@
+package net.jirasystems.webulizor.metrics;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.jirasystems.webulizor.annotations.DatabaseConnection;
+import net.jirasystems.webulizor.base.AbstractAction;
+import net.jirasystems.webulizor.helpers.ConnectionPool;
+import net.jirasystems.webulizor.helpers.Database;
+import net.jirasystems.webulizor.helpers.TemplateCache;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.interfaces.Get;
+
+/**
+ * Renders {@link RouteMetrics}, template cache counters and connection pool
+ * sizes in the Prometheus text exposition format.
+ * <p>
+ * This action has no {@link net.jirasystems.webulizor.annotations.Route}. It
+ * is routed by {@link net.jirasystems.webulizor.framework.App} when the
+ * <code>metricsPath</code> init-param is set.
+ *
+ * @author David Carboni
+ *
+ */
+@DatabaseConnection(required = false)
+public class MetricsAction extends AbstractAction implements Get {
+
+	/** The content type of the Prometheus text format. */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	@Override
+	public Action perform() throws IOException {
+		HttpServletResponse response = getResponse();
+		response.setContentType(CONTENT_TYPE);
+		response.setHeader("Cache-Control", "no-store");
+		response.getWriter().append(render());
+		return null;
+	}
+
+	/**
+	 * @return The current metrics in Prometheus text format.
+	 */
+	public static String render() {
+		StringBuilder result = new StringBuilder();
+
+		String name = "webulizor_route_seconds";
+		result.append("# HELP ").append(name)
+				.append(" Request latency by route and phase.\n");
+		result.append("# TYPE ").append(name).append(" summary\n");
+		for (RouteMetrics metrics : RouteMetrics.getRoutes()) {
+			for (Entry<String, LatencyHistogram> phase : metrics.getPhases()
+					.entrySet()) {
+				appendSummary(result, name, labels(metrics, phase.getKey(),
+						null), phase.getValue());
+			}
+			for (Entry<Class<?>, LatencyHistogram> perform : metrics
+					.getPerforms().entrySet()) {
+				appendSummary(result, name, labels(metrics,
+						RouteMetrics.PERFORM, perform.getKey().getName()),
+						perform.getValue());
+			}
+		}
+
+		appendCounter(result, "webulizor_template_cache_hits_total",
+				"Template lookups that found a cached template.",
+				TemplateCache.getHits());
+		appendCounter(result, "webulizor_template_cache_misses_total",
+				"Template lookups that did not find a cached template.",
+				TemplateCache.getMisses());
+		appendCounter(result, "webulizor_template_cache_reloads_total",
+				"Cached templates replaced because they were modified.",
+				TemplateCache.getReloads());
+		appendCounter(result, "webulizor_template_cache_evictions_total",
+				"Cached templates evicted to stay within the size limit.",
+				TemplateCache.getEvictions());
+		appendCounter(result, "webulizor_template_parses_total",
+				"Templates parsed.", TemplateCache.getParses());
+
+		ConnectionPool pool = Database.getConnectionPool();
+		if (pool != null) {
+			name = "webulizor_db_connections";
+			result.append("# HELP ").append(name)
+					.append(" Open database connections.\n");
+			result.append("# TYPE ").append(name).append(" gauge\n");
+			result.append(name).append("{state=\"idle\"} ")
+					.append(pool.getIdle()).append('\n');
+			result.append(name).append("{state=\"leased\"} ")
+					.append(pool.getLeased()).append('\n');
+		}
+
+		return result.toString();
+	}
+
+	private static String labels(RouteMetrics metrics, String phase,
+			String action) {
+		StringBuilder result = new StringBuilder();
+		result.append("method=\"").append(escape(metrics.getMethod()));
+		result.append("\",route=\"").append(escape(metrics.getRoute()));
+		result.append("\",phase=\"").append(phase);
+		if (action != null) {
+			result.append("\",action=\"").append(escape(action));
+		}
+		result.append('"');
+		return result.toString();
+	}
+
+	private static void appendSummary(StringBuilder result, String name,
+			String labels, LatencyHistogram histogram) {
+		long count = histogram.getCount();
+		if (count == 0) {
+			return;
+		}
+		for (double quantile : QUANTILES) {
+			result.append(name).append('{').append(labels)
+					.append(",quantile=\"").append(quantile).append("\"} ");
+			result.append(seconds(histogram
+					.getPercentileMicros(quantile * 100)));
+			result.append('\n');
+		}
+		result.append(name).append("_sum{").append(labels).append("} ")
+				.append(seconds(histogram.getSumMicros())).append('\n');
+		result.append(name).append("_count{").append(labels).append("} ")
+				.append(count).append('\n');
+	}
+
+	private static void appendCounter(StringBuilder result, String name,
+			String help, long value) {
+		result.append("# HELP ").append(name).append(' ').append(help)
+				.append('\n');
+		result.append("# TYPE ").append(name).append(" counter\n");
+		result.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static double seconds(long micros) {
+		return micros / 1000000.0;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+}
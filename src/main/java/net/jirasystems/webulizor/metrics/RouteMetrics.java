@@ -0,0 +1,301 @@
+package net.jirasystems.webulizor.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request latency for one route and HTTP method, split into phases: route
+ * lookup, connection acquire, each action's perform, commit or rollback, and
+ * template rendering, plus the total.
+ * <p>
+ * Each {@link LatencyHistogram} is registered with the platform MBean server
+ * under {@value #DOMAIN}, and all of them can be read in Prometheus format
+ * from {@link MetricsAction}.
+ *
+ * @author David Carboni
+ *
+ */
+public class RouteMetrics {
+
+	static final Logger log = LoggerFactory.getLogger(RouteMetrics.class);
+
+	/** The JMX domain. */
+	public static final String DOMAIN = "net.jirasystems.webulizor";
+
+	/** Phase names, as used in JMX names and Prometheus labels. */
+	public static final String TOTAL = "total";
+	public static final String LOOKUP = "lookup";
+	public static final String ACQUIRE = "acquire";
+	public static final String PERFORM = "perform";
+	public static final String COMMIT = "commit";
+	public static final String ROLLBACK = "rollback";
+	public static final String RENDER = "render";
+
+	/** If false, nothing is recorded. */
+	public static boolean ENABLED = true;
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, RouteMetrics>> methods = new ConcurrentHashMap<String, ConcurrentMap<String, RouteMetrics>>();
+	private static final ThreadLocal<RouteMetrics> current = new ThreadLocal<RouteMetrics>();
+	private static volatile String contextPath = "";
+
+	private final String method;
+	private final String route;
+	private final Map<String, LatencyHistogram> phases = new LinkedHashMap<String, LatencyHistogram>();
+	private final ConcurrentMap<Class<?>, LatencyHistogram> performs = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final LatencyHistogram lookup = new LatencyHistogram();
+	private final LatencyHistogram acquire = new LatencyHistogram();
+	private final LatencyHistogram commit = new LatencyHistogram();
+	private final LatencyHistogram rollback = new LatencyHistogram();
+	private final LatencyHistogram render = new LatencyHistogram();
+
+	private RouteMetrics(String method, String route) {
+		this.method = method;
+		this.route = route;
+		phases.put(TOTAL, total);
+		phases.put(LOOKUP, lookup);
+		phases.put(ACQUIRE, acquire);
+		phases.put(COMMIT, commit);
+		phases.put(ROLLBACK, rollback);
+		phases.put(RENDER, render);
+	}
+
+	/**
+	 * Sets the context path used to distinguish the JMX names of this
+	 * application from others in the same container.
+	 *
+	 * @param contextPath
+	 *            The context path.
+	 */
+	public static void initialise(String contextPath) {
+		RouteMetrics.contextPath = contextPath == null ? "" : contextPath;
+	}
+
+	/**
+	 * Gets the metrics for a route, creating and registering them if
+	 * necessary.
+	 *
+	 * @param method
+	 *            The HTTP method.
+	 * @param route
+	 *            The route, or some other fixed name for the action. This
+	 *            should not be the request path, because each distinct value
+	 *            is kept for the life of the application.
+	 * @return The metrics, or null if {@link #ENABLED} is false.
+	 */
+	public static RouteMetrics forRoute(String method, String route) {
+		if (!ENABLED) {
+			return null;
+		}
+
+		ConcurrentMap<String, RouteMetrics> routes = methods.get(method);
+		if (routes == null) {
+			methods.putIfAbsent(method,
+					new ConcurrentHashMap<String, RouteMetrics>());
+			routes = methods.get(method);
+		}
+
+		RouteMetrics result = routes.get(route);
+		if (result == null) {
+			RouteMetrics created = new RouteMetrics(method, route);
+			result = routes.putIfAbsent(route, created);
+			if (result == null) {
+				result = created;
+				for (Map.Entry<String, LatencyHistogram> phase : created.phases
+						.entrySet()) {
+					register(created.objectName(phase.getKey(), null),
+							phase.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return All metrics recorded so far.
+	 */
+	public static Collection<RouteMetrics> getRoutes() {
+		List<RouteMetrics> result = new ArrayList<RouteMetrics>();
+		for (ConcurrentMap<String, RouteMetrics> routes : methods.values()) {
+			result.addAll(routes.values());
+		}
+		return result;
+	}
+
+	/**
+	 * Unregisters and discards all metrics.
+	 */
+	public static void reset() {
+		for (RouteMetrics metrics : getRoutes()) {
+			for (String phase : metrics.phases.keySet()) {
+				unregister(metrics.objectName(phase, null));
+			}
+			for (Class<?> action : metrics.performs.keySet()) {
+				unregister(metrics.objectName(PERFORM, action.getName()));
+			}
+		}
+		methods.clear();
+	}
+
+	/**
+	 * Sets the metrics that {@link #recordAcquire(long)} and
+	 * {@link #recordRender(long)} record to on this thread.
+	 *
+	 * @param metrics
+	 *            The metrics for the current request, or null to clear.
+	 */
+	public static void setCurrent(RouteMetrics metrics) {
+		if (metrics == null) {
+			current.remove();
+		} else {
+			current.set(metrics);
+		}
+	}
+
+	/**
+	 * Records the time taken to get a database connection against the
+	 * current request, if any.
+	 *
+	 * @param nanos
+	 *            The time taken.
+	 */
+	public static void recordAcquire(long nanos) {
+		RouteMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.acquire.record(nanos);
+		}
+	}
+
+	/**
+	 * Records template rendering time against the current request, if any.
+	 *
+	 * @param nanos
+	 *            The time taken.
+	 */
+	public static void recordRender(long nanos) {
+		RouteMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.render.record(nanos);
+		}
+	}
+
+	/**
+	 * Records the time taken by {@link net.jirasystems.webulizor.interfaces.Action#perform()}.
+	 *
+	 * @param action
+	 *            The action class.
+	 * @param nanos
+	 *            The time taken.
+	 */
+	public void recordPerform(Class<?> action, long nanos) {
+		LatencyHistogram histogram = performs.get(action);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = performs.putIfAbsent(action, created);
+			if (histogram == null) {
+				histogram = created;
+				register(objectName(PERFORM, action.getName()), created);
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+
+	public LatencyHistogram getLookup() {
+		return lookup;
+	}
+
+	public LatencyHistogram getAcquire() {
+		return acquire;
+	}
+
+	public LatencyHistogram getCommit() {
+		return commit;
+	}
+
+	public LatencyHistogram getRollback() {
+		return rollback;
+	}
+
+	public LatencyHistogram getRender() {
+		return render;
+	}
+
+	/**
+	 * @return The histograms for each phase other than
+	 *         {@value #PERFORM}, keyed by phase name.
+	 */
+	public Map<String, LatencyHistogram> getPhases() {
+		return phases;
+	}
+
+	/**
+	 * @return The {@value #PERFORM} histograms, keyed by action class.
+	 */
+	public Map<Class<?>, LatencyHistogram> getPerforms() {
+		return performs;
+	}
+
+	private ObjectName objectName(String phase, String action) {
+		StringBuilder name = new StringBuilder(DOMAIN);
+		name.append(":type=RouteMetrics,context=").append(
+				ObjectName.quote(contextPath));
+		name.append(",method=").append(ObjectName.quote(method));
+		name.append(",route=").append(ObjectName.quote(route));
+		name.append(",phase=").append(phase);
+		if (action != null) {
+			name.append(",action=").append(ObjectName.quote(action));
+		}
+		try {
+			return new ObjectName(name.toString());
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid name " + name, e);
+		}
+	}
+
+	private static void register(ObjectName name, LatencyHistogram histogram) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (!server.isRegistered(name)) {
+				server.registerMBean(histogram, name);
+			}
+		} catch (JMException e) {
+			log.warn("Unable to register " + name + ": " + e);
+		}
+	}
+
+	private static void unregister(ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			log.warn("Unable to unregister " + name + ": " + e);
+		}
+	}
+}
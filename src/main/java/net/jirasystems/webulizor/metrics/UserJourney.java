@@ -1,49 +1,153 @@
 package net.jirasystems.webulizor.metrics;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
+/**
+ * Records a sample of requests, grouped by session, in a fixed-size ring
+ * buffer.
+ * <p>
+ * Memory use is bounded: once the buffer is full the oldest interactions are
+ * overwritten. Recording is lock-free. Requests without an existing session
+ * are not recorded, so no session is created for stateless clients.
+ *
+ * @author David Carboni
+ *
+ */
 public class UserJourney {
 
-	private static Map<String, List<Interaction>> interactions = new ConcurrentHashMap<String, List<Interaction>>();
+	/** The default number of interactions held. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Record one request in every this many. Zero or less disables recording.
+	 */
+	public static int SAMPLE_EVERY = 1;
+
+	/**
+	 * The maximum number of interactions recorded for one session each time
+	 * the buffer wraps around, so that a single busy session can't fill it.
+	 */
+	public static int SESSION_LIMIT = 100;
+
+	/** The request headers copied into each {@link Interaction}. */
+	public static String[] HEADERS = { "User-Agent", "Referer" };
+
+	private static final AtomicLong requests = new AtomicLong();
+	private static volatile Ring ring = new Ring(DEFAULT_CAPACITY);
+
+	/**
+	 * Replaces the buffer with an empty one of the given size.
+	 *
+	 * @param capacity
+	 *            The maximum number of interactions to hold.
+	 */
+	public static void initialise(int capacity) {
+		ring = new Ring(capacity);
+	}
 
 	public static void addRequest(HttpServletRequest request) {
 
-		HttpSession session = request.getSession(true);
+		// Sample:
+		int sampleEvery = SAMPLE_EVERY;
+		if (sampleEvery <= 0 || requests.incrementAndGet() % sampleEvery != 0) {
+			return;
+		}
+
+		// Don't create a session just to record a journey:
+		HttpSession session = request.getSession(false);
+		if (session == null) {
+			return;
+		}
 		String id = session.getId();
 
-		// Use double-checked locking for smoothest running:
-		List<Interaction> list;
-		Map<String, List<Interaction>> interactions = UserJourney.interactions;
-		if (!interactions.containsKey(id)) {
+		Ring ring = UserJourney.ring;
+		if (ring.allow(id)) {
+			ring.add(new Interaction(request, id, HEADERS));
+		}
+	}
 
-			synchronized (interactions) {
-				list = interactions.get(id);
-				if (list == null) {
-					list = new ArrayList<Interaction>();
-					interactions.put(id, list);
-				}
+	/**
+	 * Removes the recorded interactions from the buffer.
+	 *
+	 * @return The interactions, oldest first, grouped by session ID.
+	 */
+	public static Map<String, List<Interaction>> getInteractions() {
+		Map<String, List<Interaction>> result = new LinkedHashMap<String, List<Interaction>>();
+		for (Interaction interaction : ring.drain()) {
+			List<Interaction> list = result.get(interaction.getSessionId());
+			if (list == null) {
+				list = new ArrayList<Interaction>();
+				result.put(interaction.getSessionId(), list);
 			}
+			list.add(interaction);
+		}
+		return result;
+	}
 
-		} else {
+	/**
+	 * A fixed-size buffer. Writers claim a slot by incrementing a shared
+	 * sequence, overwriting whatever was there.
+	 */
+	private static class Ring {
 
-			list = interactions.get(id);
+		private final AtomicReferenceArray<Interaction> slots;
+		private final AtomicLong sequence = new AtomicLong();
 
+		// Cleared each time the buffer wraps, so this never holds more
+		// sessions than the buffer has slots:
+		private final ConcurrentHashMap<String, AtomicInteger> sessionCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+		Ring(int capacity) {
+			slots = new AtomicReferenceArray<Interaction>(Math.max(1, capacity));
 		}
 
-		synchronized (list) {
-			list.add(new Interaction(request));
+		/**
+		 * @return Whether the session is within {@link UserJourney#SESSION_LIMIT}.
+		 */
+		boolean allow(String id) {
+			AtomicInteger count = sessionCounts.get(id);
+			if (count == null) {
+				count = new AtomicInteger();
+				AtomicInteger existing = sessionCounts.putIfAbsent(id, count);
+				if (existing != null) {
+					count = existing;
+				}
+			}
+			return count.incrementAndGet() <= SESSION_LIMIT;
 		}
-	}
 
-	public static Map<String, List<Interaction>> getInteractions() {
-		Map<String, List<Interaction>> interactions = UserJourney.interactions;
-		UserJourney.interactions = new ConcurrentHashMap<String, List<Interaction>>();
-		return interactions;
+		void add(Interaction interaction) {
+			long index = sequence.getAndIncrement();
+			int slot = (int) (index % slots.length());
+			if (slot == 0 && index > 0) {
+				sessionCounts.clear();
+			}
+			slots.set(slot, interaction);
+		}
+
+		List<Interaction> drain() {
+			int capacity = slots.length();
+			long end = sequence.get();
+			long start = Math.max(0, end - capacity);
+			List<Interaction> result = new ArrayList<Interaction>((int) (end - start));
+			for (long index = start; index < end; index++) {
+				Interaction interaction = slots.getAndSet((int) (index % capacity), null);
+				if (interaction != null) {
+					result.add(interaction);
+				}
+			}
+			sessionCounts.clear();
+			return result;
+		}
 	}
 }
@@ -0,0 +1,175 @@
+package net.jirasystems.webulizor.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates an index of {@link net.jirasystems.webulizor.interfaces.Action}
+ * classes at compile time, so that
+ * {@link net.jirasystems.webulizor.framework.App} doesn't need to scan the
+ * classpath at startup.
+ * <p>
+ * Classes annotated with <code>@Route</code>, <code>@HomeAction</code>,
+ * <code>@ExceptionAction</code>, <code>@NotFoundAction</code> or
+ * <code>@Singleton</code> are listed, one binary class name per line, in
+ * {@value #INDEX}. Singletons are listed so that they are created and checked
+ * at startup. The processor is registered in <code>META-INF/services</code>,
+ * so it runs automatically when Webulizor is on the compile classpath.
+ *
+ * @author David Carboni
+ *
+ */
+@SupportedAnnotationTypes({ "net.jirasystems.webulizor.annotations.Route",
+		"net.jirasystems.webulizor.annotations.HomeAction",
+		"net.jirasystems.webulizor.annotations.ExceptionAction",
+		"net.jirasystems.webulizor.annotations.NotFoundAction",
+		"net.jirasystems.webulizor.annotations.Singleton" })
+public class RouteIndexProcessor extends AbstractProcessor {
+
+	/** The classpath resource the index is written to. */
+	public static final String INDEX = "META-INF/webulizor/actions";
+
+	private static final String ACTION = "net.jirasystems.webulizor.interfaces.Action";
+
+	private final Set<String> actions = new TreeSet<String>();
+	private final Set<String> compiled = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+
+		if (roundEnv.processingOver()) {
+			writeIndex();
+			return false;
+		}
+
+		// Classes in this compilation, whether or not they're annotated:
+		for (Element element : roundEnv.getRootElements()) {
+			if (element instanceof TypeElement) {
+				compiled.add(binaryName((TypeElement) element));
+			}
+		}
+
+		TypeElement action = processingEnv.getElementUtils().getTypeElement(
+				ACTION);
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv
+					.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() != ElementKind.CLASS) {
+					continue;
+				}
+				if (action != null && !isAction(element, action)) {
+					processingEnv.getMessager().printMessage(
+							Kind.WARNING,
+							"@" + annotation.getSimpleName()
+									+ " is ignored on classes that don't implement "
+									+ ACTION, element);
+					continue;
+				}
+				actions.add(binaryName((TypeElement) element));
+			}
+		}
+
+		// Leave the annotations for other processors:
+		return false;
+	}
+
+	private boolean isAction(Element element, TypeElement action) {
+		TypeMirror type = processingEnv.getTypeUtils().erasure(
+				element.asType());
+		TypeMirror actionType = processingEnv.getTypeUtils().erasure(
+				action.asType());
+		return processingEnv.getTypeUtils().isAssignable(type, actionType);
+	}
+
+	private String binaryName(TypeElement element) {
+		return processingEnv.getElementUtils().getBinaryName(element)
+				.toString();
+	}
+
+	/**
+	 * Writes the index, keeping entries from a previous (incremental)
+	 * compilation for classes that weren't recompiled and still exist.
+	 */
+	private void writeIndex() {
+
+		for (String existing : readIndex()) {
+			if (!compiled.contains(existing)
+					&& processingEnv.getElementUtils().getTypeElement(
+							existing.replace('$', '.')) != null) {
+				actions.add(existing);
+			}
+		}
+
+		if (actions.isEmpty()) {
+			return;
+		}
+
+		try {
+			FileObject index = processingEnv.getFiler().createResource(
+					StandardLocation.CLASS_OUTPUT, "", INDEX);
+			Writer writer = new OutputStreamWriter(index.openOutputStream(),
+					"UTF-8");
+			try {
+				writer.write("# Generated by "
+						+ RouteIndexProcessor.class.getName() + "\n");
+				for (String name : actions) {
+					writer.write(name);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR,
+					"Unable to write " + INDEX + ": " + e);
+		}
+	}
+
+	private Set<String> readIndex() {
+		Set<String> result = new TreeSet<String>();
+		try {
+			FileObject index = processingEnv.getFiler().getResource(
+					StandardLocation.CLASS_OUTPUT, "", INDEX);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					index.openInputStream(), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#")) {
+						result.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// No previous index.
+		}
+		return result;
+	}
+}
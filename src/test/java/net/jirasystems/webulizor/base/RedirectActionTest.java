@@ -0,0 +1,205 @@
+package net.jirasystems.webulizor.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jirasystems.webulizor.annotations.Route;
+import net.jirasystems.webulizor.helpers.QueryString;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.interfaces.Get;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class RedirectActionTest {
+
+	@Mock
+	private ServletContext servletContext;
+
+	@Mock
+	private HttpServletRequest request;
+
+	@Mock
+	private HttpServletResponse response;
+
+	/**
+	 * Sets up a request to http://example.com:8080/context.
+	 */
+	@Before
+	public void setUp() {
+		when(servletContext.getContextPath()).thenReturn("/context");
+		when(request.getScheme()).thenReturn("http");
+		when(request.getServerName()).thenReturn("example.com");
+		when(request.getServerPort()).thenReturn(8080);
+	}
+
+	/**
+	 * Verifies that only status codes that redirect to the Location are
+	 * accepted.
+	 */
+	@Test
+	public void shouldCheckStatusCode() {
+
+		// Given
+		// Redirect and other status codes
+		int[] redirects = { 301, 302, 303, 307, 308 };
+		int[] others = { 200, 300, 304, 305, 306, 399, 404 };
+
+		// When
+		// We check them
+
+		// Then
+		// Only the redirects should be accepted
+		for (int statusCode : redirects) {
+			assertEquals(statusCode, RedirectAction.checkStatusCode(statusCode));
+		}
+		for (int statusCode : others) {
+			try {
+				RedirectAction.checkStatusCode(statusCode);
+				fail("Accepted " + statusCode);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+	}
+
+	/**
+	 * Verifies that the status code comes from the action, then the servlet
+	 * context, then defaults to 302.
+	 */
+	@Test
+	public void shouldUseDefaultStatusCode() throws Exception {
+
+		// Given
+		// Redirects with and without a status code of their own
+		RedirectAction unset = redirect(new RedirectAction(new URI("/a")));
+		RedirectAction set = redirect(new RedirectAction(new URI("/a")));
+		set.setStatusCode(307);
+
+		// When
+		// We get the status codes, with and without a configured default
+		int unconfigured = unset.getStatusCode();
+		when(servletContext.getAttribute(RedirectAction.STATUS_CODE_ATTRIBUTE))
+				.thenReturn(Integer.valueOf(303));
+		int configured = unset.getStatusCode();
+		unset.perform();
+
+		// Then
+		// The action's own status code should take precedence
+		assertEquals(302, unconfigured);
+		assertEquals(303, configured);
+		assertEquals(307, set.getStatusCode());
+		verify(response).setStatus(303);
+	}
+
+	/**
+	 * Verifies that the location of an action class is only resolved once.
+	 */
+	@Test
+	public void shouldCacheActionLocation() {
+
+		// Given
+		// A redirect to an action
+		URI first = new RedirectAction(Target.class).getLocation();
+
+		// When
+		// We redirect to it again
+		URI second = new RedirectAction(Target.class).getLocation();
+
+		// Then
+		// The same location should be used
+		assertEquals("/target", first.toString());
+		assertSame(first, second);
+	}
+
+	/**
+	 * Verifies that an action location is made absolute using the request,
+	 * with the query string and fragment.
+	 */
+	@Test
+	public void shouldMakeActionLocationAbsolute() {
+
+		// Given
+		// A redirect to an action with a query string and fragment
+		QueryString queryString = new QueryString("q", "a b");
+		RedirectAction redirect = redirect(new RedirectAction(Target.class,
+				queryString));
+		RedirectAction fragment = redirect(new RedirectAction(Target.class,
+				"top"));
+
+		// When
+		// We get the absolute locations
+		URI result = redirect.absoluteLocation();
+		URI withFragment = fragment.absoluteLocation();
+
+		// Then
+		// They should be on the request host and in the context
+		assertEquals("http://example.com:8080/context/target?q=a+b",
+				result.toString());
+		assertEquals("http://example.com:8080/context/target#top",
+				withFragment.toString());
+	}
+
+	/**
+	 * Verifies that a relative location keeps its query string exactly as
+	 * given, and that an absolute one is left alone.
+	 */
+	@Test
+	public void shouldKeepQueryOfRelativeLocation() throws Exception {
+
+		// Given
+		// Relative and absolute locations
+		RedirectAction relative = redirect(new RedirectAction(new URI(
+				"/search?q=a%20b&x=%7e&flag")));
+		URI absolute = new URI("https://example.org/page?a=1");
+		RedirectAction external = redirect(new RedirectAction(absolute));
+
+		// When
+		// We get the absolute locations
+		URI result = relative.absoluteLocation();
+		URI unchanged = external.absoluteLocation();
+
+		// Then
+		// The query should not be re-encoded
+		assertEquals(
+				"http://example.com:8080/context/search?q=a%20b&x=%7e&flag",
+				result.toString());
+		assertSame(absolute, unchanged);
+	}
+
+	private RedirectAction redirect(RedirectAction redirect) {
+		redirect.setServletContext(servletContext);
+		redirect.setRequest(request);
+		redirect.setResponse(response);
+		return redirect;
+	}
+
+	/**
+	 * An action to redirect to.
+	 */
+	@Route(path = "/target")
+	public static class Target extends AbstractAction implements Get {
+
+		@Override
+		public Action perform() {
+			return null;
+		}
+	}
+}
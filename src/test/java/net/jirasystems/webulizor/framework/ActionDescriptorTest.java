@@ -0,0 +1,167 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.jirasystems.webulizor.annotations.Singleton;
+import net.jirasystems.webulizor.base.AbstractAction;
+import net.jirasystems.webulizor.base.StatelessAction;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.interfaces.NotFoundAware;
+
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class ActionDescriptorTest {
+
+	/**
+	 * Verifies that a {@link StatelessAction} singleton is shared.
+	 */
+	@Test
+	public void shouldShareStatelessSingleton() {
+
+		// Given
+		// A stateless singleton
+		ActionDescriptor descriptor = ActionDescriptor
+				.forClass(StatelessSingleton.class);
+
+		// When
+		// We get two instances
+		Action first = descriptor.newInstance();
+		Action second = descriptor.newInstance();
+
+		// Then
+		// They should be the same instance
+		assertSame(first, second);
+	}
+
+	/**
+	 * Verifies that threads describing a singleton at the same time all get
+	 * the same instance.
+	 */
+	@Test
+	public void shouldShareSingletonInRace() throws Exception {
+
+		// Given
+		// Threads waiting to describe a singleton for the first time
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Action>> results = new ArrayList<Future<Action>>();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Action>() {
+					@Override
+					public Action call() throws Exception {
+						start.await();
+						return ActionDescriptor.forClass(RacedSingleton.class)
+								.newInstance();
+					}
+				}));
+			}
+
+			// When
+			// They start together
+			start.countDown();
+
+			// Then
+			// They should all get the same instance
+			Action first = results.get(0).get();
+			for (Future<Action> result : results) {
+				assertSame(first, result.get());
+			}
+			assertSame(first, ActionDescriptor.forClass(RacedSingleton.class)
+					.newInstance());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Verifies that a singleton which keeps request state in fields is
+	 * rejected.
+	 */
+	@Test(expected = AppException.class)
+	public void shouldRejectStatefulSingleton() {
+
+		// Given
+		// A singleton with request fields
+
+		// When
+		// We describe it
+		ActionDescriptor.forClass(StatefulSingleton.class);
+
+		// Then
+		// An exception should be thrown
+	}
+
+	/**
+	 * Verifies that a singleton the framework would write request state into
+	 * is rejected.
+	 */
+	@Test(expected = AppException.class)
+	public void shouldRejectNotFoundAwareSingleton() {
+
+		// Given
+		// A stateless singleton that's NotFoundAware
+
+		// When
+		// We describe it
+		ActionDescriptor.forClass(NotFoundAwareSingleton.class);
+
+		// Then
+		// An exception should be thrown
+	}
+
+	@Singleton
+	static class StatelessSingleton extends StatelessAction {
+		@Override
+		protected Action process() {
+			return null;
+		}
+	}
+
+	@Singleton
+	static class RacedSingleton extends StatelessAction {
+		RacedSingleton() throws InterruptedException {
+			// Widen the race:
+			Thread.sleep(50);
+		}
+
+		@Override
+		protected Action process() {
+			return null;
+		}
+	}
+
+	@Singleton
+	static class StatefulSingleton extends AbstractAction {
+		@Override
+		public Action perform() {
+			return null;
+		}
+	}
+
+	@Singleton
+	static class NotFoundAwareSingleton extends StatelessAction implements
+			NotFoundAware {
+		@Override
+		protected Action process() {
+			return null;
+		}
+
+		@Override
+		public void setRequestUri(String requestUri) {
+			// Would be shared between requests.
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import net.jirasystems.webulizor.base.StatelessAction;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.processor.RouteIndexProcessor;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests {@link ActionScanner} against a <code>WEB-INF/classes</code>
+ * directory in a temporary directory.
+ *
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ActionScannerTest {
+
+	@Mock
+	private ServletContext servletContext;
+
+	private File root;
+	private File classes;
+	private File cache;
+	private ClassLoader contextClassLoader;
+
+	/**
+	 * Copies an action, and the base class that makes it one, into a classes
+	 * directory.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("actionscanner", "");
+		root.delete();
+		classes = new File(root, "classes");
+		copy(ScannedAction.class);
+		copy(StatelessAction.class);
+
+		when(servletContext.getResourcePaths("/WEB-INF/lib")).thenReturn(
+				Collections.emptySet());
+		when(servletContext.getRealPath("/WEB-INF/classes")).thenReturn(
+				classes.getPath());
+
+		File tempDir = new File(root, "tmp");
+		tempDir.mkdirs();
+		cache = new File(tempDir, ActionScanner.CACHE);
+		contextClassLoader = Thread.currentThread().getContextClassLoader();
+	}
+
+	/**
+	 * Removes the temporary files.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		Thread.currentThread().setContextClassLoader(contextClassLoader);
+		FileUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * Verifies that classes without an index are scanned.
+	 */
+	@Test
+	public void shouldScanUnindexedClasses() {
+
+		// Given
+		// No index
+		ActionScanner scanner = new ActionScanner(servletContext, null, null,
+				index());
+
+		// When
+		// We scan
+		Set<Class<? extends Action>> actions = scanner.scan();
+
+		// Then
+		// The action should be found
+		assertTrue(actions.contains(ScannedAction.class));
+	}
+
+	/**
+	 * Verifies that classes with an index aren't scanned again.
+	 */
+	@Test
+	public void shouldNotScanIndexedClasses() throws IOException {
+
+		// Given
+		// An index for the classes directory
+		FileUtils.writeStringToFile(new File(classes,
+				RouteIndexProcessor.INDEX), "# Empty\n", "UTF-8");
+		ActionScanner scanner = new ActionScanner(servletContext, null, null,
+				index());
+
+		// When
+		// We scan
+		Set<Class<? extends Action>> actions = scanner.scan();
+
+		// Then
+		// Nothing should be found
+		assertFalse(actions.contains(ScannedAction.class));
+	}
+
+	/**
+	 * Verifies that only the given packages are scanned, plus Webulizor's
+	 * own.
+	 */
+	@Test
+	public void shouldOnlyScanGivenPackages() throws IOException {
+
+		// Given
+		// Actions in two other packages
+		compile(classes, "com.example.IncludedAction",
+				"org.example.ExcludedAction");
+		load(classes);
+		ActionScanner scanner = new ActionScanner(servletContext,
+				"com.example", null, index());
+
+		// When
+		// We scan one of the packages
+		Set<String> actions = names(scanner.scan());
+
+		// Then
+		// Only actions in that package and Webulizor's should be found
+		assertTrue(actions.contains("com.example.IncludedAction"));
+		assertTrue(actions.contains(ScannedAction.class.getName()));
+		assertFalse(actions.contains("org.example.ExcludedAction"));
+	}
+
+	/**
+	 * Verifies that only jars matching the given names are scanned.
+	 */
+	@Test
+	public void shouldOnlyScanGivenJars() throws IOException {
+
+		// Given
+		// Actions in two jars in WEB-INF/lib
+		File included = jar("app-1.0.jar", "com.example.JarAction");
+		File excluded = jar("other.jar", "org.example.OtherJarAction");
+		when(servletContext.getResourcePaths("/WEB-INF/lib")).thenReturn(
+				new HashSet<String>(Arrays.asList("/WEB-INF/lib/app-1.0.jar",
+						"/WEB-INF/lib/other.jar")));
+		when(servletContext.getResource("/WEB-INF/lib/app-1.0.jar"))
+				.thenReturn(included.toURI().toURL());
+		when(servletContext.getResource("/WEB-INF/lib/other.jar"))
+				.thenReturn(excluded.toURI().toURL());
+		load(classes, included, excluded);
+		ActionScanner scanner = new ActionScanner(servletContext, null,
+				"app-*.jar", index());
+
+		// When
+		// We scan one of the jars
+		Set<String> actions = names(scanner.scan());
+
+		// Then
+		// Only actions in that jar and WEB-INF/classes should be found
+		assertTrue(actions.contains("com.example.JarAction"));
+		assertTrue(actions.contains(ScannedAction.class.getName()));
+		assertFalse(actions.contains("org.example.OtherJarAction"));
+	}
+
+	/**
+	 * Verifies that the result is cached in the container's temporary
+	 * directory, keyed on a checksum, and read back on the next scan.
+	 */
+	@Test
+	public void shouldReadCache() throws IOException {
+
+		// Given
+		// A cache written by a scan, which we add an action to
+		when(servletContext.getAttribute("javax.servlet.context.tempdir"))
+				.thenReturn(cache.getParentFile());
+		new ActionScanner(servletContext, null, null, index()).scan();
+		List<String> lines = FileUtils.readLines(cache, "UTF-8");
+		String key = lines.get(0);
+		lines.add(CachedAction.class.getName());
+		FileUtils.writeLines(cache, "UTF-8", lines);
+
+		// When
+		// We scan again
+		Set<Class<? extends Action>> actions = new ActionScanner(
+				servletContext, null, null, index()).scan();
+
+		// Then
+		// The cache should be used
+		assertTrue(key, key.matches("[0-9a-f]{40}"));
+		assertTrue(lines.contains(ScannedAction.class.getName()));
+		assertTrue(actions.contains(CachedAction.class));
+		assertTrue(actions.contains(ScannedAction.class));
+	}
+
+	/**
+	 * Verifies that the cache isn't used once the classes or the
+	 * configuration change.
+	 */
+	@Test
+	public void shouldRescanWhenCacheIsStale() throws IOException {
+
+		// Given
+		// A cache written by a scan, which we add an action to
+		when(servletContext.getAttribute("javax.servlet.context.tempdir"))
+				.thenReturn(cache.getParentFile());
+		new ActionScanner(servletContext, null, null, index()).scan();
+		List<String> lines = FileUtils.readLines(cache, "UTF-8");
+		String key = lines.get(0);
+		lines.add(CachedAction.class.getName());
+		FileUtils.writeLines(cache, "UTF-8", lines);
+
+		// When
+		// The configuration, then the classes change
+		Set<Class<? extends Action>> reconfigured = new ActionScanner(
+				servletContext, "com.example", null, index()).scan();
+		String reconfiguredKey = FileUtils.readLines(cache, "UTF-8").get(0);
+		copy(CachedAction.class);
+		Set<Class<? extends Action>> changed = new ActionScanner(
+				servletContext, null, null, index()).scan();
+		String changedKey = FileUtils.readLines(cache, "UTF-8").get(0);
+
+		// Then
+		// Each should be scanned and cached under a new key
+		assertFalse(reconfigured.contains(CachedAction.class));
+		assertTrue(reconfigured.contains(ScannedAction.class));
+		assertFalse(key.equals(reconfiguredKey));
+		assertTrue(changed.contains(CachedAction.class));
+		assertFalse(key.equals(changedKey));
+	}
+
+	/**
+	 * Verifies that a corrupt cache falls back to a full scan.
+	 */
+	@Test
+	public void shouldRescanWhenCacheIsCorrupt() throws IOException {
+
+		// Given
+		// Cache files with a bad key, a missing class and a non-action
+		when(servletContext.getAttribute("javax.servlet.context.tempdir"))
+				.thenReturn(cache.getParentFile());
+		Set<String> scanned = names(new ActionScanner(servletContext, null,
+				null, index()).scan());
+		List<String> lines = FileUtils.readLines(cache, "UTF-8");
+		String key = lines.get(0);
+		String[] corrupt = { "garbage\n", key + "\nno.such.Action\n",
+				key + "\njava.lang.String\n" };
+
+		for (String content : corrupt) {
+			FileUtils.writeStringToFile(cache, content, "UTF-8");
+
+			// When
+			// We scan
+			Set<Class<? extends Action>> actions = new ActionScanner(
+					servletContext, null, null, index()).scan();
+
+			// Then
+			// The classes should be scanned and the cache rewritten
+			assertEquals(content, scanned, names(actions));
+			assertEquals(lines, FileUtils.readLines(cache, "UTF-8"));
+		}
+	}
+
+	private RouteIndex index() {
+		try {
+			return RouteIndex.load(new URLClassLoader(new URL[] { classes
+					.toURI().toURL() }, null));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void copy(Class<?> type) throws IOException {
+		String path = type.getName().replace('.', '/') + ".class";
+		InputStream input = type.getClassLoader().getResourceAsStream(path);
+		try {
+			FileUtils.copyInputStreamToFile(input, new File(classes, path));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Compiles an action for each of the given class names.
+	 */
+	private void compile(File output, String... names) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(compiler);
+		File sources = new File(root, "src");
+		List<File> files = new ArrayList<File>();
+		for (String name : names) {
+			String simpleName = StringUtils.substringAfterLast(name, ".");
+			File file = new File(sources, name.replace('.', '/') + ".java");
+			FileUtils.writeStringToFile(file, "package "
+					+ StringUtils.substringBeforeLast(name, ".") + ";\n\n"
+					+ "public class " + simpleName + " extends "
+					+ StatelessAction.class.getName() + " {\n"
+					+ "\tprotected " + Action.class.getName()
+					+ " process() {\n\t\treturn null;\n\t}\n}\n", "UTF-8");
+			files.add(file);
+		}
+		output.mkdirs();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(
+				null, null, null);
+		try {
+			Iterable<? extends JavaFileObject> units = fileManager
+					.getJavaFileObjectsFromFiles(files);
+			List<String> options = Arrays.asList("-d", output.getPath(),
+					"-classpath", location(Action.class) + File.pathSeparator
+							+ location(HttpServletRequest.class));
+			assertTrue(compiler.getTask(null, fileManager, null, options,
+					null, units).call().booleanValue());
+		} finally {
+			fileManager.close();
+		}
+	}
+
+	/**
+	 * @return A jar of actions compiled for each of the given class names.
+	 */
+	private File jar(String jarName, String... names) throws IOException {
+		File output = new File(root, jarName + ".classes");
+		compile(output, names);
+		File result = new File(root, "lib/" + jarName);
+		result.getParentFile().mkdirs();
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(result));
+		try {
+			for (String name : names) {
+				String path = name.replace('.', '/') + ".class";
+				jar.putNextEntry(new JarEntry(path));
+				FileUtils.copyFile(new File(output, path), jar);
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Makes the given directories and jars available to load scanned classes
+	 * from.
+	 */
+	private void load(File... locations) throws IOException {
+		URL[] urls = new URL[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			urls[i] = locations[i].toURI().toURL();
+		}
+		Thread.currentThread().setContextClassLoader(
+				new URLClassLoader(urls, getClass().getClassLoader()));
+	}
+
+	/**
+	 * @return The classpath entry a class was loaded from.
+	 */
+	private static String location(Class<?> type) {
+		try {
+			return new File(type.getProtectionDomain().getCodeSource()
+					.getLocation().toURI()).getPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Set<String> names(
+			Collection<Class<? extends Action>> types) {
+		Set<String> result = new TreeSet<String>();
+		for (Class<?> type : types) {
+			result.add(type.getName());
+		}
+		return result;
+	}
+
+	/**
+	 * Only found from the cache, until it's copied into the classes.
+	 */
+	public static class CachedAction extends StatelessAction {
+		@Override
+		protected Action process() {
+			return null;
+		}
+	}
+
+	/**
+	 * Found by scanning.
+	 */
+	public static class ScannedAction extends StatelessAction {
+		@Override
+		protected Action process() {
+			return null;
+		}
+	}
+}
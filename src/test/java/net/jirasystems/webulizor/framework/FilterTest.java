@@ -0,0 +1,261 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FilterTest {
+
+	@Mock
+	private FilterConfig filterConfig;
+
+	@Mock
+	private ServletContext servletContext;
+
+	@Mock
+	private HttpServletRequest request;
+
+	@Mock
+	private HttpServletResponse response;
+
+	@Mock
+	private FilterChain chain;
+
+	@Mock
+	private RequestDispatcher dispatcher;
+
+	private StringWriter body;
+
+	// Class under test.
+	private Filter filter;
+
+	/**
+	 * Sets up the class under test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		when(filterConfig.getServletContext()).thenReturn(servletContext);
+		when(request.getContextPath()).thenReturn("/context");
+		when(request.getRequestDispatcher("/app/ready")).thenReturn(
+				dispatcher);
+		body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+		filter = new Filter();
+	}
+
+	/**
+	 * Verifies that there is no readiness endpoint unless one is configured,
+	 * so the request goes to the app.
+	 */
+	@Test
+	public void shouldNotCheckReadinessByDefault() throws Exception {
+
+		// Given
+		// No readiness path
+		filter.init(filterConfig);
+		when(request.getRequestURI()).thenReturn("/context/ready");
+
+		// When
+		// We request /ready
+		filter.doFilter(request, response, chain);
+
+		// Then
+		// It should be forwarded to the app
+		verify(dispatcher).forward(request, response);
+		verify(response, never()).setStatus(
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+
+	/**
+	 * Verifies that the readiness path responds 503 until the app is ready.
+	 */
+	@Test
+	public void shouldReportStarting() throws Exception {
+
+		// Given
+		// A readiness path and an app that isn't ready
+		when(filterConfig.getInitParameter("readinessPath")).thenReturn(
+				" /ready ");
+		filter.init(filterConfig);
+		when(request.getRequestURI()).thenReturn("/context/ready");
+
+		// When
+		// We request it
+		filter.doFilter(request, response, chain);
+
+		// Then
+		// It should respond 503
+		verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		verify(dispatcher, never()).forward(request, response);
+		assertEquals("starting", body.toString());
+	}
+
+	/**
+	 * Verifies that the readiness path responds 200 once the app is ready.
+	 */
+	@Test
+	public void shouldReportReady() throws Exception {
+
+		// Given
+		// A readiness path and an app that's ready, without a database
+		when(filterConfig.getInitParameter("readinessPath")).thenReturn(
+				"/ready");
+		filter.init(filterConfig);
+		when(servletContext.getAttribute(App.READY)).thenReturn(Boolean.TRUE);
+		when(request.getRequestURI()).thenReturn("/context/ready");
+
+		// When
+		// We request it
+		filter.doFilter(request, response, chain);
+
+		// Then
+		// It should respond with the default status
+		verify(response, never()).setStatus(
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		assertEquals("ready", body.toString());
+	}
+
+	/**
+	 * Verifies that a page request is forwarded to the app by default.
+	 */
+	@Test
+	public void shouldForwardToApp() throws Exception {
+
+		// Given
+		// The default dispatch
+		filter.init(filterConfig);
+		when(request.getRequestURI()).thenReturn("/context/page");
+		when(request.getRequestDispatcher("/app/page")).thenReturn(dispatcher);
+
+		// When
+		// We request a page
+		filter.doFilter(request, response, chain);
+
+		// Then
+		// It should be forwarded to /app + path
+		verify(dispatcher).forward(request, response);
+	}
+
+	/**
+	 * Verifies that a page request dispatched directly to the app looks the
+	 * same to it as a forwarded one, i.e. as a request for /app + path.
+	 */
+	@Test
+	public void shouldDispatchDirectlyAsThoughForwarded() throws Exception {
+
+		// Given
+		// Direct dispatch to an initialised app
+		when(filterConfig.getInitParameter("dispatch")).thenReturn("direct");
+		filter.init(filterConfig);
+		final List<HttpServletRequest> dispatched;
+		dispatched = new ArrayList<HttpServletRequest>();
+		App app = new App() {
+			@Override
+			protected void service(HttpServletRequest request,
+					HttpServletResponse response) {
+				dispatched.add(request);
+			}
+		};
+		when(servletContext.getAttribute(App.ATTRIBUTE)).thenReturn(app);
+		when(request.getRequestURI()).thenReturn("/context/page");
+		when(request.getServletPath()).thenReturn("/page");
+
+		// When
+		// We request a page
+		filter.doFilter(request, response, chain);
+
+		// Then
+		// The app should see the paths a forward to /app/page would give
+		verify(request, never()).getRequestDispatcher("/app/page");
+		assertEquals(1, dispatched.size());
+		HttpServletRequest result = dispatched.get(0);
+		assertEquals("/context/app/page", result.getRequestURI());
+		assertEquals("/app", result.getServletPath());
+		assertEquals("/page", result.getPathInfo());
+		assertEquals("/context/page",
+				result.getAttribute("javax.servlet.forward.request_uri"));
+		assertEquals("/page",
+				result.getAttribute("javax.servlet.forward.servlet_path"));
+	}
+
+	/**
+	 * Verifies that any path with an extension is static if no extensions
+	 * are configured.
+	 */
+	@Test
+	public void shouldTreatAnyExtensionAsStatic() {
+
+		// Given
+		// No static extensions
+		filter.init(filterConfig);
+
+		// When
+		// We check paths with and without extensions
+		boolean css = filter.isStaticContent("/context/css/site.css", 8);
+		boolean page = filter.isStaticContent("/context/page", 8);
+		boolean directory = filter.isStaticContent("/context/v1.2/page", 8);
+		boolean trailingDot = filter.isStaticContent("/context/page.", 8);
+		boolean contextDot = filter.isStaticContent("/con.text/page", 9);
+
+		// Then
+		// Only the file with an extension should be static
+		assertTrue(css);
+		assertFalse(page);
+		assertFalse(directory);
+		assertFalse(trailingDot);
+		assertFalse(contextDot);
+	}
+
+	/**
+	 * Verifies that only the configured extensions are static, ignoring case.
+	 */
+	@Test
+	public void shouldOnlyTreatGivenExtensionsAsStatic() {
+
+		// Given
+		// Static extensions
+		when(filterConfig.getInitParameter("staticExtensions")).thenReturn(
+				"css, js");
+		filter.init(filterConfig);
+
+		// When
+		// We check paths with various extensions
+		boolean css = filter.isStaticContent("/context/site.CSS", 8);
+		boolean js = filter.isStaticContent("/context/site.js", 8);
+		boolean json = filter.isStaticContent("/context/site.json", 8);
+		boolean jsp = filter.isStaticContent("/context/index.jsp", 8);
+
+		// Then
+		// Only the configured extensions should be static
+		assertTrue(css);
+		assertTrue(js);
+		assertFalse(json);
+		assertFalse(jsp);
+	}
+}
@@ -0,0 +1,219 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.jirasystems.webulizor.helpers.Velocity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class RequestContextTest {
+
+	// Class under test.
+	private RequestContext context;
+
+	/**
+	 * Sets up the class under test.
+	 */
+	@Before
+	public void setUp() {
+		context = new RequestContext();
+	}
+
+	/**
+	 * Verifies put, get, containsKey and remove for a key held in a slot.
+	 */
+	@Test
+	public void shouldPutAndRemoveSlotKey() {
+
+		// Given
+		// A slot key
+		String key = "link";
+
+		// When
+		// We put, then remove a value
+		Object previous = context.put(key, "first");
+		Object replaced = context.put(key, "second");
+		Object value = context.get(key);
+		boolean contained = context.containsKey(key);
+		Object removed = context.remove(key);
+
+		// Then
+		// The map should behave as a HashMap would
+		assertNull(previous);
+		assertEquals("first", replaced);
+		assertEquals("second", value);
+		assertTrue(contained);
+		assertEquals("second", removed);
+		assertFalse(context.containsKey(key));
+		assertNull(context.get(key));
+	}
+
+	/**
+	 * Verifies put, get, containsKey and remove for a key with no slot.
+	 */
+	@Test
+	public void shouldPutAndRemoveOverflowKey() {
+
+		// Given
+		// A key with no slot
+		String key = "message";
+
+		// When
+		// We put, then remove a value
+		Object previous = context.put(key, "first");
+		Object replaced = context.put(key, "second");
+		Object value = context.get(key);
+		boolean contained = context.containsKey(key);
+		Object removed = context.remove(key);
+
+		// Then
+		// The map should behave as a HashMap would
+		assertNull(previous);
+		assertEquals("first", replaced);
+		assertEquals("second", value);
+		assertTrue(contained);
+		assertEquals("second", removed);
+		assertFalse(context.containsKey(key));
+		assertNull(context.remove(key));
+	}
+
+	/**
+	 * Verifies that a null value in a slot is present and counted.
+	 */
+	@Test
+	public void shouldHoldNullInSlot() {
+
+		// Given
+		// An empty context
+
+		// When
+		// We put a null value in a slot
+		context.put("submitTo", null);
+
+		// Then
+		// The key should be present, with a null value
+		assertTrue(context.containsKey("submitTo"));
+		assertNull(context.get("submitTo"));
+		assertEquals(1, context.size());
+		assertTrue(context.keySet().contains("submitTo"));
+	}
+
+	/**
+	 * Verifies that the size counts slot and overflow keys.
+	 */
+	@Test
+	public void shouldCountSlotAndOverflowKeys() {
+
+		// Given
+		// An empty context
+		assertEquals(0, context.size());
+		assertTrue(context.isEmpty());
+
+		// When
+		// We put slot and overflow keys, replacing one
+		context.put("link", "link");
+		context.put("submitTo", "submitTo");
+		context.put("a", "a");
+		context.put("b", "b");
+		context.put("a", "c");
+
+		// Then
+		// Each key should be counted once
+		assertEquals(4, context.size());
+		context.clear();
+		assertEquals(0, context.size());
+	}
+
+	/**
+	 * Verifies that entries can be removed while iterating.
+	 */
+	@Test
+	public void shouldRemoveWhileIterating() {
+
+		// Given
+		// Slot and overflow keys
+		context.put("link", "link");
+		context.put("submitTo", "submitTo");
+		context.put("a", "a");
+		context.put("b", "b");
+
+		// When
+		// We remove the link and one overflow key while iterating
+		Map<String, Object> seen = new HashMap<String, Object>();
+		Iterator<Entry<String, Object>> iterator = context.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Object> entry = iterator.next();
+			seen.put(entry.getKey(), entry.getValue());
+			if ("link".equals(entry.getKey()) || "a".equals(entry.getKey())) {
+				iterator.remove();
+			}
+		}
+
+		// Then
+		// Every entry should have been seen and only two should remain
+		assertEquals(4, seen.size());
+		assertEquals(2, context.size());
+		assertFalse(context.containsKey("link"));
+		assertFalse(context.containsKey("a"));
+		assertEquals("submitTo", context.get("submitTo"));
+		assertEquals("b", context.get("b"));
+	}
+
+	/**
+	 * Verifies that setting the value of a slot entry updates the context.
+	 */
+	@Test
+	public void shouldSetValueOfSlotEntry() {
+
+		// Given
+		// A slot key
+		context.put("link", "first");
+
+		// When
+		// We set its value through the entry
+		Entry<String, Object> entry = context.entrySet().iterator().next();
+		Object previous = entry.setValue("second");
+
+		// Then
+		// The context should have the new value
+		assertEquals("first", previous);
+		assertEquals("second", context.get("link"));
+		assertEquals("second", entry.getValue());
+	}
+
+	/**
+	 * Verifies that <code>#set</code> in a template doesn't change the
+	 * context it's rendered from.
+	 */
+	@Test
+	public void shouldNotBeChangedByTemplate() {
+
+		// Given
+		// A context with a link
+		context.put("link", "original");
+
+		// When
+		// We render a template that sets the link
+		String result = Velocity.renderText("requestcontexttest.vm", context);
+
+		// Then
+		// The template should see its own value, but the context shouldn't
+		// change
+		assertEquals("changed", result);
+		assertEquals("original", context.get("link"));
+	}
+}
@@ -0,0 +1,162 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import net.jirasystems.webulizor.base.StatelessAction;
+import net.jirasystems.webulizor.interfaces.Action;
+import net.jirasystems.webulizor.processor.RouteIndexProcessor;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link RouteIndex} against indexes in temporary directories and jars.
+ *
+ * @author David Carboni
+ *
+ */
+public class RouteIndexTest {
+
+	private static final String INDEX = "# Generated\n\n"
+			+ IndexedAction.class.getName() + "\n" + String.class.getName()
+			+ "\nno.such.Action\n";
+
+	private File root;
+	private URL indexed;
+	private URL unindexed;
+	private URL jar;
+
+	/**
+	 * Creates an indexed directory, an unindexed one and an indexed jar.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("routeindex", "");
+		root.delete();
+		root.mkdir();
+
+		File directory = new File(root, "indexed");
+		FileUtils.writeStringToFile(new File(directory,
+				RouteIndexProcessor.INDEX), INDEX, "UTF-8");
+		indexed = directory.toURI().toURL();
+
+		directory = new File(root, "unindexed");
+		directory.mkdir();
+		unindexed = directory.toURI().toURL();
+
+		File file = new File(root, "library.jar");
+		JarOutputStream output = new JarOutputStream(new FileOutputStream(
+				file));
+		try {
+			output.putNextEntry(new JarEntry(RouteIndexProcessor.INDEX));
+			output.write(INDEX.getBytes("UTF-8"));
+			output.closeEntry();
+		} finally {
+			output.close();
+		}
+		jar = file.toURI().toURL();
+	}
+
+	/**
+	 * Removes the temporary files.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * Verifies that indexed actions are loaded, skipping comments, stale
+	 * entries and classes that aren't actions.
+	 */
+	@Test
+	public void shouldLoadIndexedActions() throws IOException {
+
+		// Given
+		// A class loader with indexes
+		URLClassLoader classLoader = new URLClassLoader(new URL[] { indexed,
+				unindexed, jar }, getClass().getClassLoader());
+
+		// When
+		// We load the index
+		RouteIndex index = RouteIndex.load(classLoader);
+
+		// Then
+		// Only the action should be listed
+		assertTrue(index.getActions().contains(IndexedAction.class));
+		for (Class<? extends Action> action : index.getActions()) {
+			assertTrue(Action.class.isAssignableFrom(action));
+		}
+		assertFalse(index.isEmpty());
+	}
+
+	/**
+	 * Verifies that each location is known to be indexed or not, so that
+	 * unindexed locations can still be scanned.
+	 */
+	@Test
+	public void shouldRecordIndexedLocations() throws IOException {
+
+		// Given
+		// A class loader with indexed and unindexed locations
+		URLClassLoader classLoader = new URLClassLoader(new URL[] { indexed,
+				unindexed, jar }, getClass().getClassLoader());
+
+		// When
+		// We load the index
+		RouteIndex index = RouteIndex.load(classLoader);
+
+		// Then
+		// The directory and jar with indexes should be recognised, however
+		// the URL is written
+		assertTrue(index.isIndexed(indexed));
+		assertTrue(index.isIndexed(new URL(indexed.toString().replaceAll(
+				"/$", ""))));
+		assertTrue(index.isIndexed(jar));
+		assertTrue(index.isIndexed(new URL("jar:" + jar + "!/")));
+		assertFalse(index.isIndexed(unindexed));
+	}
+
+	/**
+	 * Verifies that a class loader without indexes gives an empty index.
+	 */
+	@Test
+	public void shouldBeEmptyWithoutIndexes() {
+
+		// Given
+		// A class loader with no indexes
+		URLClassLoader classLoader = new URLClassLoader(
+				new URL[] { unindexed }, null);
+
+		// When
+		// We load the index
+		RouteIndex index = RouteIndex.load(classLoader);
+
+		// Then
+		// It should be empty
+		assertTrue(index.isEmpty());
+		assertTrue(index.getActions().isEmpty());
+		assertFalse(index.isIndexed(unindexed));
+	}
+
+	/**
+	 * Listed in the test index.
+	 */
+	public static class IndexedAction extends StatelessAction {
+		@Override
+		protected Action process() {
+			return null;
+		}
+	}
+}
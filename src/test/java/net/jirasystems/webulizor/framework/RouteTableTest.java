@@ -0,0 +1,135 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class RouteTableTest {
+
+	private Map<String, String> routes;
+
+	/**
+	 * Sets up some routes.
+	 */
+	@Before
+	public void setUp() {
+		routes = new HashMap<String, String>();
+		routes.put("/account", "account");
+		routes.put("/account/edit", "edit");
+		routes.put("/about", "about");
+	}
+
+	/**
+	 * Verifies that the longest matching route is selected.
+	 */
+	@Test
+	public void shouldMatchLongestPrefix() {
+
+		// Given
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// When
+		String account = routeTable.lookup("/account/123");
+		String edit = routeTable.lookup("/account/edit/123");
+
+		// Then
+		assertEquals("account", account);
+		assertEquals("edit", edit);
+	}
+
+	/**
+	 * Verifies that matching ignores case, as
+	 * {@link org.apache.commons.lang.StringUtils#startsWithIgnoreCase(String, String)}
+	 * does.
+	 */
+	@Test
+	public void shouldIgnoreCase() {
+
+		// Given
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// When
+		String result = routeTable.lookup("/ACCOUNT/Edit");
+
+		// Then
+		assertEquals("edit", result);
+	}
+
+	/**
+	 * Verifies that a route matches as a plain prefix, not only on a path
+	 * segment boundary.
+	 */
+	@Test
+	public void shouldMatchPartialSegment() {
+
+		// Given
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// When
+		String result = routeTable.lookup("/aboutus");
+
+		// Then
+		assertEquals("about", result);
+	}
+
+	/**
+	 * Verifies that null is returned if no route matches.
+	 */
+	@Test
+	public void shouldReturnNullForNoMatch() {
+
+		// Given
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// When
+		String unmatched = routeTable.lookup("/acc");
+		String nullPath = routeTable.lookup(null);
+
+		// Then
+		assertNull(unmatched);
+		assertNull(nullPath);
+	}
+
+	/**
+	 * Verifies that the table is not affected by later changes to the source
+	 * map.
+	 */
+	@Test
+	public void shouldBeImmutable() {
+
+		// Given
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// When
+		routes.put("/account/delete", "delete");
+
+		// Then
+		assertEquals("account", routeTable.lookup("/account/delete"));
+		assertEquals(3, routeTable.size());
+	}
+
+	/**
+	 * Verifies that routes differing only by case are counted once.
+	 */
+	@Test
+	public void shouldCountRoutesDifferingByCaseOnce() {
+
+		// Given
+		routes.put("/ACCOUNT", "ACCOUNT");
+
+		// When
+		RouteTable<String> routeTable = RouteTable.compile(routes);
+
+		// Then
+		assertEquals(3, routeTable.size());
+	}
+}
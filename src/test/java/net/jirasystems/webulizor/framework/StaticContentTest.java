@@ -0,0 +1,425 @@
+package net.jirasystems.webulizor.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jirasystems.webulizor.helpers.AssetManifest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests {@link StaticContent} against files in a temporary directory.
+ *
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StaticContentTest {
+
+	@Mock
+	private ServletContext servletContext;
+
+	@Mock
+	private HttpServletRequest request;
+
+	@Mock
+	private HttpServletResponse response;
+
+	private File root;
+	private ByteArrayOutputStream body;
+
+	/**
+	 * Creates a webapp directory and mocks a GET request.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("webapp", "");
+		root.delete();
+		root.mkdir();
+		when(servletContext.getRealPath("/")).thenReturn(root.getPath());
+		when(request.getMethod()).thenReturn("GET");
+
+		body = new ByteArrayOutputStream();
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+		});
+	}
+
+	/**
+	 * Removes the webapp directory.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+		AssetManifest.initialise(new HashMap<String, String>());
+	}
+
+	/**
+	 * Verifies that a file name with a space is served when requested with
+	 * an encoded path.
+	 */
+	@Test
+	public void shouldServeEncodedName() throws Exception {
+
+		// Given
+		// A file whose name contains a space
+		write("img/my photo.png", "photo");
+		StaticContent staticContent = StaticContent.index(servletContext);
+
+		// When
+		// We request it with an encoded path
+		boolean served = staticContent.serve(request, response,
+				"/img/my%20photo.png");
+
+		// Then
+		// The file should be served
+		assertTrue(served);
+		assertEquals("photo", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that a file name with non-ASCII characters is served when
+	 * requested with a UTF-8 encoded path.
+	 */
+	@Test
+	public void shouldServeEncodedNonAsciiName() throws Exception {
+
+		// Given
+		// A file whose name contains a non-ASCII character, if the file
+		// system can represent it
+		write("caf\u00e9.css", "css");
+		assumeTrue(Arrays.asList(root.list()).contains("caf\u00e9.css"));
+		StaticContent staticContent = StaticContent.index(servletContext);
+
+		// When
+		// We request it with an encoded path
+		boolean served = staticContent.serve(request, response,
+				"/caf%C3%A9.css");
+
+		// Then
+		// The file should be served
+		assertTrue(served);
+		assertEquals("css", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that a fingerprinted path, as generated by
+	 * {@link net.jirasystems.webulizor.helpers.Link#asset(String)}, is served
+	 * when the file name needs encoding.
+	 */
+	@Test
+	public void shouldServeEncodedFingerprintedName() throws Exception {
+
+		// Given
+		// A file whose name contains a space
+		write("img/my photo.png", "photo");
+		StaticContent staticContent = StaticContent.index(servletContext);
+		String path = encode(AssetManifest.get("/img/my photo.png"));
+
+		// When
+		// We request the fingerprinted path
+		boolean served = staticContent.serve(request, response, path);
+
+		// Then
+		// The file should be served
+		assertTrue(path.startsWith("/img/my%20photo."));
+		assertTrue(served);
+		assertEquals("photo", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that only paths generated by the {@link AssetManifest} are
+	 * cached as immutable, even if a file name looks fingerprinted.
+	 */
+	@Test
+	public void shouldOnlyCacheGeneratedPathsAsImmutable() throws Exception {
+
+		// Given
+		// A date-stamped file name
+		write("foo.20240101.js", "js");
+		StaticContent staticContent = StaticContent.index(servletContext);
+
+		// When
+		// We request it by name and by fingerprinted path
+		staticContent.serve(request, response, "/foo.20240101.js");
+		staticContent.serve(request, response,
+				AssetManifest.get("/foo.20240101.js"));
+
+		// Then
+		// Only the fingerprinted path should be immutable
+		verify(response).setHeader("Cache-Control",
+				StaticContent.CACHE_CONTROL);
+		verify(response).setHeader("Cache-Control",
+				StaticContent.IMMUTABLE_CACHE_CONTROL);
+	}
+
+	/**
+	 * Verifies that range requests are left to the default servlet, which can
+	 * send partial content.
+	 */
+	@Test
+	public void shouldNotServeRange() throws Exception {
+
+		// Given
+		// A range request for a file
+		write("video.mp4", "0123456789");
+		StaticContent staticContent = StaticContent.index(servletContext);
+		when(request.getHeader("Range")).thenReturn("bytes=2-5");
+
+		// When
+		// We try to serve it
+		boolean served = staticContent.serve(request, response, "/video.mp4");
+
+		// Then
+		// It should be left for the default servlet
+		assertFalse(served);
+		assertEquals(0, body.size());
+	}
+
+	/**
+	 * Verifies that server-side resources and hidden files are not sent as
+	 * source.
+	 */
+	@Test
+	public void shouldNotServeServerSideResources() throws Exception {
+
+		// Given
+		// A JSP, a hidden file and a stylesheet
+		write("index.jsp", "<% secret %>");
+		write(".htaccess", "secret");
+		write("site.css", "css");
+		StaticContent staticContent = StaticContent.index(servletContext);
+
+		// When
+		// We request each
+		boolean jsp = staticContent.serve(request, response, "/index.jsp");
+		boolean hidden = staticContent.serve(request, response, "/.htaccess");
+		boolean css = staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// Only the stylesheet should be served
+		assertFalse(jsp);
+		assertFalse(hidden);
+		assertTrue(css);
+		assertEquals("css", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that only the given extensions are served, if specified.
+	 */
+	@Test
+	public void shouldOnlyServeGivenExtensions() throws Exception {
+
+		// Given
+		// An index of stylesheets only
+		write("site.css", "css");
+		write("site.js", "js");
+		StaticContent staticContent = StaticContent.index(servletContext,
+				new String[] { "CSS" });
+
+		// When
+		// We request a stylesheet and a script
+		boolean css = staticContent.serve(request, response, "/site.css");
+		boolean js = staticContent.serve(request, response, "/site.js");
+
+		// Then
+		// Only the stylesheet should be served
+		assertTrue(css);
+		assertFalse(js);
+		assertEquals("css", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that the smallest representation the client accepts is sent.
+	 */
+	@Test
+	public void shouldPreferBrotliThenGzip() throws Exception {
+
+		// Given
+		// A file with precompressed variants
+		writeVariants();
+		StaticContent staticContent = StaticContent.index(servletContext);
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip, br");
+
+		// When
+		// We serve it to a client that accepts both encodings
+		staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// The brotli variant should be sent
+		verify(response).setHeader("Content-Encoding", "br");
+		verify(response).setHeader("Vary", "Accept-Encoding");
+		assertEquals("brotli", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that an encoding with a quality of zero is not sent.
+	 */
+	@Test
+	public void shouldHonourQualityValues() throws Exception {
+
+		// Given
+		// A client that refuses brotli
+		writeVariants();
+		StaticContent staticContent = StaticContent.index(servletContext);
+		when(request.getHeader("Accept-Encoding")).thenReturn(
+				"br;q=0, gzip; q=0.5");
+
+		// When
+		// We serve the file
+		staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// The gzip variant should be sent
+		verify(response).setHeader("Content-Encoding", "gzip");
+		assertEquals("gzip", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that the original is sent if no encoding is acceptable.
+	 */
+	@Test
+	public void shouldSendIdentityIfNoEncodingAccepted() throws Exception {
+
+		// Given
+		// A client that refuses both encodings, one with an invalid quality
+		writeVariants();
+		StaticContent staticContent = StaticContent.index(servletContext);
+		when(request.getHeader("Accept-Encoding")).thenReturn(
+				"br;q=0.0, gzip;q=x, identity");
+
+		// When
+		// We serve the file
+		staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// The original should be sent, with its length
+		verify(response, never()).setHeader(eq("Content-Encoding"),
+				anyString());
+		verify(response).setContentLength(8);
+		assertEquals("original", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies that a weak or listed ETag in If-None-Match gets a 304.
+	 */
+	@Test
+	public void shouldMatchIfNoneMatchList() throws Exception {
+
+		// Given
+		// A client with a cached copy, listed as a weak tag among others
+		File file = write("site.css", "original");
+		StaticContent staticContent = StaticContent.index(servletContext);
+		String etag = "\"" + StaticContent.hash(file) + "\"";
+		when(request.getHeader("If-None-Match")).thenReturn(
+				"\"other\", W/" + etag);
+
+		// When
+		// We serve the file
+		boolean served = staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// It should be not modified, with no content
+		assertTrue(served);
+		verify(response).setHeader("ETag", etag);
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		assertEquals(0, body.size());
+	}
+
+	/**
+	 * Verifies that If-None-Match takes precedence over If-Modified-Since.
+	 */
+	@Test
+	public void shouldPreferIfNoneMatch() throws Exception {
+
+		// Given
+		// A client with a different version, but a recent date
+		write("site.css", "original");
+		StaticContent staticContent = StaticContent.index(servletContext);
+		when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(
+				System.currentTimeMillis() + 60000);
+
+		// When
+		// We serve the file
+		staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// The file should be sent
+		verify(response, never()).setStatus(anyInt());
+		assertEquals("original", body.toString("UTF-8"));
+	}
+
+	/**
+	 * Verifies If-Modified-Since when there is no If-None-Match.
+	 */
+	@Test
+	public void shouldCheckIfModifiedSince() throws Exception {
+
+		// Given
+		// A file last modified a minute ago
+		File file = write("site.css", "original");
+		long lastModified = System.currentTimeMillis() - 60000;
+		file.setLastModified(lastModified);
+		StaticContent staticContent = StaticContent.index(servletContext);
+
+		// When
+		// A client has a copy from before and after that
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(
+				lastModified - 60000);
+		staticContent.serve(request, response, "/site.css");
+		when(request.getDateHeader("If-Modified-Since")).thenReturn(
+				lastModified);
+		staticContent.serve(request, response, "/site.css");
+
+		// Then
+		// The older copy should be replaced and the newer one not modified
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		assertEquals("original", body.toString("UTF-8"));
+	}
+
+	private void writeVariants() throws IOException {
+		write("site.css", "original");
+		write("site.css.gz", "gzip");
+		write("site.css.br", "brotli");
+	}
+
+	private File write(String path, String content) throws IOException {
+		File file = new File(root, path);
+		FileUtils.writeStringToFile(file, content, "UTF-8");
+		return file;
+	}
+
+	private static String encode(String path) throws Exception {
+		return new URI(null, null, path, null).toASCIIString();
+	}
+}
@@ -0,0 +1,212 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ConnectionPool} against in-memory HSQLDB databases.
+ *
+ * @author David Carboni
+ *
+ */
+public class ConnectionPoolTest {
+
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	private String url;
+	private ConnectionPool pool;
+
+	/**
+	 * Loads the driver and picks a database of our own.
+	 */
+	@Before
+	public void setUp() throws ClassNotFoundException {
+		Class.forName(Database.HSQL_DRIVER);
+		url = "jdbc:hsqldb:mem:pooltest" + databases.incrementAndGet();
+	}
+
+	/**
+	 * Shuts down the pool.
+	 */
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Verifies that no more than the maximum number of connections are leased
+	 * and that a borrower waits no longer than the acquire timeout.
+	 */
+	@Test
+	public void shouldTimeOutWhenExhausted() throws SQLException {
+
+		// Given
+		// A pool of one connection, which is leased
+		pool = new ConnectionPool(url, "sa", "", 0, 1, 100, 0);
+		Connection connection = pool.getConnection();
+
+		// When
+		// We try to borrow another
+		long start = System.currentTimeMillis();
+		try {
+			pool.getConnection();
+			fail("Borrowed more than the maximum");
+		} catch (SQLException e) {
+			// Expected.
+		}
+		long waited = System.currentTimeMillis() - start;
+
+		// Then
+		// We should have waited for the timeout, and be able to borrow once
+		// the first connection is returned
+		assertTrue(waited >= 90);
+		assertEquals(1, pool.getLeased());
+		connection.close();
+		pool.getConnection().close();
+		assertEquals(1, pool.getTotal());
+	}
+
+	/**
+	 * Verifies that closing a connection returns it to the pool, rolling back
+	 * any uncommitted work.
+	 */
+	@Test
+	public void shouldReturnConnectionOnClose() throws SQLException {
+
+		// Given
+		// A connection with uncommitted work
+		pool = new ConnectionPool(url, "sa", "", 0, 2, 1000, 0);
+		Connection connection = pool.getConnection();
+		execute(connection, "CREATE TABLE T (ID INT)");
+		connection.setAutoCommit(false);
+		execute(connection, "INSERT INTO T VALUES (1)");
+
+		// When
+		// We close it
+		connection.close();
+		connection.close();
+
+		// Then
+		// It should be idle and reset, and the closed proxy unusable
+		assertEquals(0, pool.getLeased());
+		assertEquals(1, pool.getIdle());
+		assertTrue(connection.isClosed());
+		try {
+			connection.createStatement();
+			fail("Used a returned connection");
+		} catch (SQLException e) {
+			// Expected.
+		}
+		Connection reused = pool.getConnection();
+		assertTrue(reused.getAutoCommit());
+		assertEquals(1, pool.getTotal());
+		reused.close();
+	}
+
+	/**
+	 * Verifies that an idle connection which is no longer valid is discarded
+	 * rather than handed out.
+	 */
+	@Test
+	public void shouldDiscardInvalidConnection() throws SQLException {
+
+		// Given
+		// An idle connection that has been closed underneath the pool
+		pool = new ConnectionPool(url, "sa", "", 0, 2, 1000, 0);
+		Connection pooled = pool.getConnection();
+		Connection physical = pooled.unwrap(Connection.class);
+		pooled.close();
+		physical.close();
+
+		// When
+		// We borrow a connection
+		Connection connection = pool.getConnection();
+
+		// Then
+		// It should be a new, working connection
+		assertNotSame(physical, connection.unwrap(Connection.class));
+		execute(connection, "CREATE TABLE T (ID INT)");
+		assertEquals(1, pool.getTotal());
+		connection.close();
+	}
+
+	/**
+	 * Verifies that connections idle for longer than the idle timeout are
+	 * closed.
+	 */
+	@Test
+	public void shouldEvictIdleConnections() throws Exception {
+
+		// Given
+		// A pool with a short idle timeout and an idle connection
+		pool = new ConnectionPool(url, "sa", "", 0, 2, 1000, 1);
+		pool.getConnection().close();
+		assertEquals(1, pool.getTotal());
+
+		// When
+		// We wait for the evictor
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.getTotal() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		// Then
+		// The connection should be closed
+		assertEquals(0, pool.getTotal());
+		assertEquals(0, pool.getIdle());
+	}
+
+	/**
+	 * Verifies that a shut down pool closes its connections and rejects
+	 * borrowers.
+	 */
+	@Test
+	public void shouldRejectBorrowAfterShutdown() throws SQLException {
+
+		// Given
+		// A pool with one idle and one leased connection
+		pool = new ConnectionPool(url, "sa", "", 1, 2, 1000, 0);
+		Connection leased = pool.getConnection();
+		pool.getConnection().close();
+
+		// When
+		// We shut it down
+		pool.shutdown();
+
+		// Then
+		// Idle connections should be closed, as should the leased one when
+		// it's returned, and borrowing should fail
+		assertEquals(0, pool.getIdle());
+		leased.close();
+		assertEquals(0, pool.getTotal());
+		try {
+			pool.getConnection();
+			fail("Borrowed from a shut down pool");
+		} catch (SQLException e) {
+			// Expected.
+		}
+	}
+
+	private static void execute(Connection connection, String sql)
+			throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+}
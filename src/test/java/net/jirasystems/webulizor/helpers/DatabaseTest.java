@@ -0,0 +1,86 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class DatabaseTest {
+
+	/**
+	 * Shuts down the database.
+	 */
+	@After
+	public void tearDown() {
+		Database.shutdown();
+	}
+
+	/**
+	 * Verifies that the pool is created with the given settings.
+	 */
+	@Test
+	public void shouldApplyPoolSettings() throws SQLException {
+
+		// Given
+		// Settings for a pool of 2 to 3 connections
+		PoolSettings poolSettings = new PoolSettings(2, 3, 100, 0);
+
+		// When
+		// We initialise the database
+		Database.initialise(Database.HSQL_DRIVER,
+				"jdbc:hsqldb:mem:databasetest", "sa", "", poolSettings);
+
+		// Then
+		// The pool should have the minimum open and lease no more than the
+		// maximum
+		ConnectionPool pool = Database.getConnectionPool();
+		assertEquals(2, pool.getTotal());
+		for (int i = 0; i < 3; i++) {
+			pool.getConnection();
+		}
+		try {
+			pool.getConnection();
+			fail("Borrowed more than the maximum");
+		} catch (SQLException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Verifies that initialising again replaces and shuts down the pool.
+	 */
+	@Test
+	public void shouldReplacePool() {
+
+		// Given
+		// An initialised database
+		Database.initialise(Database.HSQL_DRIVER,
+				"jdbc:hsqldb:mem:databasetest", "sa", "");
+		ConnectionPool previous = Database.getConnectionPool();
+
+		// When
+		// We initialise it again
+		Database.initialise(Database.HSQL_DRIVER,
+				"jdbc:hsqldb:mem:databasetest", "sa", "",
+				PoolSettings.DEFAULT);
+
+		// Then
+		// The previous pool should be shut down
+		assertNotSame(previous, Database.getConnectionPool());
+		assertEquals(0, previous.getTotal());
+		try {
+			previous.getConnection();
+			fail("Borrowed from a replaced pool");
+		} catch (SQLException e) {
+			// Expected.
+		}
+	}
+}
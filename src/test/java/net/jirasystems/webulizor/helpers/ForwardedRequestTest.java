@@ -0,0 +1,146 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ForwardedRequestTest {
+
+	@Mock
+	private HttpServletRequest request;
+
+	/**
+	 * Sets up a plain http request, as a proxy would make it.
+	 */
+	@Before
+	public void setUp() {
+		when(request.getServerPort()).thenReturn(8080);
+		when(request.isSecure()).thenReturn(false);
+		when(request.getScheme()).thenReturn("http");
+		when(request.getServerName()).thenReturn("localhost");
+		when(request.getRemoteHost()).thenReturn("127.0.0.1");
+		when(request.getServletPath()).thenReturn("/page");
+		when(request.getPathInfo()).thenReturn(null);
+	}
+
+	/**
+	 * Verifies that the headers are only read once they're needed, and then
+	 * only once.
+	 */
+	@Test
+	public void shouldReadHeadersLazily() {
+
+		// Given
+		// A wrapped request
+		HttpServletRequest forwarded = ForwardedRequest.newInstance(request);
+
+		// When
+		// We use values that aren't forwarded, then forwarded ones
+		forwarded.getServletPath();
+		verify(request, never()).getHeader(anyString());
+		forwarded.getServerName();
+		forwarded.getScheme();
+		forwarded.getRemoteHost();
+
+		// Then
+		// Each header should have been read once
+		verify(request, times(1)).getHeader("X-Forwarded-Host");
+		verify(request, times(1)).getHeader("X-Forwarded-Proto");
+		verify(request, times(1)).getHeader("X-Forwarded-For");
+		assertSame(forwarded, ForwardedRequest.newInstance(forwarded));
+	}
+
+	/**
+	 * Verifies that X-Forwarded-* headers override the request.
+	 */
+	@Test
+	public void shouldReflectForwardedHeaders() {
+
+		// Given
+		// A request forwarded over https
+		when(request.getHeader("X-Forwarded-Host")).thenReturn("example.com");
+		when(request.getHeader("X-Forwarded-Proto")).thenReturn("https");
+		when(request.getHeader("X-Forwarded-For")).thenReturn("192.0.2.1");
+
+		// When
+		// We wrap it
+		HttpServletRequest forwarded = new ForwardedRequest(request);
+
+		// Then
+		// The forwarded values should be reported
+		assertEquals("example.com", forwarded.getServerName());
+		assertEquals("https", forwarded.getScheme());
+		assertEquals(443, forwarded.getServerPort());
+		assertTrue(forwarded.isSecure());
+		assertEquals("192.0.2.1", forwarded.getRemoteHost());
+	}
+
+	/**
+	 * Verifies that the request is reported as-is without X-Forwarded-*
+	 * headers.
+	 */
+	@Test
+	public void shouldPassThroughWithoutHeaders() {
+
+		// Given
+		// A request that hasn't been through a proxy
+
+		// When
+		// We wrap it
+		HttpServletRequest forwarded = new ForwardedRequest(request);
+
+		// Then
+		// The request's own values should be reported
+		assertEquals("localhost", forwarded.getServerName());
+		assertEquals("http", forwarded.getScheme());
+		assertEquals(8080, forwarded.getServerPort());
+		assertFalse(forwarded.isSecure());
+		assertEquals("127.0.0.1", forwarded.getRemoteHost());
+		assertEquals("/page", forwarded.getServletPath());
+		assertNull(forwarded.getPathInfo());
+	}
+
+	/**
+	 * Verifies that a dispatched request reports the given servlet path and
+	 * path info.
+	 */
+	@Test
+	public void shouldOverridePathsWhenDispatched() {
+
+		// Given
+		// A request dispatched directly to the app
+		HttpServletRequest dispatched = new ForwardedRequest(request, "/app",
+				"/page");
+
+		// When
+		// We get the paths
+		String servletPath = dispatched.getServletPath();
+		String pathInfo = dispatched.getPathInfo();
+
+		// Then
+		// They should be as though the request had been forwarded
+		assertEquals("/app", servletPath);
+		assertEquals("/page", pathInfo);
+		assertNull(new ForwardedRequest(request, "/app", null).getPathInfo());
+	}
+}
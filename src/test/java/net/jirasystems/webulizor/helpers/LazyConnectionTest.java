@@ -0,0 +1,89 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class LazyConnectionTest {
+
+	/**
+	 * Initialises an in-memory database.
+	 */
+	@Before
+	public void setUp() {
+		Database.initialise(Database.HSQL_DRIVER,
+				"jdbc:hsqldb:mem:lazyconnectiontest", "sa", "");
+	}
+
+	/**
+	 * Shuts down the database.
+	 */
+	@After
+	public void tearDown() {
+		Database.shutdown();
+	}
+
+	/**
+	 * Verifies that a transaction can be begun, committed and closed without
+	 * getting a connection.
+	 */
+	@Test
+	public void shouldNotConnectUntilUsed() throws Exception {
+
+		// Given
+		// A lazy connection
+		Connection connection = LazyConnection.create("test");
+
+		// When
+		// We go through a transaction without using it
+		connection.setAutoCommit(false);
+		boolean autoCommit = connection.getAutoCommit();
+		connection.commit();
+		connection.rollback();
+		connection.close();
+
+		// Then
+		// The calls should succeed without leasing a connection and the
+		// connection should be closed
+		assertFalse(autoCommit);
+		assertTrue(connection.isClosed());
+		assertEquals(0, Database.getConnectionPool().getLeased());
+	}
+
+	/**
+	 * Verifies that using the connection gets one from {@link Database}, with
+	 * the auto-commit setting made before it was used.
+	 */
+	@Test
+	public void shouldConnectWhenUsed() throws Exception {
+
+		// Given
+		// A lazy connection with auto-commit turned on
+		Connection connection = LazyConnection.create("test");
+		connection.setAutoCommit(true);
+		int before = Database.getConnectionPool().getLeased();
+
+		// When
+		// We use it
+		connection.createStatement().close();
+
+		// Then
+		// A connection should be leased, with auto-commit on, and returned
+		// when closed
+		assertEquals(0, before);
+		assertEquals(1, Database.getConnectionPool().getLeased());
+		assertTrue(connection.getAutoCommit());
+		connection.close();
+		assertEquals(0, Database.getConnectionPool().getLeased());
+	}
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.when;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -300,6 +302,34 @@ public class LinkTest {
 				+ "=" + value, url.toString());
 	}
 
+	/**
+	 * Verifies that an asset in the manifest resolves to its fingerprinted
+	 * path and one that isn't resolves as normal.
+	 */
+	@Test
+	public void shouldResolveFingerprintedAsset() {
+
+		// Given
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put("/css/site.css", "/css/site.0123456789.css");
+		AssetManifest.initialise(manifest);
+
+		try {
+
+			// When
+			URI fingerprinted = link.asset("css/site.css");
+			URI plain = link.asset("/css/other.css");
+
+			// Then
+			assertEquals(contextPath + "/css/site.0123456789.css",
+					fingerprinted.getPath());
+			assertEquals(contextPath + "/css/other.css", plain.getPath());
+
+		} finally {
+			AssetManifest.initialise(new HashMap<String, String>());
+		}
+	}
+
 	/**
 	 * Re-instantiates {@link #link} with the given values for the URL.
 	 * 
@@ -0,0 +1,368 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link MailQueue} against an in-process SMTP server.
+ *
+ * @author David Carboni
+ *
+ */
+public class MailQueueTest {
+
+	private SmtpServer smtpServer;
+	private Properties config;
+	private MailQueue mailQueue;
+	private long retryDelay;
+
+	/**
+	 * Starts an SMTP server and creates the class under test.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		smtpServer = new SmtpServer();
+		retryDelay = MailQueue.RETRY_DELAY;
+		MailQueue.RETRY_DELAY = 10;
+
+		config = new Properties();
+		config.setProperty("mail.smtp.host", "localhost");
+		config.setProperty("mail.smtp.port", Integer.toString(smtpServer.getPort()));
+		mailQueue = new MailQueue(config);
+	}
+
+	/**
+	 * Stops the queue and the server.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		mailQueue.shutdown();
+		smtpServer.close();
+		MailQueue.RETRY_DELAY = retryDelay;
+		MailQueue.OUTBOX = false;
+		Database.shutdown();
+	}
+
+	/**
+	 * Verifies that queued messages are sent as a batch over one connection.
+	 */
+	@Test
+	public void shouldSendBatchOverOneConnection() throws InterruptedException {
+
+		// Given
+		// Three queued messages
+		for (int i = 0; i < 3; i++) {
+			mailQueue.enqueue("from@example.com", "to@example.com", "Subject " + i, "Body " + i);
+		}
+
+		// When
+		// The queue is started
+		mailQueue.start();
+
+		// Then
+		// All messages should arrive over a single connection
+		assertTrue(smtpServer.awaitMessages(3));
+		assertEquals(1, smtpServer.getConnections());
+		assertEquals(0, mailQueue.getPending());
+	}
+
+	/**
+	 * Verifies that a message the server rejects is retried.
+	 */
+	@Test
+	public void shouldRetryRejectedMessage() throws InterruptedException {
+
+		// Given
+		// A server that rejects the first message
+		smtpServer.reject(1);
+		mailQueue.start();
+
+		// When
+		// A message is sent
+		mailQueue.enqueue("from@example.com", "to@example.com", "Subject", "Body");
+
+		// Then
+		// It should arrive on a later attempt
+		assertTrue(smtpServer.awaitMessages(1));
+		assertTrue(smtpServer.getConnections() >= 2);
+		assertTrue(smtpServer.getMessages().get(0).contains("Body"));
+	}
+
+	/**
+	 * Verifies that messages are still queued and sent if the outbox database
+	 * becomes unavailable.
+	 */
+	@Test
+	public void shouldSendWhenOutboxUnavailable() throws InterruptedException {
+
+		// Given
+		// A queue with an outbox, whose database then goes away
+		mailQueue.shutdown();
+		MailQueue.OUTBOX = true;
+		Database.initialise(Database.HSQL_DRIVER, "jdbc:hsqldb:mem:mailqueuetest", "sa", "");
+		mailQueue = new MailQueue(config);
+		Database.shutdown();
+		mailQueue.start();
+
+		// When
+		// Messages are sent, one after the other
+		mailQueue.enqueue("from@example.com", "to@example.com", "Subject 1", "Body 1");
+		assertTrue(smtpServer.awaitMessages(1));
+		mailQueue.enqueue("from@example.com", "to@example.com", "Subject 2", "Body 2");
+
+		// Then
+		// Both should arrive, so the worker is still running
+		assertTrue(smtpServer.awaitMessages(2));
+		assertEquals(0, mailQueue.getPending());
+	}
+
+	/**
+	 * Verifies that queued messages are kept in the outbox until they are
+	 * sent, so they survive a restart.
+	 */
+	@Test
+	public void shouldKeepMessagesInOutbox() throws Exception {
+
+		// Given
+		// A message queued with an outbox, but not sent
+		mailQueue.shutdown();
+		MailQueue.OUTBOX = true;
+		Database.initialise(Database.HSQL_DRIVER, "jdbc:hsqldb:mem:mailoutboxtest1", "sa", "");
+		new MailQueue(config).enqueue("from@example.com", "to@example.com", "Subject", "Body");
+		assertEquals(1, outboxSize());
+
+		// When
+		// A new queue is started
+		mailQueue = new MailQueue(config);
+		assertEquals(1, mailQueue.getPending());
+		mailQueue.start();
+
+		// Then
+		// The message should be sent and removed from the outbox
+		assertTrue(smtpServer.awaitMessages(1));
+		assertTrue(awaitOutboxSize(0));
+	}
+
+	/**
+	 * Verifies that the number of attempts is kept in the outbox, so a message
+	 * is abandoned after {@link MailQueue#MAX_ATTEMPTS} across restarts.
+	 */
+	@Test
+	public void shouldCountAttemptsAcrossRestarts() throws Exception {
+
+		// Given
+		// A message in the outbox with one attempt left
+		mailQueue.shutdown();
+		MailQueue.OUTBOX = true;
+		Database.initialise(Database.HSQL_DRIVER, "jdbc:hsqldb:mem:mailoutboxtest2", "sa", "");
+		new MailQueue(config).enqueue("from@example.com", "to@example.com", "Subject", "Body");
+		execute("UPDATE " + MailQueue.OUTBOX_TABLE + " SET ATTEMPTS = " + (MailQueue.MAX_ATTEMPTS - 1));
+
+		// When
+		// A new queue tries to send it and the server rejects it
+		smtpServer.reject(1);
+		mailQueue = new MailQueue(config);
+		mailQueue.start();
+
+		// Then
+		// It should be abandoned rather than retried
+		assertTrue(awaitOutboxSize(0));
+		assertEquals(0, mailQueue.getPending());
+		assertEquals(0, smtpServer.getMessages().size());
+	}
+
+	/**
+	 * Verifies that a failed attempt is recorded in the outbox.
+	 */
+	@Test
+	public void shouldRecordAttemptsInOutbox() throws Exception {
+
+		// Given
+		// A queue with an outbox and a server that rejects everything
+		mailQueue.shutdown();
+		MailQueue.OUTBOX = true;
+		Database.initialise(Database.HSQL_DRIVER, "jdbc:hsqldb:mem:mailoutboxtest3", "sa", "");
+		MailQueue.RETRY_DELAY = 60000;
+		smtpServer.reject(Integer.MAX_VALUE);
+		mailQueue = new MailQueue(config);
+		mailQueue.start();
+
+		// When
+		// A message is sent
+		mailQueue.enqueue("from@example.com", "to@example.com", "Subject", "Body");
+
+		// Then
+		// The failed attempt should be recorded
+		long deadline = System.currentTimeMillis() + 10000;
+		while (attempts() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, attempts());
+		assertEquals(1, mailQueue.getPending());
+	}
+
+	private static int outboxSize() throws SQLException {
+		return queryInt("SELECT COUNT(*) FROM " + MailQueue.OUTBOX_TABLE);
+	}
+
+	private static int attempts() throws SQLException {
+		return queryInt("SELECT MAX(ATTEMPTS) FROM " + MailQueue.OUTBOX_TABLE);
+	}
+
+	private static boolean awaitOutboxSize(int size) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (outboxSize() != size && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return outboxSize() == size;
+	}
+
+	private static int queryInt(String sql) throws SQLException {
+		Connection connection = Database.getConnection("test");
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet resultSet = statement.executeQuery(sql);
+				resultSet.next();
+				return resultSet.getInt(1);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static void execute(String sql) throws SQLException {
+		Connection connection = Database.getConnection("test");
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate(sql);
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Just enough SMTP to accept messages from JavaMail.
+	 */
+	private static class SmtpServer implements Runnable {
+
+		private final ServerSocket serverSocket;
+		private final AtomicInteger connections = new AtomicInteger();
+		private final AtomicInteger rejections = new AtomicInteger();
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		SmtpServer() throws IOException {
+			serverSocket = new ServerSocket(0);
+			Thread thread = new Thread(this, "smtp-server");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		int getConnections() {
+			return connections.get();
+		}
+
+		List<String> getMessages() {
+			return messages;
+		}
+
+		void reject(int count) {
+			rejections.set(count);
+		}
+
+		boolean awaitMessages(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (messages.size() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			return messages.size() >= count;
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+
+		@Override
+		public void run() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					try {
+						connections.incrementAndGet();
+						converse(socket);
+					} finally {
+						socket.close();
+					}
+				} catch (IOException e) {
+					// Closed, or the client went away.
+				}
+			}
+		}
+
+		private void converse(Socket socket) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+			reply(out, "220 localhost");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				String command = line.toUpperCase();
+				if (command.startsWith("DATA")) {
+					reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					StringBuilder message = new StringBuilder();
+					while ((line = in.readLine()) != null && !line.equals(".")) {
+						message.append(line).append('\n');
+					}
+					if (rejections.getAndDecrement() > 0) {
+						reply(out, "451 Try again later");
+					} else {
+						messages.add(message.toString());
+						reply(out, "250 OK");
+					}
+				} else if (command.startsWith("QUIT")) {
+					reply(out, "221 Bye");
+					return;
+				} else {
+					reply(out, "250 OK");
+				}
+			}
+		}
+
+		private static void reply(Writer out, String reply) throws IOException {
+			out.write(reply + "\r\n");
+			out.flush();
+		}
+	}
+}
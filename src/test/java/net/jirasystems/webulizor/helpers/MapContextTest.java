@@ -0,0 +1,130 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class MapContextTest {
+
+	private Map<String, Object> data;
+	private Map<String, Object> defaults;
+
+	// Class under test.
+	private MapContext context;
+
+	/**
+	 * Sets up the class under test with overlapping data and defaults.
+	 */
+	@Before
+	public void setUp() {
+		data = new HashMap<String, Object>();
+		data.put("data", "data");
+		data.put("both", "data");
+		data.put("null", null);
+		defaults = new HashMap<String, Object>();
+		defaults.put("default", "default");
+		defaults.put("both", "default");
+		defaults.put("null", "default");
+		context = new MapContext(data, defaults);
+	}
+
+	/**
+	 * Verifies that values are read from the data, then the defaults.
+	 */
+	@Test
+	public void shouldReadDataThenDefaults() {
+
+		// Given
+		// The data and defaults
+
+		// When
+		// We read values
+		Object both = context.get("both");
+		Object onlyData = context.get("data");
+		Object onlyDefault = context.get("default");
+		Object nullData = context.get("null");
+
+		// Then
+		// The data should take precedence, unless its value is null
+		assertEquals("data", both);
+		assertEquals("data", onlyData);
+		assertEquals("default", onlyDefault);
+		assertEquals("default", nullData);
+		assertNull(context.get("missing"));
+		assertTrue(context.containsKey("default"));
+		assertFalse(context.containsKey("missing"));
+	}
+
+	/**
+	 * Verifies that values set by the template take precedence and are held
+	 * locally, leaving the wrapped maps unchanged.
+	 */
+	@Test
+	public void shouldHoldSetValuesLocally() {
+
+		// Given
+		// A value to set over both the data and defaults
+		Map<String, Object> originalData = new HashMap<String, Object>(data);
+		Map<String, Object> originalDefaults = new HashMap<String, Object>(
+				defaults);
+
+		// When
+		// We set it, and another that's null, then remove the second
+		Object previous = context.put("both", "local");
+		context.put("default", null);
+		Object value = context.get("both");
+		Object nullValue = context.get("default");
+		context.remove("default");
+
+		// Then
+		// The local values should be read first, without changing the maps
+		assertNull(previous);
+		assertEquals("local", value);
+		assertNull(nullValue);
+		assertEquals("default", context.get("default"));
+		assertEquals(originalData, data);
+		assertEquals(originalDefaults, defaults);
+		assertEquals(new HashSet<String>(Arrays.asList("both", "data",
+				"null", "default")), new HashSet<Object>(Arrays.asList(context
+				.getKeys())));
+	}
+
+	/**
+	 * Verifies the read order when rendering a template.
+	 */
+	@Test
+	public void shouldReadThroughWhenRendering() {
+
+		// Given
+		// Data that the template sets over
+		data.put("set", "data");
+		Velocity.getGlobals().put("default", "global");
+		try {
+
+			// When
+			// We render the template
+			String result = Velocity.renderText("mapcontexttest.vm", data);
+
+			// Then
+			// Each value should come from the right place, and the data
+			// shouldn't be changed
+			assertEquals("local data global", result);
+			assertEquals("data", data.get("set"));
+		} finally {
+			Velocity.getGlobals().remove("default");
+		}
+	}
+}
@@ -369,6 +369,38 @@ public class ParametersTest {
 		assertFalse(result);
 	}
 
+	/**
+	 * Verifies that a valid String parameter does not mask an earlier required parameter that
+	 * could not be parsed.
+	 */
+	@Test
+	public void shouldFailForRequiredButInvalidParameterFollowedByString() {
+
+		// Given
+
+		// Parameters
+		addParameter("intParameter", "NaN");
+		addParameter("stringParameter", "string");
+
+		// A class defining a required field followed by a String field
+		class InvalidThenString {
+			@Parameter(required = true)
+			int intParameter;
+			@Parameter
+			String stringParameter;
+		}
+		InvalidThenString invalidThenString = new InvalidThenString();
+
+		// When
+		// We try to read parameters
+		boolean result = Parameters.readParameters(invalidThenString, request);
+
+		// Then
+		// Operation fails because the int field is required, but the String is still populated:
+		assertFalse(result);
+		assertEquals("string", invalidThenString.stringParameter);
+	}
+
 	/**
 	 * Verifies that an annotated field can reference a parameter with a name different from the
 	 * field name.
@@ -0,0 +1,171 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class QueryStringTest {
+
+	/**
+	 * Verifies that a query string is parsed and decoded in order.
+	 */
+	@Test
+	public void shouldParseQueryString() {
+
+		// Given
+		// A query string with encoded values and a repeated name
+		String query = "a=1&name=caf%C3%A9+au+lait;a=2&flag";
+
+		// When
+		// We parse it
+		QueryString queryString = new QueryString(query);
+
+		// Then
+		// The parameters should be decoded, in order
+		assertEquals(4, queryString.size());
+		assertEquals("1", queryString.getValue("a"));
+		assertEquals("caf\u00e9 au lait", queryString.getValue("name"));
+		assertEquals("a", queryString.get(2).getName());
+		assertEquals("2", queryString.get(2).getValue());
+		assertEquals("flag", queryString.get(3).getName());
+		assertNull(queryString.get(3).getValue());
+	}
+
+	/**
+	 * Verifies that formatting encodes names and values as URLEncodedUtils
+	 * does.
+	 */
+	@Test
+	public void shouldFormatQueryString() {
+
+		// Given
+		// Parameters needing encoding
+		QueryString queryString = new QueryString("a b", "caf\u00e9*~");
+		queryString.add(new BasicNameValuePair("flag", null));
+
+		// When
+		// We format the query string
+		String result = queryString.toQueryString();
+
+		// Then
+		// Spaces should be '+' and other characters %-encoded as UTF-8
+		assertEquals("a+b=caf%C3%A9*%7E&flag", result);
+	}
+
+	/**
+	 * Verifies that lookups reflect changes to the list.
+	 */
+	@Test
+	public void shouldLookUpAfterChanges() {
+
+		// Given
+		// A query string that has been looked up
+		QueryString queryString = new QueryString("a=1&b=2");
+		assertEquals("1", queryString.getValue("a"));
+
+		// When
+		// The list is changed
+		queryString.set(0, new BasicNameValuePair("c", "3"));
+		queryString.add(0, new BasicNameValuePair("b", "0"));
+
+		// Then
+		// Lookups should see the changes
+		assertNull(queryString.getValue("a"));
+		assertEquals("3", queryString.getValue("c"));
+		assertEquals("0", queryString.getValue("b"));
+	}
+
+	/**
+	 * Verifies that all parameters of a name are removed, ignoring case.
+	 */
+	@Test
+	public void shouldRemoveAllByName() {
+
+		// Given
+		// A query string with a repeated name
+		QueryString queryString = new QueryString("a=1&b=2&A=3&c=4&a=5");
+
+		// When
+		// We remove the name
+		List<NameValuePair> removed = queryString.remove("a");
+
+		// Then
+		// All matching parameters should be removed and the rest kept in order
+		assertEquals(3, removed.size());
+		assertEquals("b=2&c=4", queryString.toString());
+		assertNull(queryString.get("a"));
+	}
+
+	/**
+	 * Verifies that lookups reflect changes made through a sub-list or a list
+	 * iterator.
+	 */
+	@Test
+	public void shouldLookUpAfterChangesThroughViews() {
+
+		// Given
+		// A query string that has been looked up
+		QueryString queryString = new QueryString("a=1&b=2&c=3");
+		assertEquals("2", queryString.getValue("b"));
+
+		// When
+		// Parameters are replaced through a sub-list and a list iterator
+		queryString.subList(1, 3).set(0, new BasicNameValuePair("d", "4"));
+		String d = queryString.getValue("d");
+		String b = queryString.getValue("b");
+		ListIterator<NameValuePair> iterator = queryString.listIterator();
+		iterator.next();
+		iterator.set(new BasicNameValuePair("e", "5"));
+		String e = queryString.getValue("e");
+		String a = queryString.getValue("a");
+
+		// Then
+		// Lookups should find the new parameters and not the old ones
+		assertEquals("4", d);
+		assertNull(b);
+		assertEquals("5", e);
+		assertNull(a);
+		assertEquals("e=5&d=4&c=3", queryString.toQueryString());
+	}
+
+	/**
+	 * Verifies that a URI query is parsed as URLEncodedUtils parses it,
+	 * including parameters with an empty name.
+	 */
+	@Test
+	public void shouldParseUriAsUrlEncodedUtils() throws URISyntaxException {
+
+		// Given
+		// A URI with empty names and tokens
+		URI uri = new URI("http://example.com/?=a&b=1&&c&%20=x;d=%22e%26f%22");
+
+		// When
+		// We parse it
+		QueryString queryString = new QueryString(uri);
+
+		// Then
+		// The parameters should be the same as URLEncodedUtils gives
+		List<NameValuePair> expected = URLEncodedUtils.parse(uri, "UTF-8");
+		assertEquals(expected.size(), queryString.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getName(), queryString.get(i)
+					.getName());
+			assertEquals(expected.get(i).getValue(), queryString.get(i)
+					.getValue());
+		}
+		assertEquals("a", queryString.getValue(""));
+	}
+}
@@ -0,0 +1,127 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.Resource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author David Carboni
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TemplateCacheTest {
+
+	@Mock
+	private RuntimeServices runtimeServices;
+
+	// Class under test.
+	private TemplateCache templateCache;
+
+	/**
+	 * Sets up the class under test with room for two templates.
+	 */
+	@Before
+	public void setUp() {
+		when(runtimeServices.getInt(anyString(), anyInt())).thenReturn(2);
+		templateCache = new TemplateCache();
+		templateCache.initialize(runtimeServices);
+	}
+
+	/**
+	 * Verifies that the least recently used template is evicted once the
+	 * cache is full.
+	 */
+	@Test
+	public void shouldEvictLeastRecentlyUsed() {
+
+		// Given
+		// A full cache, where the first template has been used since the
+		// second was added
+		Resource first = mock(Resource.class);
+		Resource second = mock(Resource.class);
+		templateCache.put("first", first);
+		templateCache.put("second", second);
+		templateCache.get("first");
+		long evictions = TemplateCache.getEvictions();
+
+		// When
+		// We add another
+		templateCache.put("third", mock(Resource.class));
+
+		// Then
+		// The second should have been evicted
+		assertEquals(evictions + 1, TemplateCache.getEvictions());
+		assertSame(first, templateCache.get("first"));
+		assertNull(templateCache.get("second"));
+		assertNotNull(templateCache.get("third"));
+	}
+
+	/**
+	 * Verifies the hit, miss, reload and parse counters.
+	 */
+	@Test
+	public void shouldCountLookups() {
+
+		// Given
+		// The current counts
+		long hits = TemplateCache.getHits();
+		long misses = TemplateCache.getMisses();
+		long reloads = TemplateCache.getReloads();
+		long parses = TemplateCache.getParses();
+
+		// When
+		// A template is missed and parsed, found, then found to be modified
+		// and parsed again
+		templateCache.get("template");
+		templateCache.put("template", mock(Resource.class));
+		templateCache.get("template");
+		templateCache.get("template");
+		templateCache.put("template", mock(Resource.class));
+
+		// Then
+		// Each should be counted
+		assertEquals(hits + 2, TemplateCache.getHits());
+		assertEquals(misses + 1, TemplateCache.getMisses());
+		assertEquals(reloads + 1, TemplateCache.getReloads());
+		assertEquals(parses + 2, TemplateCache.getParses());
+	}
+
+	/**
+	 * Verifies that templates reached through #parse are counted as parsed.
+	 */
+	@Test
+	public void shouldCountParsedTemplates() {
+
+		// Given
+		// A template that parses another, neither yet cached
+		long parses = TemplateCache.getParses();
+
+		// When
+		// We render it twice
+		String first = Velocity.renderText("templatecachetest.vm",
+				new HashMap<String, Object>());
+		String second = Velocity.renderText("templatecachetest.vm",
+				new HashMap<String, Object>());
+
+		// Then
+		// Both templates should have been parsed once
+		assertEquals("outer inner", first);
+		assertEquals(first, second);
+		assertEquals(parses + 2, TemplateCache.getParses());
+	}
+}
@@ -0,0 +1,104 @@
+package net.jirasystems.webulizor.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class TrimWriterTest {
+
+	private StringWriter out;
+
+	// Class under test.
+	private TrimWriter writer;
+
+	/**
+	 * Sets up the class under test.
+	 */
+	@Before
+	public void setUp() {
+		out = new StringWriter();
+		writer = new TrimWriter(out);
+	}
+
+	/**
+	 * Verifies that input split across the different write methods is
+	 * trimmed as if it had been written in one go.
+	 */
+	@Test
+	public void shouldTrimAcrossWrites() throws IOException {
+
+		// Given
+		// Input whose whitespace spans the boundaries between writes
+		String input = " \n\t<p>Hello</p> \n <p>World</p>\n\n";
+
+		// When
+		// We write it using each method in turn
+		writer.write(' ');
+		writer.write("\n\t<p>".toCharArray(), 0, 5);
+		writer.write("xxHello</p> \nxx", 2, 11);
+		writer.write(' ');
+		writer.write("<p>World</p>\n".toCharArray(), 0, 13);
+		writer.write("\n", 0, 1);
+		writer.close();
+
+		// Then
+		// The output should match String.trim()
+		assertEquals(input.trim(), out.toString());
+	}
+
+	/**
+	 * Verifies that input which is all whitespace produces no output.
+	 */
+	@Test
+	public void shouldWriteNothingForWhitespace() throws IOException {
+
+		// Given
+		// Whitespace only
+
+		// When
+		// We write it using each method
+		writer.write(' ');
+		writer.write(" \t".toCharArray(), 0, 2);
+		writer.write("\r\n", 0, 2);
+		writer.write(" ");
+		writer.close();
+
+		// Then
+		// Nothing should be written
+		assertEquals("", out.toString());
+	}
+
+	/**
+	 * Verifies that whitespace between non-whitespace characters is kept,
+	 * including whitespace held back from an earlier write.
+	 */
+	@Test
+	public void shouldKeepEmbeddedWhitespace() throws IOException {
+
+		// Given
+		// Words separated by whitespace, within and between writes
+		String input = "a  b\n\n";
+
+		// When
+		// We write them
+		writer.write(input);
+		writer.write('\t');
+		writer.write("c".toCharArray(), 0, 1);
+		writer.write(' ');
+		writer.write('d');
+		writer.write("   ");
+		writer.close();
+
+		// Then
+		// Only the trailing whitespace should be removed
+		assertEquals("a  b\n\n\tc d", out.toString());
+	}
+}
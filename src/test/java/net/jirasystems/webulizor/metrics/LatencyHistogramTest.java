@@ -0,0 +1,68 @@
+package net.jirasystems.webulizor.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Verifies that each value falls within the bounds of its bucket.
+	 */
+	@Test
+	public void shouldBucketValues() {
+
+		// Given
+		// Values across the range of the histogram
+		long[] values = { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789L,
+				(1L << 36) - 1 };
+
+		for (long value : values) {
+
+			// When
+			// We find the bucket
+			int index = LatencyHistogram.index(value);
+
+			// Then
+			// The value should be within the bucket, which is at most 1/16 of
+			// the value wide
+			assertTrue(index < LatencyHistogram.BUCKETS);
+			long upper = LatencyHistogram.upperBound(index);
+			assertTrue(value <= upper);
+			assertTrue(index == 0
+					|| value > LatencyHistogram.upperBound(index - 1));
+			assertTrue(upper - value <= value / 16);
+		}
+	}
+
+	/**
+	 * Verifies percentiles of recorded times.
+	 */
+	@Test
+	public void shouldCalculatePercentiles() {
+
+		// Given
+		// A histogram of 1 to 1000 milliseconds
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		// When
+		// We record the times in nanoseconds
+		for (long millis = 1; millis <= 1000; millis++) {
+			histogram.record(millis * 1000000);
+		}
+
+		// Then
+		// Percentiles should be accurate to within the bucket size
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000.0, histogram.getMax(), 0);
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertEquals(500, histogram.getP50(), 500 / 16.0);
+		assertEquals(990, histogram.getP99(), 990 / 16.0);
+		assertEquals(1000, histogram.getP999(), 0);
+	}
+}
@@ -0,0 +1,84 @@
+package net.jirasystems.webulizor.metrics;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class MetricsActionTest {
+
+	/**
+	 * Starts with no metrics.
+	 */
+	@Before
+	public void setUp() {
+		RouteMetrics.reset();
+	}
+
+	/**
+	 * Discards the metrics recorded by the test.
+	 */
+	@After
+	public void tearDown() {
+		RouteMetrics.reset();
+	}
+
+	/**
+	 * Verifies that backslashes, quotes and newlines are escaped in label
+	 * values.
+	 */
+	@Test
+	public void shouldEscapeLabels() {
+
+		// Given
+		// A route with characters that need escaping
+		RouteMetrics metrics = RouteMetrics.forRoute("GET", "/a\\b\"c\nd");
+		metrics.getTotal().record(1000000);
+
+		// When
+		// We render the metrics
+		String result = MetricsAction.render();
+
+		// Then
+		// The label should be escaped
+		assertTrue(result, result.contains("webulizor_route_seconds_count{"
+				+ "method=\"GET\",route=\"/a\\\\b\\\"c\\nd\",phase=\"total\"} 1\n"));
+		for (String line : result.split("\n")) {
+			assertTrue(line, line.startsWith("#")
+					|| line.startsWith("webulizor_"));
+		}
+	}
+
+	/**
+	 * Verifies that phases and actions with nothing recorded are left out.
+	 */
+	@Test
+	public void shouldSkipEmptyHistograms() {
+
+		// Given
+		// A route where only the total and one action have been recorded
+		RouteMetrics metrics = RouteMetrics.forRoute("POST", "/form");
+		metrics.getTotal().record(1000000);
+		metrics.recordPerform(MetricsAction.class, 1000000);
+		metrics.getPerforms().put(String.class, new LatencyHistogram());
+
+		// When
+		// We render the metrics
+		String result = MetricsAction.render();
+
+		// Then
+		// Only those should be present
+		assertTrue(result, result.contains("phase=\"total\""));
+		assertTrue(result, result.contains("action=\""
+				+ MetricsAction.class.getName() + "\""));
+		assertFalse(result, result.contains("phase=\"lookup\""));
+		assertFalse(result, result.contains("phase=\"commit\""));
+		assertFalse(result, result.contains("action=\"java.lang.String\""));
+	}
+}
@@ -0,0 +1,178 @@
+package net.jirasystems.webulizor.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author David Carboni
+ *
+ */
+public class UserJourneyTest {
+
+	private int sampleEvery;
+	private int sessionLimit;
+	private String[] headers;
+
+	/**
+	 * Records the settings, so they can be restored.
+	 */
+	@Before
+	public void setUp() {
+		sampleEvery = UserJourney.SAMPLE_EVERY;
+		sessionLimit = UserJourney.SESSION_LIMIT;
+		headers = UserJourney.HEADERS;
+	}
+
+	/**
+	 * Restores the settings and an empty buffer.
+	 */
+	@After
+	public void tearDown() {
+		UserJourney.SAMPLE_EVERY = sampleEvery;
+		UserJourney.SESSION_LIMIT = sessionLimit;
+		UserJourney.HEADERS = headers;
+		UserJourney.initialise(UserJourney.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Verifies that once the buffer is full the oldest interactions are
+	 * overwritten.
+	 */
+	@Test
+	public void shouldOverwriteOldestWhenFull() {
+
+		// Given
+		// A buffer of three interactions
+		UserJourney.initialise(3);
+
+		// When
+		// We record five requests
+		for (int i = 1; i <= 5; i++) {
+			UserJourney.addRequest(request("session", "/" + i));
+		}
+
+		// Then
+		// The last three should be held, oldest first
+		assertEquals(Arrays.asList("/3", "/4", "/5"), recorded("session"));
+	}
+
+	/**
+	 * Verifies that getting the interactions empties the buffer, and that
+	 * recording continues afterwards.
+	 */
+	@Test
+	public void shouldDrain() {
+
+		// Given
+		// Requests from two sessions
+		UserJourney.initialise(4);
+		UserJourney.addRequest(request("a", "/1"));
+		UserJourney.addRequest(request("b", "/2"));
+		UserJourney.addRequest(request("a", "/3"));
+
+		// When
+		// We get the interactions twice, then record another request
+		Map<String, List<Interaction>> first = UserJourney.getInteractions();
+		Map<String, List<Interaction>> second = UserJourney
+				.getInteractions();
+		UserJourney.addRequest(request("b", "/4"));
+
+		// Then
+		// The first should be grouped by session, the second empty, and only
+		// the new request should remain
+		assertEquals(2, first.size());
+		assertEquals(Arrays.asList("/1", "/3"), uris(first.get("a")));
+		assertEquals(Arrays.asList("/2"), uris(first.get("b")));
+		assertTrue(second.isEmpty());
+		assertEquals(Arrays.asList("/4"), recorded("b"));
+	}
+
+	/**
+	 * Verifies that one request in every {@link UserJourney#SAMPLE_EVERY} is
+	 * recorded.
+	 */
+	@Test
+	public void shouldSampleEveryN() {
+
+		// Given
+		// Sampling every third request
+		UserJourney.SAMPLE_EVERY = 3;
+
+		// When
+		// We make nine requests
+		for (int i = 1; i <= 9; i++) {
+			UserJourney.addRequest(request("session", "/" + i));
+		}
+
+		// Then
+		// Three should be recorded
+		assertEquals(3, recorded("session").size());
+	}
+
+	/**
+	 * Verifies that a session can't record more than
+	 * {@link UserJourney#SESSION_LIMIT} interactions, or any without a
+	 * session.
+	 */
+	@Test
+	public void shouldLimitSessions() {
+
+		// Given
+		// A limit of two interactions per session
+		UserJourney.SESSION_LIMIT = 2;
+
+		// When
+		// We make three requests in one session and one without a session
+		UserJourney.addRequest(request("busy", "/1"));
+		UserJourney.addRequest(request("busy", "/2"));
+		UserJourney.addRequest(request("busy", "/3"));
+		UserJourney.addRequest(request(null, "/4"));
+
+		// Then
+		// Only the first two should be recorded
+		Map<String, List<Interaction>> interactions = UserJourney
+				.getInteractions();
+		assertEquals(1, interactions.size());
+		assertEquals(Arrays.asList("/1", "/2"),
+				uris(interactions.get("busy")));
+	}
+
+	private static HttpServletRequest request(String sessionId, String uri) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getRequestURI()).thenReturn(uri);
+		if (sessionId != null) {
+			HttpSession session = mock(HttpSession.class);
+			when(session.getId()).thenReturn(sessionId);
+			when(request.getSession(false)).thenReturn(session);
+		}
+		return request;
+	}
+
+	private static List<String> recorded(String sessionId) {
+		return uris(UserJourney.getInteractions().get(sessionId));
+	}
+
+	private static List<String> uris(List<Interaction> interactions) {
+		List<String> result = new ArrayList<String>();
+		if (interactions != null) {
+			for (Interaction interaction : interactions) {
+				result.add(interaction.getRequestURI());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,185 @@
+package net.jirasystems.webulizor.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compiles sources in a temporary directory with {@link RouteIndexProcessor}
+ * and checks the generated index.
+ *
+ * @author David Carboni
+ *
+ */
+public class RouteIndexProcessorTest {
+
+	private JavaCompiler compiler;
+	private File root;
+	private File sources;
+	private File classes;
+
+	/**
+	 * Creates source and output directories.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		compiler = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(compiler);
+		root = File.createTempFile("routeindexprocessor", "");
+		root.delete();
+		sources = new File(root, "src");
+		classes = new File(root, "classes");
+		classes.mkdirs();
+	}
+
+	/**
+	 * Removes the directories.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		if (root != null) {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	/**
+	 * Verifies that annotated actions are indexed, but not unannotated
+	 * actions or annotated classes that aren't actions.
+	 */
+	@Test
+	public void shouldIndexAnnotatedActions() throws IOException {
+
+		// Given
+		// A routed action, an unrouted singleton, an unannotated action and a
+		// routed non-action
+		File routed = action("Routed", "@Route(path = \"/routed\")");
+		File singleton = action("Shared", "@Singleton");
+		File unrouted = action("Unrouted", "");
+		File notAction = source("NotAction", "@Route(path = \"/not\")\n"
+				+ "public class NotAction {\n}\n");
+
+		// When
+		// We compile them
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(
+				routed, singleton, unrouted, notAction);
+
+		// Then
+		// Only the annotated actions should be indexed, with a warning for
+		// the non-action
+		assertEquals(Arrays.asList("test.Routed", "test.Shared"), index());
+		assertEquals(1, diagnostics.size());
+		assertEquals(Kind.WARNING, diagnostics.get(0).getKind());
+	}
+
+	/**
+	 * Verifies that entries from a previous compilation are kept for classes
+	 * that weren't recompiled and still exist, and dropped otherwise.
+	 */
+	@Test
+	public void shouldMergeIncrementally() throws IOException {
+
+		// Given
+		// An index from a previous compilation
+		File first = action("First", "@Route(path = \"/first\")");
+		File second = action("Second", "@Route(path = \"/second\")");
+		File third = action("Third", "@HomeAction");
+		compile(first, second, third);
+
+		// When
+		// We recompile one class without its annotation, delete another and
+		// compile a new one
+		File fourth = action("Fourth", "@Route(path = \"/fourth\")");
+		second = action("Second", "");
+		new File(classes, "test/Third.class").delete();
+		compile(second, fourth);
+
+		// Then
+		// The untouched and the new classes should be indexed
+		assertEquals(Arrays.asList("test.First", "test.Fourth"), index());
+	}
+
+	private File action(String name, String annotation) throws IOException {
+		return source(name, annotation + "\npublic class " + name
+				+ " extends StatelessAction {\n"
+				+ "\tprotected Action process() {\n\t\treturn null;\n\t}\n"
+				+ "}\n");
+	}
+
+	private File source(String name, String body) throws IOException {
+		File file = new File(sources, "test/" + name + ".java");
+		FileUtils.writeStringToFile(file, "package test;\n\n"
+				+ "import net.jirasystems.webulizor.annotations.*;\n"
+				+ "import net.jirasystems.webulizor.base.StatelessAction;\n"
+				+ "import net.jirasystems.webulizor.interfaces.Action;\n\n"
+				+ body, "UTF-8");
+		return file;
+	}
+
+	private List<Diagnostic<? extends JavaFileObject>> compile(File... files)
+			throws IOException {
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(
+				null, null, null);
+		try {
+			Iterable<? extends JavaFileObject> units = fileManager
+					.getJavaFileObjects(files);
+			List<String> options = Arrays.asList("-d", classes.getPath(),
+					"-classpath", classes.getPath() + File.pathSeparator
+							+ location(RouteIndexProcessor.class)
+							+ File.pathSeparator
+							+ location(HttpServletRequest.class),
+					"-processor", RouteIndexProcessor.class.getName());
+			boolean compiled = compiler.getTask(null, fileManager,
+					diagnostics, options, null, units).call().booleanValue();
+			assertTrue(diagnostics.getDiagnostics().toString(), compiled);
+		} finally {
+			fileManager.close();
+		}
+		return diagnostics.getDiagnostics();
+	}
+
+	/**
+	 * @return The classpath entry a class was loaded from. The test JVM's
+	 *         class path may only be a launcher jar.
+	 */
+	private static String location(Class<?> type) {
+		try {
+			return new File(type.getProtectionDomain().getCodeSource()
+					.getLocation().toURI()).getPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<String> index() throws IOException {
+		List<String> result = new ArrayList<String>();
+		for (String line : FileUtils.readLines(new File(classes,
+				RouteIndexProcessor.INDEX), "UTF-8")) {
+			if (line.length() > 0 && !line.startsWith("#")) {
+				result.add(line);
+			}
+		}
+		return result;
+	}
+}